@@ -0,0 +1,314 @@
+package geography;
+
+import java.util.Arrays;
+
+/**
+ * A static KD-tree for nearest point and radius queries on the earth.
+ *
+ * Every point is stored as a 3D unit vector in primitive arrays.  The
+ * straight line (chord) distance between unit vectors grows with the great
+ * circle distance, so the tree can be searched with plain Euclidean
+ * pruning.  The tree is implicit:
+ * the points are reordered so that the node of a range [lo, hi) is the
+ * median at (lo + hi) / 2, with the smaller points to its left.
+ * Instances are immutable and safe to share between threads.
+ */
+public class PointIndex {
+
+	// Same radius as GeographicPoint.distance
+	private static final double EARTH_RADIUS_KM = 6373;
+
+	private final int[] ids;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	private final byte[] splitDim;
+
+	/**
+	 * Build an index over the given points.
+	 * @param latitudes The latitude of every point
+	 * @param longitudes The longitude of every point
+	 */
+	public PointIndex(double[] latitudes, double[] longitudes)
+	{
+		if (latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException("Latitude and longitude arrays differ in length");
+		}
+		int n = latitudes.length;
+		ids = new int[n];
+		x = new double[n];
+		y = new double[n];
+		z = new double[n];
+		splitDim = new byte[n];
+		double[] v = new double[3];
+		for (int i = 0; i < n; i++) {
+			ids[i] = i;
+			toUnitVector(latitudes[i], longitudes[i], v);
+			x[i] = v[0];
+			y[i] = v[1];
+			z[i] = v[2];
+		}
+		build(0, n);
+	}
+
+	private static void toUnitVector(double lat, double lon, double[] v)
+	{
+		double latRad = Math.toRadians(lat);
+		double lonRad = Math.toRadians(lon);
+		v[0] = Math.cos(latRad) * Math.cos(lonRad);
+		v[1] = Math.cos(latRad) * Math.sin(lonRad);
+		v[2] = Math.sin(latRad);
+	}
+
+	// Split each range on its widest dimension at the median
+	private void build(int lo, int hi)
+	{
+		while (hi - lo > 1) {
+			double[] spread = new double[3];
+			double[][] coords = {x, y, z};
+			for (int d = 0; d < 3; d++) {
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int i = lo; i < hi; i++) {
+					min = Math.min(min, coords[d][i]);
+					max = Math.max(max, coords[d][i]);
+				}
+				spread[d] = max - min;
+			}
+			int dim = spread[0] >= spread[1] ? (spread[0] >= spread[2] ? 0 : 2) : (spread[1] >= spread[2] ? 1 : 2);
+			int mid = (lo + hi) >>> 1;
+			select(coords[dim], lo, hi - 1, mid);
+			splitDim[mid] = (byte) dim;
+			build(lo, mid);
+			lo = mid + 1;
+		}
+	}
+
+	// Quickselect so that position k holds the k-th smallest value of the range
+	private void select(double[] key, int left, int right, int k)
+	{
+		while (right > left) {
+			double pivot = key[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (key[i] < pivot) {
+					i++;
+				}
+				while (key[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j)
+	{
+		int id = ids[i]; ids[i] = ids[j]; ids[j] = id;
+		double t = x[i]; x[i] = x[j]; x[j] = t;
+		t = y[i]; y[i] = y[j]; y[j] = t;
+		t = z[i]; z[i] = z[j]; z[j] = t;
+	}
+
+	/** Get the number of points in the index */
+	public int size()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * Find the point closest to a location.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @return The index of the closest point, or -1 if the index is empty
+	 */
+	public int nearest(double lat, double lon)
+	{
+		int[] result = nearest(lat, lon, 1);
+		return result.length == 0 ? -1 : result[0];
+	}
+
+	/**
+	 * Find the k points closest to a location.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @param k The number of points to find
+	 * @return The indexes of up to k points, closest first
+	 */
+	public int[] nearest(double lat, double lon, int k)
+	{
+		k = Math.min(k, ids.length);
+		if (k <= 0) {
+			return new int[0];
+		}
+		double[] q = new double[3];
+		toUnitVector(lat, lon, q);
+		Candidates best = new Candidates(k);
+		searchNearest(0, ids.length, q, best);
+		return best.sortedIds();
+	}
+
+	private void searchNearest(int lo, int hi, double[] q, Candidates best)
+	{
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			best.offer(ids[mid], squaredChord(mid, q));
+			double diff = coordinate(mid, splitDim[mid]) - q[splitDim[mid]];
+			// Search the side of the query first, the other side only if the
+			// splitting plane is closer than the worst candidate
+			if (diff > 0) {
+				searchNearest(lo, mid, q, best);
+				if (diff * diff >= best.bound()) {
+					return;
+				}
+				lo = mid + 1;
+			} else {
+				searchNearest(mid + 1, hi, q, best);
+				if (diff * diff >= best.bound()) {
+					return;
+				}
+				hi = mid;
+			}
+		}
+	}
+
+	/**
+	 * Find every point within a distance of a location.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @param radiusKm The great circle distance in km
+	 * @return The indexes of the points, closest first
+	 */
+	public int[] within(double lat, double lon, double radiusKm)
+	{
+		if (radiusKm < 0) {
+			return new int[0];
+		}
+		double angle = Math.min(radiusKm / EARTH_RADIUS_KM, Math.PI);
+		double chord = 2 * Math.sin(angle / 2);
+		double[] q = new double[3];
+		toUnitVector(lat, lon, q);
+		Candidates found = new Candidates(Integer.MAX_VALUE);
+		// Widen the bound by a rounding error so points exactly on the circle are kept
+		searchWithin(0, ids.length, q, chord * chord * (1 + 1e-12), found);
+		return found.sortedIds();
+	}
+
+	private void searchWithin(int lo, int hi, double[] q, double bound, Candidates found)
+	{
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			double d = squaredChord(mid, q);
+			if (d <= bound) {
+				found.offer(ids[mid], d);
+			}
+			double diff = coordinate(mid, splitDim[mid]) - q[splitDim[mid]];
+			if (diff > 0 || diff * diff <= bound) {
+				searchWithin(lo, mid, q, bound, found);
+			}
+			if (diff > 0 && diff * diff > bound) {
+				return;
+			}
+			lo = mid + 1;
+		}
+	}
+
+	private double coordinate(int i, int dim)
+	{
+		return dim == 0 ? x[i] : (dim == 1 ? y[i] : z[i]);
+	}
+
+	private double squaredChord(int i, double[] q)
+	{
+		double dx = x[i] - q[0];
+		double dy = y[i] - q[1];
+		double dz = z[i] - q[2];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * A bounded max-heap of (id, squared chord) pairs that keeps the closest
+	 * ones seen so far.
+	 */
+	private static class Candidates
+	{
+		private final int capacity;
+		private int[] ids = new int[8];
+		private double[] keys = new double[8];
+		private int size;
+
+		Candidates(int capacity)
+		{
+			this.capacity = capacity;
+		}
+
+		// The squared chord a new candidate has to beat
+		double bound()
+		{
+			return size < capacity ? Double.POSITIVE_INFINITY : keys[0];
+		}
+
+		void offer(int id, double key)
+		{
+			if (size < capacity) {
+				if (size == ids.length) {
+					ids = Arrays.copyOf(ids, size * 2);
+					keys = Arrays.copyOf(keys, size * 2);
+				}
+				int i = size++;
+				while (i > 0 && keys[(i - 1) / 2] < key) {
+					ids[i] = ids[(i - 1) / 2];
+					keys[i] = keys[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				ids[i] = id;
+				keys[i] = key;
+			} else if (key < keys[0]) {
+				siftDown(id, key, size);
+			}
+		}
+
+		private void siftDown(int id, double key, int n)
+		{
+			int i = 0;
+			while (2 * i + 1 < n) {
+				int child = 2 * i + 1;
+				if (child + 1 < n && keys[child + 1] > keys[child]) {
+					child++;
+				}
+				if (keys[child] <= key) {
+					break;
+				}
+				ids[i] = ids[child];
+				keys[i] = keys[child];
+				i = child;
+			}
+			ids[i] = id;
+			keys[i] = key;
+		}
+
+		// Empties the heap, returning the ids closest first
+		int[] sortedIds()
+		{
+			int[] result = new int[size];
+			for (int n = size; n > 0; n--) {
+				result[n - 1] = ids[0];
+				siftDown(ids[n - 1], keys[n - 1], n - 1);
+			}
+			size = 0;
+			return result;
+		}
+	}
+}
@@ -109,6 +109,20 @@ public class RoadSegment {
 	// get the length of the road segment
 	public double getLength() { return this.length; }
 	
+	// get the name of the road
+	public String getRoadName() { return this.roadName; }
+	
+	// get the type of the road
+	public String getRoadType() { return this.roadType; }
+	
+	// get the end points of the segment, in the order it was created with
+	public GeographicPoint getStartPoint() { return this.point1; }
+	
+	public GeographicPoint getEndPoint() { return this.point2; }
+	
+	// get all of the points from the start point to the end point
+	public List<GeographicPoint> getPoints() { return getPoints(point1, point2); }
+	
 	
 	// given one end, return the other.
 	public geography.GeographicPoint getOtherPoint(geography.GeographicPoint point) {
@@ -0,0 +1,433 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An R-tree over the polylines of road segments, for snapping a location to
+ * the closest point on a road instead of the closest intersection.
+ *
+ * Every straight piece of every polyline is one entry.  The tree is bulk
+ * loaded with Sort-Tile-Recursive packing: the pieces are sorted into
+ * vertical slices by longitude, each slice is sorted by latitude, and runs of
+ * NODE_SIZE pieces become the leaves.  Runs of NODE_SIZE nodes form the next
+ * level up until one root is left, so the children of node i are simply
+ * i * NODE_SIZE ... (i + 1) * NODE_SIZE - 1 of the level below.
+ *
+ * Distances are measured in a local equirectangular projection around the
+ * query location, which is accurate to well under a metre at city scale.
+ * Instances are immutable and safe to share between threads.
+ */
+public class RoadSegmentIndex {
+
+	private static final int NODE_SIZE = 16;
+	// Same radius as GeographicPoint.distance
+	private static final double KM_PER_DEGREE = Math.PI * 6373 / 180;
+
+	private final RoadSegment[] segments;
+
+	// The pieces, in leaf order
+	private final int[] pieceSegment;
+	private final double[] pieceLat1;
+	private final double[] pieceLon1;
+	private final double[] pieceLat2;
+	private final double[] pieceLon2;
+	private final double[] pieceOffset;
+
+	// levels[0] are the leaves, the last level is the root.  Each level holds
+	// minLat, minLon, maxLat, maxLon of every node.
+	private final double[][][] levels;
+
+	/**
+	 * The closest point on a road segment to a query location.
+	 */
+	public static class Snap
+	{
+		private final RoadSegment segment;
+		private final GeographicPoint point;
+		private final double distance;
+		private final double offset;
+
+		Snap(RoadSegment segment, GeographicPoint point, double distance, double offset)
+		{
+			this.segment = segment;
+			this.point = point;
+			this.distance = distance;
+			this.offset = offset;
+		}
+
+		/** Get the segment the location was snapped to */
+		public RoadSegment getSegment() { return segment; }
+
+		/** Get the point on the segment closest to the location */
+		public GeographicPoint getPoint() { return point; }
+
+		/** Get the distance in km from the location to the point */
+		public double getDistance() { return distance; }
+
+		/** Get the distance in km along the segment from its start point to the point */
+		public double getOffset() { return offset; }
+
+		public String toString()
+		{
+			return segment.getRoadName() + " at " + point + " (" + distance + " km away)";
+		}
+	}
+
+	/**
+	 * Build an index over the road segments.
+	 * @param roads The segments to index
+	 */
+	public RoadSegmentIndex(Collection<RoadSegment> roads)
+	{
+		segments = roads.toArray(new RoadSegment[0]);
+		int numPieces = 0;
+		List<List<GeographicPoint>> polylines = new ArrayList<List<GeographicPoint>>(segments.length);
+		for (RoadSegment seg : segments) {
+			List<GeographicPoint> points = seg.getPoints();
+			polylines.add(points);
+			numPieces += points.size() - 1;
+		}
+
+		int[] seg = new int[numPieces];
+		double[] lat1 = new double[numPieces];
+		double[] lon1 = new double[numPieces];
+		double[] lat2 = new double[numPieces];
+		double[] lon2 = new double[numPieces];
+		double[] offset = new double[numPieces];
+		int piece = 0;
+		for (int s = 0; s < segments.length; s++) {
+			List<GeographicPoint> points = polylines.get(s);
+			double along = 0;
+			for (int i = 0; i + 1 < points.size(); i++) {
+				GeographicPoint a = points.get(i);
+				GeographicPoint b = points.get(i + 1);
+				seg[piece] = s;
+				lat1[piece] = a.getX();
+				lon1[piece] = a.getY();
+				lat2[piece] = b.getX();
+				lon2[piece] = b.getY();
+				offset[piece] = along;
+				along += a.distance(b);
+				piece++;
+			}
+		}
+
+		int[] order = strOrder(lat1, lon1, lat2, lon2);
+		pieceSegment = new int[numPieces];
+		pieceLat1 = new double[numPieces];
+		pieceLon1 = new double[numPieces];
+		pieceLat2 = new double[numPieces];
+		pieceLon2 = new double[numPieces];
+		pieceOffset = new double[numPieces];
+		for (int i = 0; i < numPieces; i++) {
+			int p = order[i];
+			pieceSegment[i] = seg[p];
+			pieceLat1[i] = lat1[p];
+			pieceLon1[i] = lon1[p];
+			pieceLat2[i] = lat2[p];
+			pieceLon2[i] = lon2[p];
+			pieceOffset[i] = offset[p];
+		}
+		levels = buildLevels();
+	}
+
+	/**
+	 * Build an index over the segments loaded by
+	 * util.GraphLoader.loadRoadMap, where every segment is listed at both of
+	 * its end points.
+	 * @param segmentMap The segments at each intersection
+	 * @return The index
+	 */
+	public static RoadSegmentIndex fromSegmentMap(Map<GeographicPoint, ? extends Set<RoadSegment>> segmentMap)
+	{
+		Set<RoadSegment> roads = new LinkedHashSet<RoadSegment>();
+		for (Set<RoadSegment> segs : segmentMap.values()) {
+			roads.addAll(segs);
+		}
+		return new RoadSegmentIndex(roads);
+	}
+
+	// Sort-Tile-Recursive order of the pieces by the centres of their boxes
+	private static int[] strOrder(double[] lat1, double[] lon1, double[] lat2, double[] lon2)
+	{
+		int n = lat1.length;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(lon1[a] + lon2[a], lon1[b] + lon2[b]));
+		int numLeaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+		int numSlices = (int) Math.ceil(Math.sqrt(numLeaves));
+		int sliceSize = numSlices * NODE_SIZE;
+		for (int from = 0; from < n; from += sliceSize) {
+			Arrays.sort(order, from, Math.min(n, from + sliceSize),
+					(a, b) -> Double.compare(lat1[a] + lat2[a], lat1[b] + lat2[b]));
+		}
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = order[i];
+		}
+		return result;
+	}
+
+	private double[][][] buildLevels()
+	{
+		List<double[][]> built = new ArrayList<double[][]>();
+		int numPieces = pieceSegment.length;
+		int count = Math.max(1, (numPieces + NODE_SIZE - 1) / NODE_SIZE);
+		double[][] leaves = emptyBoxes(count);
+		for (int i = 0; i < numPieces; i++) {
+			int node = i / NODE_SIZE;
+			expand(leaves, node, Math.min(pieceLat1[i], pieceLat2[i]), Math.min(pieceLon1[i], pieceLon2[i]),
+					Math.max(pieceLat1[i], pieceLat2[i]), Math.max(pieceLon1[i], pieceLon2[i]));
+		}
+		built.add(leaves);
+		double[][] below = leaves;
+		while (below[0].length > 1) {
+			int childCount = below[0].length;
+			double[][] level = emptyBoxes((childCount + NODE_SIZE - 1) / NODE_SIZE);
+			for (int i = 0; i < childCount; i++) {
+				expand(level, i / NODE_SIZE, below[0][i], below[1][i], below[2][i], below[3][i]);
+			}
+			built.add(level);
+			below = level;
+		}
+		return built.toArray(new double[0][][]);
+	}
+
+	private static double[][] emptyBoxes(int count)
+	{
+		double[][] boxes = new double[4][count];
+		Arrays.fill(boxes[0], Double.POSITIVE_INFINITY);
+		Arrays.fill(boxes[1], Double.POSITIVE_INFINITY);
+		Arrays.fill(boxes[2], Double.NEGATIVE_INFINITY);
+		Arrays.fill(boxes[3], Double.NEGATIVE_INFINITY);
+		return boxes;
+	}
+
+	private static void expand(double[][] boxes, int node, double minLat, double minLon, double maxLat, double maxLon)
+	{
+		boxes[0][node] = Math.min(boxes[0][node], minLat);
+		boxes[1][node] = Math.min(boxes[1][node], minLon);
+		boxes[2][node] = Math.max(boxes[2][node], maxLat);
+		boxes[3][node] = Math.max(boxes[3][node], maxLon);
+	}
+
+	/** Get the number of segments in the index */
+	public int size()
+	{
+		return segments.length;
+	}
+
+	/**
+	 * Snap a location to the closest road.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @return The closest point on any segment, or null if the index is empty
+	 */
+	public Snap nearest(double lat, double lon)
+	{
+		List<Snap> result = nearest(lat, lon, 1, Double.POSITIVE_INFINITY);
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+	/**
+	 * Snap a location to each of the closest roads.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @param maxCount The largest number of segments to return
+	 * @param maxDistanceKm Segments farther away than this are left out
+	 * @return The closest point on each of up to maxCount segments, closest
+	 *   first
+	 */
+	public List<Snap> nearest(double lat, double lon, int maxCount, double maxDistanceKm)
+	{
+		List<Snap> result = new ArrayList<Snap>();
+		if (maxCount <= 0 || pieceSegment.length == 0) {
+			return result;
+		}
+		double kmPerDegreeLon = KM_PER_DEGREE * Math.cos(Math.toRadians(lat));
+		Set<Integer> reported = new HashSet<Integer>();
+		EntryQueue queue = new EntryQueue();
+		int top = levels.length - 1;
+		queue.push(boxDistance(top, 0, lat, lon, kmPerDegreeLon), top, 0);
+		double[] t = new double[1];
+		while (!queue.isEmpty() && result.size() < maxCount) {
+			double distance = queue.peekKey();
+			if (distance > maxDistanceKm) {
+				break;
+			}
+			int level = queue.peekLevel();
+			int index = queue.peekIndex();
+			queue.pop();
+			if (level < 0) {
+				if (reported.add(pieceSegment[index])) {
+					pieceDistance(index, lat, lon, kmPerDegreeLon, t);
+					result.add(snap(index, t[0], distance));
+				}
+			} else if (level == 0) {
+				int end = Math.min(pieceSegment.length, (index + 1) * NODE_SIZE);
+				for (int p = index * NODE_SIZE; p < end; p++) {
+					queue.push(pieceDistance(p, lat, lon, kmPerDegreeLon, t), -1, p);
+				}
+			} else {
+				int end = Math.min(levels[level - 1][0].length, (index + 1) * NODE_SIZE);
+				for (int child = index * NODE_SIZE; child < end; child++) {
+					queue.push(boxDistance(level - 1, child, lat, lon, kmPerDegreeLon), level - 1, child);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the segments that have a piece whose bounding box overlaps a box.
+	 * @return The segments, each listed once
+	 */
+	public List<RoadSegment> query(double minLat, double minLon, double maxLat, double maxLon)
+	{
+		Set<Integer> found = new LinkedHashSet<Integer>();
+		if (pieceSegment.length > 0) {
+			query(levels.length - 1, 0, minLat, minLon, maxLat, maxLon, found);
+		}
+		List<RoadSegment> result = new ArrayList<RoadSegment>(found.size());
+		for (int s : found) {
+			result.add(segments[s]);
+		}
+		return result;
+	}
+
+	private void query(int level, int index, double minLat, double minLon, double maxLat, double maxLon,
+			Set<Integer> found)
+	{
+		double[][] boxes = levels[level];
+		if (boxes[0][index] > maxLat || boxes[2][index] < minLat
+				|| boxes[1][index] > maxLon || boxes[3][index] < minLon) {
+			return;
+		}
+		if (level == 0) {
+			int end = Math.min(pieceSegment.length, (index + 1) * NODE_SIZE);
+			for (int p = index * NODE_SIZE; p < end; p++) {
+				if (Math.min(pieceLat1[p], pieceLat2[p]) <= maxLat && Math.max(pieceLat1[p], pieceLat2[p]) >= minLat
+						&& Math.min(pieceLon1[p], pieceLon2[p]) <= maxLon
+						&& Math.max(pieceLon1[p], pieceLon2[p]) >= minLon) {
+					found.add(pieceSegment[p]);
+				}
+			}
+			return;
+		}
+		int end = Math.min(levels[level - 1][0].length, (index + 1) * NODE_SIZE);
+		for (int child = index * NODE_SIZE; child < end; child++) {
+			query(level - 1, child, minLat, minLon, maxLat, maxLon, found);
+		}
+	}
+
+	private double boxDistance(int level, int node, double lat, double lon, double kmPerDegreeLon)
+	{
+		double[][] boxes = levels[level];
+		double dLat = Math.max(0, Math.max(boxes[0][node] - lat, lat - boxes[2][node])) * KM_PER_DEGREE;
+		double dLon = Math.max(0, Math.max(boxes[1][node] - lon, lon - boxes[3][node])) * kmPerDegreeLon;
+		// Shrink the bound slightly so rounding never puts it above the
+		// distance to a piece inside the box
+		return Math.sqrt(dLat * dLat + dLon * dLon) * (1 - 1e-12);
+	}
+
+	// Distance in km from the location to a piece; t[0] receives the position
+	// of the closest point between the two ends of the piece, from 0 to 1
+	private double pieceDistance(int p, double lat, double lon, double kmPerDegreeLon, double[] t)
+	{
+		double ax = (pieceLon1[p] - lon) * kmPerDegreeLon;
+		double ay = (pieceLat1[p] - lat) * KM_PER_DEGREE;
+		double bx = (pieceLon2[p] - lon) * kmPerDegreeLon;
+		double by = (pieceLat2[p] - lat) * KM_PER_DEGREE;
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double along = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+		t[0] = along;
+		double px = ax + along * dx;
+		double py = ay + along * dy;
+		return Math.sqrt(px * px + py * py);
+	}
+
+	private Snap snap(int p, double t, double distance)
+	{
+		GeographicPoint point = new GeographicPoint(pieceLat1[p] + t * (pieceLat2[p] - pieceLat1[p]),
+				pieceLon1[p] + t * (pieceLon2[p] - pieceLon1[p]));
+		double pieceLength = new GeographicPoint(pieceLat1[p], pieceLon1[p])
+				.distance(new GeographicPoint(pieceLat2[p], pieceLon2[p]));
+		return new Snap(segments[pieceSegment[p]], point, distance, pieceOffset[p] + t * pieceLength);
+	}
+
+	/**
+	 * A binary min-heap of tree entries.  Level -1 marks a piece, any other
+	 * level a node of that level.
+	 */
+	private static class EntryQueue
+	{
+		private double[] keys = new double[64];
+		private int[] levels = new int[64];
+		private int[] indexes = new int[64];
+		private int size;
+
+		boolean isEmpty() { return size == 0; }
+
+		double peekKey() { return keys[0]; }
+
+		int peekLevel() { return levels[0]; }
+
+		int peekIndex() { return indexes[0]; }
+
+		void push(double key, int level, int index)
+		{
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				levels = Arrays.copyOf(levels, size * 2);
+				indexes = Arrays.copyOf(indexes, size * 2);
+			}
+			int i = size++;
+			while (i > 0 && keys[(i - 1) / 2] > key) {
+				int parent = (i - 1) / 2;
+				keys[i] = keys[parent];
+				levels[i] = levels[parent];
+				indexes[i] = indexes[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			levels[i] = level;
+			indexes[i] = index;
+		}
+
+		void pop()
+		{
+			size--;
+			double key = keys[size];
+			int level = levels[size];
+			int index = indexes[size];
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && keys[child + 1] < keys[child]) {
+					child++;
+				}
+				if (keys[child] >= key) {
+					break;
+				}
+				keys[i] = keys[child];
+				levels[i] = levels[child];
+				indexes[i] = indexes[child];
+				i = child;
+			}
+			keys[i] = key;
+			levels[i] = level;
+			indexes[i] = index;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package mapmatching;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import geography.RoadSegmentIndex;
+import roadgraph.CsrGraph;
+import roadgraph.ShortestPathTree;
+
+/**
+ * Matches GPS traces onto the road network with a hidden Markov model.
+ * <p>
+ * The hidden states of an observation are the points on nearby roads, found
+ * with a RoadSegmentIndex, in each direction the road can be driven. A state
+ * is more likely the closer it is to the observation (a Gaussian on the
+ * distance), and a move between the states of consecutive observations is
+ * more likely the closer its driving distance is to the straight line
+ * distance between the observations (an exponential on the difference).
+ * The driving distances come from bounded ShortestPathTrees, which are cached
+ * by start vertex and shared by every trace, since the candidates of nearby
+ * observations of many traces start from the same few intersections.
+ * <p>
+ * A matcher holds the graph, the index and the cache and is safe to share
+ * between threads. Each trace is matched by its own {@link MatchSession}.
+ */
+public class MapMatcher {
+    public static final double DEFAULT_GPS_SIGMA_KM = 0.01;
+    public static final double DEFAULT_BETA_KM = 0.01;
+    public static final double DEFAULT_SEARCH_RADIUS_KM = 0.05;
+    public static final int DEFAULT_MAX_CANDIDATES = 8;
+    public static final int DEFAULT_WINDOW_SIZE = 16;
+
+    // Routes longer than this many times the straight line distance (plus the
+    // search radius at both ends) are not considered
+    private static final double MAX_ROUTE_FACTOR = 3;
+    private static final int TREE_CACHE_SIZE = 20000;
+
+    private final CsrGraph graph;
+    private final RoadSegmentIndex index;
+    private final IdentityHashMap<RoadSegment, int[]> segmentEdges = new IdentityHashMap<>();
+    private final RoadSegment[] edgeSegments;
+
+    private final double gpsSigma;
+    private final double beta;
+    private final double searchRadius;
+    private final int maxCandidates;
+    private final int windowSize;
+
+    private final LinkedHashMap<Integer, ShortestPathTree> trees =
+            new LinkedHashMap<Integer, ShortestPathTree>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, ShortestPathTree> eldest) {
+                    return size() > TREE_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Create a matcher with the default model parameters
+     *
+     * @param graph    The compiled road network
+     * @param segments The road segments loaded with the graph by
+     *                 GraphLoader.loadRoadMap
+     */
+    public MapMatcher(CsrGraph graph, Map<GeographicPoint, ? extends Set<RoadSegment>> segments) {
+        this(graph, segments, DEFAULT_GPS_SIGMA_KM, DEFAULT_BETA_KM, DEFAULT_SEARCH_RADIUS_KM,
+                DEFAULT_MAX_CANDIDATES, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a matcher
+     *
+     * @param graph         The compiled road network
+     * @param segments      The road segments loaded with the graph by
+     *                      GraphLoader.loadRoadMap
+     * @param gpsSigma      The standard deviation of the GPS error, in km
+     * @param beta          The scale of the difference between driving and
+     *                      straight line distance, in km
+     * @param searchRadius  How far from an observation to look for roads, in km
+     * @param maxCandidates The largest number of roads to consider per
+     *                      observation
+     * @param windowSize    The largest number of observations held back until
+     *                      their match is certain; after that the most likely
+     *                      match so far is emitted
+     */
+    public MapMatcher(CsrGraph graph, Map<GeographicPoint, ? extends Set<RoadSegment>> segments,
+                      double gpsSigma, double beta, double searchRadius, int maxCandidates, int windowSize) {
+        if ((gpsSigma <= 0) || (beta <= 0) || (searchRadius <= 0) || (maxCandidates <= 0) || (windowSize <= 0)) {
+            throw new IllegalArgumentException("Model parameters must be positive");
+        }
+        this.graph = graph;
+        this.gpsSigma = gpsSigma;
+        this.beta = beta;
+        this.searchRadius = searchRadius;
+        this.maxCandidates = maxCandidates;
+        this.windowSize = windowSize;
+
+        Set<RoadSegment> roads = new LinkedHashSet<>();
+        for (Set<RoadSegment> segs : segments.values()) {
+            roads.addAll(segs);
+        }
+        index = new RoadSegmentIndex(roads);
+        edgeSegments = new RoadSegment[graph.getNumEdges()];
+        for (RoadSegment seg : roads) {
+            int forward = findEdge(seg, seg.getStartPoint(), seg.getEndPoint());
+            int backward = findEdge(seg, seg.getEndPoint(), seg.getStartPoint());
+            segmentEdges.put(seg, new int[]{forward, backward});
+        }
+    }
+
+    // Find the edge that a segment stands for in one direction, or -1 if the
+    // road cannot be driven that way. Edges are paired by their ends and road
+    // name, since the graph may have been compiled after road lengths changed;
+    // the length only decides between parallel roads of the same name.
+    private int findEdge(RoadSegment seg, GeographicPoint from, GeographicPoint to) {
+        int source = graph.getId(from);
+        int target = graph.getId(to);
+        if ((source < 0) || (target < 0)) {
+            return -1;
+        }
+        int found = -1;
+        for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+            if ((graph.getTarget(edge) == target) && (edgeSegments[edge] == null)
+                    && graph.getRoadName(edge).equals(seg.getRoadName())) {
+                if (graph.getLength(edge) == seg.getLength()) {
+                    found = edge;
+                    break;
+                }
+                if (found < 0) {
+                    found = edge;
+                }
+            }
+        }
+        if (found >= 0) {
+            edgeSegments[found] = seg;
+        }
+        return found;
+    }
+
+    /**
+     * Start matching a new trace
+     *
+     * @return The session to feed the observations of the trace to
+     */
+    public MatchSession newSession() {
+        return new MatchSession(this);
+    }
+
+    CsrGraph getGraph() {
+        return graph;
+    }
+
+    RoadSegmentIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the edges of a segment as {start to end, end to start}, -1 where
+     * the road cannot be driven that way
+     */
+    int[] getEdges(RoadSegment seg) {
+        return segmentEdges.get(seg);
+    }
+
+    RoadSegment getSegment(int edge) {
+        return edgeSegments[edge];
+    }
+
+    double getSearchRadius() {
+        return searchRadius;
+    }
+
+    int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @return the log likelihood of observing a location this far from a state
+     */
+    double emission(double distance) {
+        double z = distance / gpsSigma;
+        return -0.5 * z * z;
+    }
+
+    /**
+     * @return the log likelihood of driving this far between observations this
+     * far apart
+     */
+    double transition(double routeDistance, double straightDistance) {
+        return -Math.abs(routeDistance - straightDistance) / beta;
+    }
+
+    /**
+     * @return the longest route considered between observations this far apart
+     */
+    double maxRouteDistance(double straightDistance) {
+        return MAX_ROUTE_FACTOR * straightDistance + 2 * searchRadius;
+    }
+
+    /**
+     * Get a shortest path tree from a vertex that covers at least the given
+     * distance, from the cache if possible
+     */
+    ShortestPathTree treeFrom(int vertex, double maxDistance) {
+        ShortestPathTree tree;
+        synchronized (trees) {
+            tree = trees.get(vertex);
+        }
+        if ((tree != null) && (tree.getMaxDistance() >= maxDistance)) {
+            return tree;
+        }
+        // Grow further than asked so slightly longer gaps can reuse the tree
+        double bound = Math.max(1.5 * maxDistance, tree == null ? 0 : 2 * tree.getMaxDistance());
+        tree = ShortestPathTree.grow(graph, vertex, bound, false);
+        synchronized (trees) {
+            trees.put(vertex, tree);
+        }
+        return tree;
+    }
+}
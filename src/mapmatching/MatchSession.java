@@ -0,0 +1,331 @@
+package mapmatching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import geography.RoadSegmentIndex;
+import roadgraph.CsrGraph;
+import roadgraph.ShortestPathTree;
+
+/**
+ * Matches one trace, observation by observation, with an online Viterbi
+ * search over a sliding window.
+ * <p>
+ * Every observation keeps the most likely way to reach each of its states.
+ * Once the best ways to reach every state of the newest observation agree on
+ * an older observation, the match of that observation and everything before
+ * it can no longer change and is emitted. If they still disagree after
+ * windowSize observations, the oldest one is emitted on the currently most
+ * likely path and the states that contradict it are dropped. The newest
+ * observation is always held back, even when only one of its states is left,
+ * since the next observation is connected to it.
+ * <p>
+ * Observations without a road nearby are skipped. If no state of an
+ * observation can be driven to from the previous one, the match is split:
+ * everything so far is emitted and a new match starts.
+ * A session belongs to one trace and is not thread-safe.
+ */
+public class MatchSession {
+    private final MapMatcher matcher;
+    private final CsrGraph graph;
+    private final List<Step> pending = new ArrayList<>();
+    private int numObservations;
+
+    MatchSession(MapMatcher matcher) {
+        this.matcher = matcher;
+        this.graph = matcher.getGraph();
+    }
+
+    /**
+     * Add the next observation of the trace
+     *
+     * @param location The observed location
+     * @return The observations whose match became certain, in trace order
+     */
+    public List<MatchedPoint> add(GeographicPoint location) {
+        int observationIndex = numObservations++;
+        Candidate[] candidates = candidates(location);
+        if (candidates.length == 0) {
+            return Collections.emptyList();
+        }
+        List<MatchedPoint> result = new ArrayList<>();
+        Step step = new Step(observationIndex, location, candidates);
+        if (pending.isEmpty() || !connect(pending.get(pending.size() - 1), step)) {
+            flush(result);
+            for (Candidate candidate : candidates) {
+                candidate.score = candidate.emission;
+            }
+        }
+        pending.add(step);
+        emitDecided(result);
+        return result;
+    }
+
+    /**
+     * Add the next observation of the trace
+     *
+     * @return The observations whose match became certain, in trace order
+     */
+    public List<MatchedPoint> add(double lat, double lon) {
+        return add(new GeographicPoint(lat, lon));
+    }
+
+    /**
+     * End the trace
+     *
+     * @return The matches of the observations still held back, in trace order
+     */
+    public List<MatchedPoint> finish() {
+        List<MatchedPoint> result = new ArrayList<>();
+        flush(result);
+        return result;
+    }
+
+    // One state per nearby road and direction it can be driven in
+    private Candidate[] candidates(GeographicPoint location) {
+        List<RoadSegmentIndex.Snap> snaps = matcher.getIndex().nearest(location.getX(), location.getY(),
+                matcher.getMaxCandidates(), matcher.getSearchRadius());
+        List<Candidate> candidates = new ArrayList<>(2 * snaps.size());
+        for (RoadSegmentIndex.Snap snap : snaps) {
+            int[] edges = matcher.getEdges(snap.getSegment());
+            double emission = matcher.emission(snap.getDistance());
+            double length = snap.getSegment().getLength();
+            double offset = Math.max(0, Math.min(length, snap.getOffset()));
+            if (edges[0] >= 0) {
+                candidates.add(new Candidate(edges[0], offset, snap, emission));
+            }
+            if (edges[1] >= 0) {
+                candidates.add(new Candidate(edges[1], length - offset, snap, emission));
+            }
+        }
+        return candidates.toArray(new Candidate[0]);
+    }
+
+    /**
+     * Find the most likely predecessor of every state of the next step
+     *
+     * @return Whether any state of the next step can be reached
+     */
+    private boolean connect(Step prev, Step next) {
+        double straight = prev.location.distance(next.location);
+        double maxRoute = matcher.maxRouteDistance(straight);
+        ShortestPathTree[] bestTrees = new ShortestPathTree[next.candidates.length];
+        for (int i = 0; i < prev.candidates.length; i++) {
+            Candidate from = prev.candidates[i];
+            if (from.score == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            double rest = graph.getLength(from.edge) - from.position;
+            ShortestPathTree tree = null;
+            for (int j = 0; j < next.candidates.length; j++) {
+                Candidate to = next.candidates[j];
+                double route;
+                ShortestPathTree via = null;
+                if ((to.edge == from.edge) && (to.position >= from.position)) {
+                    route = to.position - from.position;
+                } else {
+                    if (rest > maxRoute) {
+                        continue;
+                    }
+                    if (tree == null) {
+                        tree = matcher.treeFrom(graph.getTarget(from.edge), maxRoute - rest);
+                    }
+                    via = tree;
+                    route = rest + tree.getDistance(graph.getSource(to.edge)) + to.position;
+                }
+                if (route > maxRoute) {
+                    continue;
+                }
+                double score = from.score + matcher.transition(route, straight) + to.emission;
+                if (score > to.score) {
+                    to.score = score;
+                    to.back = i;
+                    bestTrees[j] = via;
+                }
+            }
+        }
+
+        double best = Double.NEGATIVE_INFINITY;
+        for (Candidate to : next.candidates) {
+            best = Math.max(best, to.score);
+        }
+        if (best == Double.NEGATIVE_INFINITY) {
+            return false;
+        }
+        for (int j = 0; j < next.candidates.length; j++) {
+            Candidate to = next.candidates[j];
+            // Keep the scores near zero so long traces do not lose precision
+            to.score -= best;
+            if (bestTrees[j] != null) {
+                to.routeEdges = bestTrees[j].edgesTo(graph, graph.getSource(to.edge));
+            }
+        }
+        return true;
+    }
+
+    // Emit every step that all live states of the newest step agree on, and
+    // force out the oldest steps while the window is too long
+    private void emitDecided(List<MatchedPoint> result) {
+        while (true) {
+            int decided = lastAgreedStep();
+            if (decided >= 0) {
+                emitPrefix(decided, pending.get(decided).singleLive(), result);
+            }
+            if (pending.size() <= matcher.getWindowSize()) {
+                return;
+            }
+            int chosen = backtrack(bestLive(pending.get(pending.size() - 1)), pending.size() - 1, 0);
+            emitPrefix(0, chosen, result);
+            // Drop the states that no longer lead back to an emitted state
+            for (int s = 0; s < pending.size(); s++) {
+                Step step = pending.get(s);
+                for (Candidate candidate : step.candidates) {
+                    if (candidate.back < 0) {
+                        continue;
+                    }
+                    boolean parentDead = (s == 0) ? candidate.back != chosen
+                            : pending.get(s - 1).candidates[candidate.back].score == Double.NEGATIVE_INFINITY;
+                    if (parentDead) {
+                        candidate.score = Double.NEGATIVE_INFINITY;
+                    }
+                }
+            }
+        }
+    }
+
+    // The newest step before the last one whose states on the best paths to
+    // the live states of the last step are all the same, or -1. The last step
+    // itself stays pending as the anchor of the next connect.
+    private int lastAgreedStep() {
+        Step last = pending.get(pending.size() - 1);
+        boolean[] live = new boolean[last.candidates.length];
+        for (int j = 0; j < live.length; j++) {
+            live[j] = last.candidates[j].score != Double.NEGATIVE_INFINITY;
+        }
+        for (int s = pending.size() - 1; s >= 0; s--) {
+            Step step = pending.get(s);
+            int count = 0;
+            for (boolean l : live) {
+                if (l) {
+                    count++;
+                }
+            }
+            if ((count == 1) && (s < pending.size() - 1)) {
+                // Mark the agreed state so the caller can find it
+                for (int j = 0; j < live.length; j++) {
+                    step.agreed = live[j] ? j : step.agreed;
+                }
+                return s;
+            }
+            if (s == 0) {
+                return -1;
+            }
+            boolean[] parents = new boolean[pending.get(s - 1).candidates.length];
+            for (int j = 0; j < live.length; j++) {
+                if (live[j] && (step.candidates[j].back >= 0)) {
+                    parents[step.candidates[j].back] = true;
+                }
+            }
+            live = parents;
+        }
+        return -1;
+    }
+
+    private static int bestLive(Step step) {
+        int best = -1;
+        for (int j = 0; j < step.candidates.length; j++) {
+            if ((best < 0) || (step.candidates[j].score > step.candidates[best].score)) {
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    // Follow the back pointers from a state of step 'from' to step 'to'
+    private int backtrack(int candidate, int from, int to) {
+        for (int s = from; s > to; s--) {
+            candidate = pending.get(s).candidates[candidate].back;
+        }
+        return candidate;
+    }
+
+    // Emit steps 0..last, where the state of step last is given
+    private void emitPrefix(int last, int candidate, List<MatchedPoint> result) {
+        int[] chosen = new int[last + 1];
+        chosen[last] = candidate;
+        for (int s = last; s > 0; s--) {
+            chosen[s - 1] = pending.get(s).candidates[chosen[s]].back;
+        }
+        for (int s = 0; s <= last; s++) {
+            Step step = pending.get(s);
+            result.add(step.match(chosen[s]));
+        }
+        pending.subList(0, last + 1).clear();
+    }
+
+    // Emit everything on the most likely path to the newest step
+    private void flush(List<MatchedPoint> result) {
+        if (!pending.isEmpty()) {
+            emitPrefix(pending.size() - 1, bestLive(pending.get(pending.size() - 1)), result);
+        }
+    }
+
+    /** One observation and its states */
+    private class Step {
+        final int observationIndex;
+        final GeographicPoint location;
+        final Candidate[] candidates;
+        int agreed = -1;
+
+        Step(int observationIndex, GeographicPoint location, Candidate[] candidates) {
+            this.observationIndex = observationIndex;
+            this.location = location;
+            this.candidates = candidates;
+        }
+
+        int singleLive() {
+            return agreed;
+        }
+
+        MatchedPoint match(int index) {
+            Candidate candidate = candidates[index];
+            RoadSegment segment = candidate.snap.getSegment();
+            List<RoadSegment> route = new ArrayList<>();
+            if (candidate.routeEdges != null) {
+                for (int edge : candidate.routeEdges) {
+                    RoadSegment driven = matcher.getSegment(edge);
+                    if ((driven != null) && (route.isEmpty() || (route.get(route.size() - 1) != driven))) {
+                        route.add(driven);
+                    }
+                }
+            }
+            if (route.isEmpty() || (route.get(route.size() - 1) != segment)) {
+                route.add(segment);
+            }
+            return new MatchedPoint(observationIndex, location, candidate.snap.getPoint(), segment,
+                    candidate.edge, route);
+        }
+    }
+
+    /** A position on an edge that an observation may have been made at */
+    private static class Candidate {
+        final int edge;
+        final double position;
+        final RoadSegmentIndex.Snap snap;
+        final double emission;
+        double score;
+        int back = -1;
+        int[] routeEdges;
+
+        Candidate(int edge, double position, RoadSegmentIndex.Snap snap, double emission) {
+            this.edge = edge;
+            this.position = position;
+            this.snap = snap;
+            this.emission = emission;
+            this.score = Double.NEGATIVE_INFINITY;
+        }
+    }
+}
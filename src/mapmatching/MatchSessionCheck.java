@@ -0,0 +1,76 @@
+package mapmatching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+
+/**
+ * Checks that a match is not split when an observation has only one state
+ * left, as on one-way roads: the next observation must still be connected to
+ * it and get the roads driven in between.
+ * <p>
+ * Usage: java mapmatching.MatchSessionCheck
+ */
+public class MatchSessionCheck {
+    // About 110 m between the intersections, more than twice the search radius
+    private static final double SPACING = 0.001;
+
+    public static void main(String[] args) {
+        List<RoadSegment> oneWay = secondRoute(false);
+        List<RoadSegment> twoWay = secondRoute(true);
+        boolean passed = (oneWay.size() == 2) && oneWay.equals(twoWay);
+        System.out.println("One-way route " + names(oneWay) + ", two-way route " + names(twoWay) + ": "
+                + (passed ? "PASSED" : "FAILED"));
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    // Match observations in the middle of the first and last road of a chain
+    // of three, and return the route of the second match
+    private static List<RoadSegment> secondRoute(boolean twoWay) {
+        GeographicPoint[] points = new GeographicPoint[4];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new GeographicPoint(32.7 + i * SPACING, -117.1);
+        }
+        MapGraph map = new MapGraph();
+        HashMap<GeographicPoint, HashSet<RoadSegment>> segments = new HashMap<>();
+        for (GeographicPoint point : points) {
+            map.addVertex(point);
+            segments.put(point, new HashSet<>());
+        }
+        for (int i = 0; i + 1 < points.length; i++) {
+            String name = String.valueOf((char) ('b' + i));
+            double length = points[i].distance(points[i + 1]);
+            RoadSegment segment = new RoadSegment(points[i], points[i + 1], Collections.emptyList(), name,
+                    "residential", length);
+            segments.get(points[i]).add(segment);
+            segments.get(points[i + 1]).add(segment);
+            map.addEdge(points[i], points[i + 1], name, "residential", length);
+            if (twoWay) {
+                map.addEdge(points[i + 1], points[i], name, "residential", length);
+            }
+        }
+
+        MatchSession session = new MapMatcher(map.compile(), segments).newSession();
+        List<MatchedPoint> matches = new ArrayList<>();
+        matches.addAll(session.add(32.7 + 0.5 * SPACING, -117.1));
+        matches.addAll(session.add(32.7 + 2.5 * SPACING, -117.1));
+        matches.addAll(session.finish());
+        return (matches.size() == 2) ? matches.get(1).getRoute() : Collections.emptyList();
+    }
+
+    private static List<String> names(List<RoadSegment> route) {
+        List<String> names = new ArrayList<>();
+        for (RoadSegment segment : route) {
+            names.add(segment.getRoadName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,72 @@
+package mapmatching;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+
+/**
+ * The road position an observation of a trace was matched to, together with
+ * the roads driven since the previous matched observation.
+ */
+public class MatchedPoint {
+    private final int observationIndex;
+    private final GeographicPoint observation;
+    private final GeographicPoint point;
+    private final RoadSegment segment;
+    private final int edge;
+    private final List<RoadSegment> route;
+
+    MatchedPoint(int observationIndex, GeographicPoint observation, GeographicPoint point, RoadSegment segment,
+                 int edge, List<RoadSegment> route) {
+        this.observationIndex = observationIndex;
+        this.observation = observation;
+        this.point = point;
+        this.segment = segment;
+        this.edge = edge;
+        this.route = route;
+    }
+
+    /**
+     * @return the position of the observation in the trace, counting from 0
+     */
+    public int getObservationIndex() {
+        return observationIndex;
+    }
+
+    public GeographicPoint getObservation() {
+        return observation;
+    }
+
+    /**
+     * @return the point on the road the observation was matched to
+     */
+    public GeographicPoint getPoint() {
+        return point;
+    }
+
+    public RoadSegment getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the id of the edge in the direction it was driven
+     */
+    public int getEdge() {
+        return edge;
+    }
+
+    /**
+     * @return the segments driven from the previous matched point to this one,
+     * ending with this point's segment. After a gap in the trace that could not
+     * be driven it only holds this point's segment.
+     */
+    public List<RoadSegment> getRoute() {
+        return route;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + observationIndex + ": " + segment.getRoadName() + " at " + point + "}";
+    }
+}
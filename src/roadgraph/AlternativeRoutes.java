@@ -0,0 +1,323 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Several good routes between two vertices instead of just the shortest.
+ * <p>
+ * {@link #kShortest} is Yen's algorithm for the k shortest loopless paths.
+ * Each new path deviates from an accepted one at a spur vertex: the part
+ * before it (the root) is kept, the edges the accepted paths with the same
+ * root take next are blocked, and the rest is the shortest spur path that
+ * avoids them and the root. Two things keep the spur searches cheap. A
+ * reverse shortest path tree from the goal gives the exact distance to the
+ * goal without blocks, which is an admissible A* heuristic with blocks; and
+ * if the tree's own path from the spur vertex avoids every block it is the
+ * spur path and no search is needed. As in Lawler's variant, a path is only
+ * spurred from its deviation vertex on, since earlier spurs were already
+ * tried on its parent.
+ * <p>
+ * {@link #penaltyAlternatives} is the faster penalty method: the shortest
+ * path is found repeatedly while the edges of each path found get more
+ * expensive. A path is kept if it is not much longer than the shortest one
+ * and does not mostly run along the routes kept before it.
+ * <p>
+ * Paths are returned as vertex ids from start to goal, shortest first.
+ */
+public class AlternativeRoutes {
+    public static final double DEFAULT_MAX_STRETCH = 1.3;
+    public static final double DEFAULT_MAX_OVERLAP = 0.7;
+
+    // How much more an edge costs every time a penalty search path uses it
+    private static final double PENALTY_FACTOR = 1.4;
+    // Penalty searches run per requested route before giving up
+    private static final int PENALTY_ROUNDS = 4;
+
+    private AlternativeRoutes() {
+    }
+
+    /**
+     * Find the k shortest loopless paths with Yen's algorithm
+     *
+     * @param graph The graph to search
+     * @param start The id of the starting vertex
+     * @param goal  The id of the goal vertex
+     * @param k     The number of paths
+     * @return Up to k paths in order of length, fewer if there are no more
+     */
+    public static List<int[]> kShortest(CsrGraph graph, int start, int goal, int k) {
+        List<int[]> result = new ArrayList<>();
+        if (k <= 0) {
+            return result;
+        }
+        if (start == goal) {
+            result.add(new int[]{start});
+            return result;
+        }
+        ShortestPathTree toGoal = ShortestPathTree.grow(graph, goal, Double.POSITIVE_INFINITY, true);
+        if (!toGoal.contains(start)) {
+            return result;
+        }
+        Heuristic exact = (g, from, to) -> toGoal.getDistance(from);
+
+        List<Route> accepted = new ArrayList<>();
+        PriorityQueue<Route> candidates = new PriorityQueue<>();
+        HashSet<Route> seen = new HashSet<>();
+        Route first = new Route(graph, toGoal.edgesTo(graph, start), 0);
+        candidates.add(first);
+        seen.add(first);
+
+        boolean[] blockedVertices = new boolean[graph.getNumVertices()];
+        boolean[] blockedEdges = new boolean[graph.getNumEdges()];
+        while ((accepted.size() < k) && !candidates.isEmpty()) {
+            Route route = candidates.poll();
+            accepted.add(route);
+            if (accepted.size() == k) {
+                break;
+            }
+            int[] edges = route.edges;
+            for (int i = route.deviation; i < edges.length; i++) {
+                int spur = graph.getSource(edges[i]);
+                // Block the next step of every accepted path with this root,
+                // together with the edges parallel to it, so no two paths
+                // differ only in which of two roads between the same
+                // intersections they take
+                IntList blocked = new IntList();
+                for (Route other : accepted) {
+                    if ((other.edges.length > i) && sameRoot(edges, other.edges, i)) {
+                        int next = graph.getTarget(other.edges[i]);
+                        for (int edge = graph.firstEdge(spur); edge < graph.endEdge(spur); edge++) {
+                            if ((graph.getTarget(edge) == next) && !blockedEdges[edge]) {
+                                blockedEdges[edge] = true;
+                                blocked.add(edge);
+                            }
+                        }
+                    }
+                }
+                for (int j = 0; j < i; j++) {
+                    blockedVertices[graph.getSource(edges[j])] = true;
+                }
+
+                int[] spurEdges = treePath(graph, toGoal, spur, blockedVertices, blockedEdges);
+                if (spurEdges == null) {
+                    spurEdges = search(graph, spur, goal, null, blockedVertices, blockedEdges, exact);
+                }
+                if (spurEdges != null) {
+                    int[] path = Arrays.copyOf(edges, i + spurEdges.length);
+                    System.arraycopy(spurEdges, 0, path, i, spurEdges.length);
+                    Route candidate = new Route(graph, path, i);
+                    if (seen.add(candidate)) {
+                        candidates.add(candidate);
+                    }
+                }
+
+                for (int b = 0; b < blocked.size(); b++) {
+                    blockedEdges[blocked.get(b)] = false;
+                }
+                for (int j = 0; j < i; j++) {
+                    blockedVertices[graph.getSource(edges[j])] = false;
+                }
+            }
+        }
+
+        for (Route route : accepted) {
+            result.add(route.vertices(graph, start));
+        }
+        return result;
+    }
+
+    /**
+     * Find alternative routes with the penalty method
+     *
+     * @param graph      The graph to search
+     * @param start      The id of the starting vertex
+     * @param goal       The id of the goal vertex
+     * @param maxRoutes  The largest number of routes, including the shortest
+     * @param maxStretch How many times longer than the shortest path a route
+     *                   may be
+     * @param maxOverlap The largest fraction of a route's length that may run
+     *                   along routes found before it
+     * @return The shortest path followed by up to maxRoutes - 1 alternatives,
+     * in order of length; empty if there is no path
+     */
+    public static List<int[]> penaltyAlternatives(CsrGraph graph, int start, int goal, int maxRoutes,
+                                                  double maxStretch, double maxOverlap) {
+        List<Route> routes = new ArrayList<>();
+        if (maxRoutes <= 0) {
+            return new ArrayList<>();
+        }
+        if (start == goal) {
+            List<int[]> result = new ArrayList<>();
+            result.add(new int[]{start});
+            return result;
+        }
+        double[] weights = new double[graph.getNumEdges()];
+        for (int edge = 0; edge < weights.length; edge++) {
+            weights[edge] = graph.getLength(edge);
+        }
+        // Penalties only make edges longer, so the chord distance stays a lower
+        // bound
+        Heuristic heuristic = new ChordHeuristic();
+        boolean[] used = new boolean[graph.getNumEdges()];
+        HashSet<Route> seen = new HashSet<>();
+        double shortest = Double.POSITIVE_INFINITY;
+        for (int round = 0; (round < PENALTY_ROUNDS * maxRoutes) && (routes.size() < maxRoutes); round++) {
+            int[] edges = search(graph, start, goal, weights, null, null, heuristic);
+            if (edges == null) {
+                break;
+            }
+            Route route = new Route(graph, edges, 0);
+            if (routes.isEmpty()) {
+                shortest = route.length;
+            } else if (route.length > maxStretch * shortest) {
+                break;
+            }
+            double shared = 0;
+            for (int edge : edges) {
+                if (used[edge]) {
+                    shared += graph.getLength(edge);
+                }
+            }
+            if (seen.add(route) && (routes.isEmpty() || (shared <= maxOverlap * route.length))) {
+                routes.add(route);
+                for (int edge : edges) {
+                    used[edge] = true;
+                }
+            }
+            for (int edge : edges) {
+                weights[edge] *= PENALTY_FACTOR;
+            }
+        }
+
+        routes.sort(null);
+        List<int[]> result = new ArrayList<>();
+        for (Route route : routes) {
+            result.add(route.vertices(graph, start));
+        }
+        return result;
+    }
+
+    private static boolean sameRoot(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The tree's path from a vertex to the goal, or null if it runs into a block
+    private static int[] treePath(CsrGraph graph, ShortestPathTree toGoal, int from, boolean[] blockedVertices,
+                                  boolean[] blockedEdges) {
+        int[] edges = toGoal.edgesTo(graph, from);
+        if ((edges == null) || (edges.length == 0)) {
+            return null;
+        }
+        for (int edge : edges) {
+            if (blockedEdges[edge] || blockedVertices[graph.getTarget(edge)]) {
+                return null;
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * A* from source to goal over the given weights (the lengths if null),
+     * never entering a blocked vertex or driving a blocked edge
+     *
+     * @return the edge ids of the path, or null if there is none
+     */
+    private static int[] search(CsrGraph graph, int source, int goal, double[] weights, boolean[] blockedVertices,
+                                boolean[] blockedEdges, Heuristic heuristic) {
+        SearchContext context = SearchContext.get(graph.getNumVertices());
+        IndexedDaryHeap pq = context.getHeap();
+        // The parent of a vertex in this search is the edge it was reached by
+        context.update(source, 0, -1);
+        pq.push(source, 0);
+        boolean found = false;
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            if (curr == goal) {
+                found = true;
+                break;
+            }
+            double currDistance = context.getDistance(curr);
+            for (int edge = graph.firstEdge(curr); edge < graph.endEdge(curr); edge++) {
+                int next = graph.getTarget(edge);
+                if (context.isSettled(next) || ((blockedEdges != null) && blockedEdges[edge])
+                        || ((blockedVertices != null) && blockedVertices[next])) {
+                    continue;
+                }
+                double nextDistance = currDistance + ((weights == null) ? graph.getLength(edge) : weights[edge]);
+                if (nextDistance < context.getDistance(next)) {
+                    double bound = heuristic.lowerBound(graph, next, goal);
+                    if (bound == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    context.update(next, nextDistance, edge);
+                    pq.push(next, nextDistance + bound);
+                }
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        IntList edges = new IntList();
+        for (int curr = goal; curr != source; curr = graph.getSource(context.getParent(curr))) {
+            edges.add(context.getParent(curr));
+        }
+        int[] result = edges.toArray();
+        for (int i = 0, j = result.length - 1; i < j; i++, j--) {
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** A path as edge ids, ordered by length */
+    private static class Route implements Comparable<Route> {
+        final int[] edges;
+        final int deviation;
+        final double length;
+
+        Route(CsrGraph graph, int[] edges, int deviation) {
+            this.edges = edges;
+            this.deviation = deviation;
+            double sum = 0;
+            for (int edge : edges) {
+                sum += graph.getLength(edge);
+            }
+            this.length = sum;
+        }
+
+        int[] vertices(CsrGraph graph, int start) {
+            int[] path = new int[edges.length + 1];
+            path[0] = start;
+            for (int i = 0; i < edges.length; i++) {
+                path[i + 1] = graph.getTarget(edges[i]);
+            }
+            return path;
+        }
+
+        @Override
+        public int compareTo(Route other) {
+            return Double.compare(length, other.length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Route) && Arrays.equals(edges, ((Route) o).edges);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(edges);
+        }
+    }
+}
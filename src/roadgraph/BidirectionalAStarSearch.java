@@ -0,0 +1,25 @@
+package roadgraph;
+
+/**
+ * Bidirectional A* with the average potential
+ * p(v) = (h(v, goal) - h(start, v)) / 2, where h is a consistent Heuristic
+ * (the chord distance by default). The forward search uses p and the
+ * backward search -p, which keeps both consistent, so the bidirectional
+ * stopping rule stays exact.
+ */
+public class BidirectionalAStarSearch extends BidirectionalDijkstraSearch {
+    private final Heuristic heuristic;
+
+    public BidirectionalAStarSearch() {
+        this(new ChordHeuristic());
+    }
+
+    public BidirectionalAStarSearch(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    @Override
+    protected double potential(CsrGraph graph, int vertex, int start, int goal) {
+        return (heuristic.lowerBound(graph, vertex, goal) - heuristic.lowerBound(graph, start, vertex)) / 2;
+    }
+}
@@ -0,0 +1,105 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Dijkstra's algorithm grown from both ends at once: a forward search from the
+ * start over outgoing edges and a backward search from the goal over the
+ * reverse adjacency. The side with the smaller frontier key is expanded next,
+ * and the search stops once the two smallest keys together can no longer beat
+ * the best start-goal path seen at a meeting vertex.
+ */
+public class BidirectionalDijkstraSearch implements SearchPath {
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        if (start == goal) {
+            return new int[]{start};
+        }
+        SearchContext forward = SearchContext.get(graph.getNumVertices());
+        SearchContext backward = SearchContext.getBackward(graph.getNumVertices());
+        IndexedDaryHeap forwardPq = forward.getHeap();
+        IndexedDaryHeap backwardPq = backward.getHeap();
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+
+        forward.update(start, 0, start);
+        forwardPq.push(start, potential(graph, start, start, goal));
+        backward.update(goal, 0, goal);
+        backwardPq.push(goal, -potential(graph, goal, start, goal));
+        while (!forwardPq.isEmpty() && !backwardPq.isEmpty()) {
+            if (forwardPq.peekKey() + backwardPq.peekKey() >= best) {
+                break;
+            }
+            if (forwardPq.peekKey() <= backwardPq.peekKey()) {
+                int curr = forwardPq.poll();
+                forward.settle(curr);
+                double currDistance = forward.getDistance(curr);
+                for (int edge = graph.endEdge(curr) - 1; edge >= graph.firstEdge(curr); edge--) {
+                    int next = graph.getTarget(edge);
+                    double nextDistance = currDistance + graph.getLength(edge);
+                    if ((!forward.isSettled(next)) && (nextDistance < forward.getDistance(next))) {
+                        forward.update(next, nextDistance, curr);
+                        nodeSearched.accept(next);
+                        forwardPq.push(next, nextDistance + potential(graph, next, start, goal));
+                    }
+                    double through = forward.getDistance(next) + backward.getDistance(next);
+                    if (through < best) {
+                        best = through;
+                        meeting = next;
+                    }
+                }
+            } else {
+                int curr = backwardPq.poll();
+                backward.settle(curr);
+                double currDistance = backward.getDistance(curr);
+                for (int i = graph.endInEdge(curr) - 1; i >= graph.firstInEdge(curr); i--) {
+                    int edge = graph.getInEdge(i);
+                    int prev = graph.getSource(edge);
+                    double prevDistance = currDistance + graph.getLength(edge);
+                    if ((!backward.isSettled(prev)) && (prevDistance < backward.getDistance(prev))) {
+                        backward.update(prev, prevDistance, curr);
+                        nodeSearched.accept(prev);
+                        backwardPq.push(prev, prevDistance - potential(graph, prev, start, goal));
+                    }
+                    double through = forward.getDistance(prev) + backward.getDistance(prev);
+                    if (through < best) {
+                        best = through;
+                        meeting = prev;
+                    }
+                }
+            }
+        }
+
+        if (meeting < 0) {
+            return new int[0];
+        }
+        return joinPaths(forward.pathTo(start, meeting), backward, meeting, goal);
+    }
+
+    /**
+     * The potential added to forward keys and subtracted from backward keys. It
+     * must be consistent for both directions; plain Dijkstra uses none.
+     */
+    protected double potential(CsrGraph graph, int vertex, int start, int goal) {
+        return 0;
+    }
+
+    /**
+     * Append the backward search's parent chain from the meeting vertex to the
+     * goal onto the forward path from the start to the meeting vertex
+     */
+    static int[] joinPaths(int[] forwardPath, SearchContext backward, int meeting, int goal) {
+        int length = forwardPath.length;
+        for (int curr = meeting; curr != goal; curr = backward.getParent(curr)) {
+            length++;
+        }
+        int[] path = Arrays.copyOf(forwardPath, length);
+        int i = forwardPath.length;
+        for (int curr = meeting; curr != goal; ) {
+            curr = backward.getParent(curr);
+            path[i++] = curr;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,41 @@
+package roadgraph;
+
+import java.util.function.IntConsumer;
+
+public class BreadthFirstSearch implements SearchPath {
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        int numVertices = graph.getNumVertices();
+        int[] toExplore = new int[numVertices];
+        int[] parent = new int[numVertices];
+        boolean[] visited = new boolean[numVertices];
+        int head = 0;
+        int tail = 0;
+        boolean found = false;
+
+        visited[start] = true;
+        toExplore[tail++] = start;
+        while (head < tail) {
+            int curr = toExplore[head++];
+            if (curr == goal) {
+                found = true;
+                break;
+            }
+            for (int edge = graph.endEdge(curr) - 1; edge >= graph.firstEdge(curr); edge--) {
+                int next = graph.getTarget(edge);
+                if (!visited[next] && !graph.isClosed(edge)) {
+                    // Hook for visualization. See writeup.
+                    nodeSearched.accept(next);
+                    visited[next] = true;
+                    parent[next] = curr;
+                    toExplore[tail++] = next;
+                }
+            }
+        }
+
+        if (!found) {
+            return new int[0];
+        }
+        return Utils.constructPath(start, goal, parent);
+    }
+}
@@ -0,0 +1,14 @@
+package roadgraph;
+
+/**
+ * The straight line distance through the earth between two intersections,
+ * see {@link CsrGraph#chordDistance}. It is never more than the great circle
+ * distance, so it is admissible and consistent wherever
+ * GreatCircleHeuristic is, and much cheaper to evaluate.
+ */
+public class ChordHeuristic implements Heuristic {
+    @Override
+    public double lowerBound(CsrGraph graph, int from, int to) {
+        return graph.chordDistance(from, to);
+    }
+}
@@ -0,0 +1,374 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over a CsrGraph.
+ * <p>
+ * Preprocessing contracts the vertices one at a time in the order of a lazily
+ * updated priority (edge difference, contracted neighbours and level). When a
+ * vertex v is contracted, a shortcut u -> w is added for every pair of
+ * neighbours whose shortest path runs through v, unless a bounded witness
+ * search finds another path that is at least as short. The rank of a vertex is
+ * the position at which it was contracted.
+ * <p>
+ * The result is stored as two CSR search graphs: the upward graph holds the
+ * edges u -> w with rank(u) &lt; rank(w) at u, and the downward graph holds the
+ * edges u -> w with rank(u) &gt; rank(w) at w, so the backward search of a
+ * query also only moves up. Every shortcut remembers the vertex it bypasses so
+ * paths can be unpacked back into original edges.
+ * Instances are immutable and safe to share between threads.
+ */
+public class ContractionHierarchy {
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final CsrGraph graph;
+    private final int[] rank;
+
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles;
+
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downWeights;
+    private final int[] downMiddles;
+
+    private int numShortcuts;
+
+    /**
+     * Contract the graph
+     *
+     * @param graph The graph to preprocess
+     */
+    public ContractionHierarchy(CsrGraph graph) {
+        this.graph = graph;
+        int numVertices = graph.getNumVertices();
+        ArcList[] out = new ArcList[numVertices];
+        ArcList[] in = new ArcList[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            out[v] = new ArcList();
+            in[v] = new ArcList();
+        }
+        for (int edge = 0; edge < graph.getNumEdges(); edge++) {
+            if (graph.isClosed(edge)) {
+                continue;
+            }
+            addArc(out, in, graph.getSource(edge), graph.getTarget(edge), graph.getLength(edge), -1);
+        }
+
+        rank = new int[numVertices];
+        contract(out, in);
+
+        upOffsets = new int[numVertices + 1];
+        downOffsets = new int[numVertices + 1];
+        for (int v = 0; v < numVertices; v++) {
+            for (int i = 0; i < out[v].size; i++) {
+                int w = out[v].vertex[i];
+                if (rank[v] < rank[w]) {
+                    upOffsets[v + 1]++;
+                } else {
+                    downOffsets[w + 1]++;
+                }
+            }
+        }
+        for (int v = 0; v < numVertices; v++) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        upTargets = new int[upOffsets[numVertices]];
+        upWeights = new double[upTargets.length];
+        upMiddles = new int[upTargets.length];
+        downSources = new int[downOffsets[numVertices]];
+        downWeights = new double[downSources.length];
+        downMiddles = new int[downSources.length];
+        int[] upFill = Arrays.copyOf(upOffsets, numVertices);
+        int[] downFill = Arrays.copyOf(downOffsets, numVertices);
+        for (int v = 0; v < numVertices; v++) {
+            ArcList arcs = out[v];
+            for (int i = 0; i < arcs.size; i++) {
+                int w = arcs.vertex[i];
+                if (rank[v] < rank[w]) {
+                    int slot = upFill[v]++;
+                    upTargets[slot] = w;
+                    upWeights[slot] = arcs.weight[i];
+                    upMiddles[slot] = arcs.middle[i];
+                } else {
+                    int slot = downFill[w]++;
+                    downSources[slot] = v;
+                    downWeights[slot] = arcs.weight[i];
+                    downMiddles[slot] = arcs.middle[i];
+                }
+            }
+        }
+    }
+
+    private void contract(ArcList[] out, ArcList[] in) {
+        int numVertices = rank.length;
+        boolean[] contracted = new boolean[numVertices];
+        int[] contractedNeighbors = new int[numVertices];
+        int[] level = new int[numVertices];
+        SearchContext witness = new SearchContext();
+        IndexedDaryHeap order = new IndexedDaryHeap(numVertices);
+        for (int v = 0; v < numVertices; v++) {
+            order.push(v, priority(v, out, in, contracted, contractedNeighbors, level, witness));
+        }
+
+        int nextRank = 0;
+        while (!order.isEmpty()) {
+            int v = order.poll();
+            double current = priority(v, out, in, contracted, contractedNeighbors, level, witness);
+            if (!order.isEmpty() && current > order.peekKey()) {
+                // Lazy update: the priority went stale, try again later
+                order.push(v, current);
+                continue;
+            }
+            shortcuts(v, out, in, contracted, witness, true);
+            contracted[v] = true;
+            rank[v] = nextRank++;
+
+            for (ArcList arcs : new ArcList[]{out[v], in[v]}) {
+                for (int i = 0; i < arcs.size; i++) {
+                    int u = arcs.vertex[i];
+                    if (!contracted[u]) {
+                        contractedNeighbors[u]++;
+                        level[u] = Math.max(level[u], level[v] + 1);
+                    }
+                }
+            }
+            for (ArcList arcs : new ArcList[]{out[v], in[v]}) {
+                for (int i = 0; i < arcs.size; i++) {
+                    int u = arcs.vertex[i];
+                    if (order.contains(u)) {
+                        order.update(u, priority(u, out, in, contracted, contractedNeighbors, level, witness));
+                    }
+                }
+            }
+        }
+    }
+
+    private double priority(int v, ArcList[] out, ArcList[] in, boolean[] contracted, int[] contractedNeighbors,
+                            int[] level, SearchContext witness) {
+        int removed = out[v].countLive(contracted) + in[v].countLive(contracted);
+        int added = shortcuts(v, out, in, contracted, witness, false);
+        return 2.0 * (added - removed) + contractedNeighbors[v] + level[v];
+    }
+
+    /**
+     * Find the shortcuts needed to contract v
+     *
+     * @param apply Whether to add the shortcuts or only count them
+     * @return The number of shortcuts
+     */
+    private int shortcuts(int v, ArcList[] out, ArcList[] in, boolean[] contracted, SearchContext witness,
+                          boolean apply) {
+        int count = 0;
+        ArcList incoming = in[v];
+        ArcList outgoing = out[v];
+        for (int i = 0; i < incoming.size; i++) {
+            int u = incoming.vertex[i];
+            if (contracted[u] || (u == v)) {
+                continue;
+            }
+            double maxOut = 0;
+            for (int j = 0; j < outgoing.size; j++) {
+                int w = outgoing.vertex[j];
+                if (!contracted[w] && (w != u) && (w != v)) {
+                    maxOut = Math.max(maxOut, outgoing.weight[j]);
+                }
+            }
+            if (maxOut == 0) {
+                continue;
+            }
+            double viaWeight = incoming.weight[i];
+            witnessSearch(u, v, viaWeight + maxOut, out, contracted, witness);
+            for (int j = 0; j < outgoing.size; j++) {
+                int w = outgoing.vertex[j];
+                if (contracted[w] || (w == u) || (w == v)) {
+                    continue;
+                }
+                double shortcutWeight = viaWeight + outgoing.weight[j];
+                if (witness.getDistance(w) > shortcutWeight) {
+                    count++;
+                    if (apply) {
+                        addArc(out, in, u, w, shortcutWeight, v);
+                        numShortcuts++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void witnessSearch(int source, int excluded, double maxDistance, ArcList[] out, boolean[] contracted,
+                               SearchContext witness) {
+        witness.reset(rank.length);
+        IndexedDaryHeap pq = witness.getHeap();
+        witness.update(source, 0, source);
+        pq.push(source, 0);
+        int settled = 0;
+        while (!pq.isEmpty() && (pq.peekKey() <= maxDistance) && (settled < WITNESS_SETTLE_LIMIT)) {
+            int curr = pq.poll();
+            witness.settle(curr);
+            settled++;
+            double currDistance = witness.getDistance(curr);
+            ArcList arcs = out[curr];
+            for (int i = 0; i < arcs.size; i++) {
+                int next = arcs.vertex[i];
+                if (contracted[next] || (next == excluded)) {
+                    continue;
+                }
+                double nextDistance = currDistance + arcs.weight[i];
+                if (nextDistance < witness.getDistance(next)) {
+                    witness.update(next, nextDistance, curr);
+                    pq.push(next, nextDistance);
+                }
+            }
+        }
+    }
+
+    private static void addArc(ArcList[] out, ArcList[] in, int from, int to, double weight, int middle) {
+        if (from == to) {
+            return;
+        }
+        out[from].put(to, weight, middle);
+        in[to].put(from, weight, middle);
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    public int getRank(int vertex) {
+        return rank[vertex];
+    }
+
+    public int getNumShortcuts() {
+        return numShortcuts;
+    }
+
+    public int firstUpEdge(int vertex) {
+        return upOffsets[vertex];
+    }
+
+    public int endUpEdge(int vertex) {
+        return upOffsets[vertex + 1];
+    }
+
+    /**
+     * @return the higher ranked end of an upward edge
+     */
+    public int getUpTarget(int edge) {
+        return upTargets[edge];
+    }
+
+    public double getUpWeight(int edge) {
+        return upWeights[edge];
+    }
+
+    public int firstDownEdge(int vertex) {
+        return downOffsets[vertex];
+    }
+
+    public int endDownEdge(int vertex) {
+        return downOffsets[vertex + 1];
+    }
+
+    /**
+     * @return the higher ranked start of a downward edge, which is stored at its
+     * lower ranked end
+     */
+    public int getDownSource(int edge) {
+        return downSources[edge];
+    }
+
+    public double getDownWeight(int edge) {
+        return downWeights[edge];
+    }
+
+    /**
+     * Expand an edge of the hierarchy into the original vertices it stands for
+     *
+     * @param from The start of the edge
+     * @param to   The end of the edge
+     * @param path Receives the vertices after from, up to and including to
+     */
+    public void unpack(int from, int to, IntList path) {
+        IntList stack = new IntList();
+        stack.add(to);
+        stack.add(from);
+        while (stack.size() > 0) {
+            int a = stack.removeLast();
+            int b = stack.removeLast();
+            int middle = getMiddle(a, b);
+            if (middle < 0) {
+                path.add(b);
+            } else {
+                stack.add(b);
+                stack.add(middle);
+                stack.add(middle);
+                stack.add(a);
+            }
+        }
+    }
+
+    private int getMiddle(int from, int to) {
+        if (rank[from] < rank[to]) {
+            for (int edge = upOffsets[from]; edge < upOffsets[from + 1]; edge++) {
+                if (upTargets[edge] == to) {
+                    return upMiddles[edge];
+                }
+            }
+        } else {
+            for (int edge = downOffsets[to]; edge < downOffsets[to + 1]; edge++) {
+                if (downSources[edge] == from) {
+                    return downMiddles[edge];
+                }
+            }
+        }
+        throw new IllegalArgumentException("No hierarchy edge from " + from + " to " + to);
+    }
+
+    /**
+     * A growable list of weighted arcs to other vertices, used while contracting.
+     * There is at most one arc per neighbour; a lighter arc replaces a heavier one.
+     */
+    private static class ArcList {
+        int[] vertex = new int[4];
+        double[] weight = new double[4];
+        int[] middle = new int[4];
+        int size;
+
+        void put(int to, double w, int via) {
+            for (int i = 0; i < size; i++) {
+                if (vertex[i] == to) {
+                    if (w < weight[i]) {
+                        weight[i] = w;
+                        middle[i] = via;
+                    }
+                    return;
+                }
+            }
+            if (size == vertex.length) {
+                vertex = Arrays.copyOf(vertex, size * 2);
+                weight = Arrays.copyOf(weight, size * 2);
+                middle = Arrays.copyOf(middle, size * 2);
+            }
+            vertex[size] = to;
+            weight[size] = w;
+            middle[size] = via;
+            size++;
+        }
+
+        int countLive(boolean[] contracted) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (!contracted[vertex[i]]) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
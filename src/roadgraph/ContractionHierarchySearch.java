@@ -0,0 +1,126 @@
+package roadgraph;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Point to point queries on a ContractionHierarchy. The forward search from the
+ * start only follows upward edges and the backward search from the goal only
+ * follows downward edges in reverse, so both climb the hierarchy and meet at
+ * the highest ranked vertex of the shortest path. A side stops as soon as its
+ * smallest key is no better than the best meeting distance found so far.
+ */
+public class ContractionHierarchySearch implements SearchPath {
+    private final ContractionHierarchy hierarchy;
+
+    public ContractionHierarchySearch(ContractionHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+    }
+
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        if (graph != hierarchy.getGraph()) {
+            throw new IllegalArgumentException("The hierarchy was built for a different graph");
+        }
+        SearchContext forward = SearchContext.get(graph.getNumVertices());
+        SearchContext backward = SearchContext.getBackward(graph.getNumVertices());
+        int meeting = search(hierarchy, start, goal, forward, backward, nodeSearched);
+        if (meeting < 0) {
+            return new int[0];
+        }
+
+        IntList path = new IntList();
+        path.add(start);
+        IntList upward = new IntList();
+        for (int curr = meeting; curr != start; curr = forward.getParent(curr)) {
+            upward.add(curr);
+        }
+        int prev = start;
+        for (int i = upward.size() - 1; i >= 0; i--) {
+            hierarchy.unpack(prev, upward.get(i), path);
+            prev = upward.get(i);
+        }
+        for (int curr = meeting; curr != goal; ) {
+            int next = backward.getParent(curr);
+            hierarchy.unpack(curr, next, path);
+            curr = next;
+        }
+        return path.toArray();
+    }
+
+    /**
+     * @return the distance from start to goal, or positive infinity if the goal
+     * cannot be reached
+     */
+    public double distance(int start, int goal) {
+        int numVertices = hierarchy.getGraph().getNumVertices();
+        SearchContext forward = SearchContext.get(numVertices);
+        SearchContext backward = SearchContext.getBackward(numVertices);
+        int meeting = search(hierarchy, start, goal, forward, backward, (v) -> {
+        });
+        return (meeting < 0) ? Double.POSITIVE_INFINITY
+                : forward.getDistance(meeting) + backward.getDistance(meeting);
+    }
+
+    /**
+     * Run the upward searches from both ends
+     *
+     * @return The meeting vertex of the shortest path, or -1 if there is none
+     */
+    static int search(ContractionHierarchy hierarchy, int start, int goal, SearchContext forward,
+                      SearchContext backward, IntConsumer nodeSearched) {
+        IndexedDaryHeap forwardPq = forward.getHeap();
+        IndexedDaryHeap backwardPq = backward.getHeap();
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+
+        forward.update(start, 0, start);
+        forwardPq.push(start, 0);
+        backward.update(goal, 0, goal);
+        backwardPq.push(goal, 0);
+        while (true) {
+            boolean forwardDone = forwardPq.isEmpty() || (forwardPq.peekKey() >= best);
+            boolean backwardDone = backwardPq.isEmpty() || (backwardPq.peekKey() >= best);
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            if (!forwardDone && (backwardDone || (forwardPq.peekKey() <= backwardPq.peekKey()))) {
+                int curr = forwardPq.poll();
+                forward.settle(curr);
+                double currDistance = forward.getDistance(curr);
+                double through = currDistance + backward.getDistance(curr);
+                if (through < best) {
+                    best = through;
+                    meeting = curr;
+                }
+                for (int edge = hierarchy.firstUpEdge(curr); edge < hierarchy.endUpEdge(curr); edge++) {
+                    int next = hierarchy.getUpTarget(edge);
+                    double nextDistance = currDistance + hierarchy.getUpWeight(edge);
+                    if (nextDistance < forward.getDistance(next)) {
+                        forward.update(next, nextDistance, curr);
+                        nodeSearched.accept(next);
+                        forwardPq.push(next, nextDistance);
+                    }
+                }
+            } else {
+                int curr = backwardPq.poll();
+                backward.settle(curr);
+                double currDistance = backward.getDistance(curr);
+                double through = forward.getDistance(curr) + currDistance;
+                if (through < best) {
+                    best = through;
+                    meeting = curr;
+                }
+                for (int edge = hierarchy.firstDownEdge(curr); edge < hierarchy.endDownEdge(curr); edge++) {
+                    int prev = hierarchy.getDownSource(edge);
+                    double prevDistance = currDistance + hierarchy.getDownWeight(edge);
+                    if (prevDistance < backward.getDistance(prev)) {
+                        backward.update(prev, prevDistance, curr);
+                        nodeSearched.accept(prev);
+                        backwardPq.push(prev, prevDistance);
+                    }
+                }
+            }
+        }
+        return meeting;
+    }
+}
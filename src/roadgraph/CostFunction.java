@@ -0,0 +1,16 @@
+package roadgraph;
+
+/**
+ * What a search minimizes: the cost of driving each edge of a graph.
+ * A cost function is evaluated once per edge when a {@link WeightProfile} is
+ * built, never during a search, so it may be as slow as it needs to be.
+ */
+public interface CostFunction {
+    /**
+     * @param graph The graph the edge belongs to
+     * @param edge  The edge id
+     * @return the cost of driving the edge, at least 0, or positive infinity if
+     * it must not be driven at all
+     */
+    double cost(CsrGraph graph, int edge);
+}
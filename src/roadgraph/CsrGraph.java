@@ -0,0 +1,501 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * A frozen, compressed sparse row (CSR) view of a MapGraph.
+ * <p>
+ * Vertices are numbered 0..n-1 and the outgoing edges of vertex v are the
+ * edge ids offsets[v] .. offsets[v + 1] - 1. Edge targets, lengths and the
+ * interned road name/type ids are kept in parallel primitive buffers so the
+ * searches never chase MapNode/MapEdge pointers. The reverse adjacency is
+ * stored the same way: the incoming edges of v are inEdges[inOffsets[v]] ..
+ * inEdges[inOffsets[v + 1] - 1]. A compiled graph wraps heap arrays, and a
+ * graph opened from a snapshot file reads straight from the mapped file.
+ * An edge of infinite length is closed and no search drives it.
+ * Instances are immutable and safe to share between threads.
+ */
+public class CsrGraph {
+    private final DoubleBuffer latitudes;
+    private final DoubleBuffer longitudes;
+    // The vertex locations of a compiled graph, null if the graph only has
+    // its coordinates
+    private final GeographicPoint[] locations;
+
+    private final IntBuffer offsets;
+    private final IntBuffer sources;
+    private final IntBuffer targets;
+    private final DoubleBuffer lengths;
+
+    private final IntBuffer inOffsets;
+    private final IntBuffer inEdges;
+
+    private final IntBuffer roadNameIds;
+    private final IntBuffer roadTypeIds;
+    private final String[] roadNames;
+    private final String[] roadTypes;
+
+    // The radius GeographicPoint.distance uses, in km
+    private static final double EARTH_RADIUS_KM = 6373;
+    // Covers the rounding error of chordDistance, far below a metre
+    private static final double CHORD_MARGIN_KM = 1e-9;
+
+    // x, y, z of the unit vector of every vertex location, computed on first use
+    private volatile double[] unitVectors;
+    // The vertex id of every location, computed on first use
+    private volatile HashMap<GeographicPoint, Integer> ids;
+
+    /**
+     * Compile the given adjacency lists into CSR form
+     *
+     * @param vertices The vertices of a MapGraph keyed by their location
+     * @return The compiled graph
+     */
+    public static CsrGraph compile(Map<GeographicPoint, MapNode> vertices) {
+        List<MapNode> nodes = new ArrayList<>(vertices.values());
+        HashMap<GeographicPoint, Integer> ids = new HashMap<>(nodes.size() * 2);
+        for (MapNode node : nodes) {
+            ids.put(node.getLocation(), ids.size());
+        }
+        return compile(nodes, (mapEdge) -> ids.get(mapEdge.getEnd()));
+    }
+
+    /**
+     * Compile the adjacency lists of nodes numbered by {@link MapNode#getId()}
+     * into CSR form. The vertex ids of the result are the node ids and edge
+     * targets are read from {@link MapEdge#getEndId()}, so no location is
+     * hashed.
+     *
+     * @param nodes The nodes, where nodes.get(i).getId() == i
+     * @return The compiled graph
+     */
+    public static CsrGraph compile(List<MapNode> nodes) {
+        return compile(nodes, MapEdge::getEndId);
+    }
+
+    private static CsrGraph compile(List<MapNode> nodes, ToIntFunction<MapEdge> endId) {
+        int numVertices = nodes.size();
+        GeographicPoint[] locations = new GeographicPoint[numVertices];
+        int numEdges = 0;
+        for (int v = 0; v < numVertices; v++) {
+            locations[v] = nodes.get(v).getLocation();
+            numEdges += nodes.get(v).getEdges().size();
+        }
+
+        int[] offsets = new int[numVertices + 1];
+        int[] targets = new int[numEdges];
+        double[] lengths = new double[numEdges];
+        int[] roadNameIds = new int[numEdges];
+        int[] roadTypeIds = new int[numEdges];
+        HashMap<String, Integer> names = new HashMap<>();
+        HashMap<String, Integer> types = new HashMap<>();
+
+        int edge = 0;
+        for (int v = 0; v < numVertices; v++) {
+            offsets[v] = edge;
+            for (MapEdge mapEdge : nodes.get(v).getEdges()) {
+                targets[edge] = endId.applyAsInt(mapEdge);
+                lengths[edge] = mapEdge.getLength();
+                roadNameIds[edge] = intern(names, mapEdge.getStreetName());
+                roadTypeIds[edge] = intern(types, mapEdge.getRoadType());
+                edge++;
+            }
+        }
+        offsets[numVertices] = edge;
+        return new CsrGraph(locations, offsets, targets, lengths, roadNameIds, roadTypeIds, toArray(names),
+                toArray(types));
+    }
+
+    /**
+     * Wrap existing CSR arrays. The arrays are used as they are and must not
+     * be modified afterwards.
+     *
+     * @param locations   The location of every vertex
+     * @param offsets     The first edge id of every vertex, followed by the number
+     *                    of edges
+     * @param targets     The target vertex of every edge
+     * @param lengths     The length of every edge in km
+     * @param roadNameIds The index into roadNames of every edge
+     * @param roadTypeIds The index into roadTypes of every edge
+     * @param roadNames   The distinct road names
+     * @param roadTypes   The distinct road types
+     */
+    public CsrGraph(GeographicPoint[] locations, int[] offsets, int[] targets, double[] lengths, int[] roadNameIds,
+                    int[] roadTypeIds, String[] roadNames, String[] roadTypes) {
+        int numVertices = locations.length;
+        int numEdges = targets.length;
+        double[] lats = new double[numVertices];
+        double[] lons = new double[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            lats[v] = locations[v].getX();
+            lons[v] = locations[v].getY();
+        }
+        this.latitudes = DoubleBuffer.wrap(lats);
+        this.longitudes = DoubleBuffer.wrap(lons);
+        this.locations = locations;
+        this.offsets = IntBuffer.wrap(offsets);
+        this.targets = IntBuffer.wrap(targets);
+        this.lengths = DoubleBuffer.wrap(lengths);
+        this.roadNameIds = IntBuffer.wrap(roadNameIds);
+        this.roadTypeIds = IntBuffer.wrap(roadTypeIds);
+        this.roadNames = roadNames;
+        this.roadTypes = roadTypes;
+
+        int[] sources = new int[numEdges];
+        for (int v = 0; v < numVertices; v++) {
+            Arrays.fill(sources, offsets[v], offsets[v + 1], v);
+        }
+        this.sources = IntBuffer.wrap(sources);
+
+        int[] inOffsets = new int[numVertices + 1];
+        int[] inEdges = new int[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            inOffsets[targets[e] + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        int[] fill = Arrays.copyOf(inOffsets, numVertices);
+        for (int e = 0; e < numEdges; e++) {
+            inEdges[fill[targets[e]]++] = e;
+        }
+        this.inOffsets = IntBuffer.wrap(inOffsets);
+        this.inEdges = IntBuffer.wrap(inEdges);
+    }
+
+    /**
+     * Wrap existing CSR buffers, for example views of a mapped snapshot file,
+     * without copying them. Only the sizes are checked; the caller vouches for
+     * the contents, which must not change afterwards. Every buffer is read
+     * from index 0 to its limit.
+     *
+     * @param latitudes   The latitude of every vertex
+     * @param longitudes  The longitude of every vertex
+     * @param offsets     The first edge id of every vertex, followed by the
+     *                    number of edges
+     * @param sources     The source vertex of every edge
+     * @param targets     The target vertex of every edge
+     * @param lengths     The length of every edge in km
+     * @param inOffsets   The first index into inEdges of every vertex,
+     *                    followed by the number of edges
+     * @param inEdges     The incoming edges of every vertex in vertex order
+     * @param roadNameIds The index into roadNames of every edge
+     * @param roadTypeIds The index into roadTypes of every edge
+     * @param roadNames   The distinct road names
+     * @param roadTypes   The distinct road types
+     * @throws IllegalArgumentException If the sizes of the buffers do not match
+     */
+    public CsrGraph(DoubleBuffer latitudes, DoubleBuffer longitudes, IntBuffer offsets, IntBuffer sources,
+                    IntBuffer targets, DoubleBuffer lengths, IntBuffer inOffsets, IntBuffer inEdges,
+                    IntBuffer roadNameIds, IntBuffer roadTypeIds, String[] roadNames, String[] roadTypes)
+            throws IllegalArgumentException {
+        int numVertices = latitudes.limit();
+        int numEdges = targets.limit();
+        if ((longitudes.limit() != numVertices) || (offsets.limit() != numVertices + 1)
+                || (inOffsets.limit() != numVertices + 1) || (sources.limit() != numEdges)
+                || (lengths.limit() != numEdges) || (inEdges.limit() != numEdges)
+                || (roadNameIds.limit() != numEdges) || (roadTypeIds.limit() != numEdges)) {
+            throw new IllegalArgumentException("The sizes of the buffers do not match");
+        }
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.locations = null;
+        this.offsets = offsets;
+        this.sources = sources;
+        this.targets = targets;
+        this.lengths = lengths;
+        this.inOffsets = inOffsets;
+        this.inEdges = inEdges;
+        this.roadNameIds = roadNameIds;
+        this.roadTypeIds = roadTypeIds;
+        this.roadNames = roadNames;
+        this.roadTypes = roadTypes;
+    }
+
+    // Share everything but the lengths with another graph
+    private CsrGraph(CsrGraph topology, double[] lengths) {
+        this.latitudes = topology.latitudes;
+        this.longitudes = topology.longitudes;
+        this.locations = topology.locations;
+        this.offsets = topology.offsets;
+        this.sources = topology.sources;
+        this.targets = topology.targets;
+        this.lengths = DoubleBuffer.wrap(lengths);
+        this.inOffsets = topology.inOffsets;
+        this.inEdges = topology.inEdges;
+        this.roadNameIds = topology.roadNameIds;
+        this.roadTypeIds = topology.roadTypeIds;
+        this.roadNames = topology.roadNames;
+        this.roadTypes = topology.roadTypes;
+        this.unitVectors = topology.unitVectors;
+        this.ids = topology.ids;
+    }
+
+    /**
+     * Make a graph with the same vertices and edges but other lengths. Only the
+     * lengths are new; every other array is shared with this graph.
+     *
+     * @param lengths The length of every edge in km, positive infinity for a
+     *                closed edge. The array must not be modified afterwards.
+     * @return The new graph
+     */
+    CsrGraph withLengths(double[] lengths) {
+        if (lengths.length != getNumEdges()) {
+            throw new IllegalArgumentException("Expected " + getNumEdges() + " lengths");
+        }
+        return new CsrGraph(this, lengths);
+    }
+
+    /**
+     * @return whether the two graphs have the same vertices and edges, as
+     * graphs made by withLengths do, so edge ids of one are valid in the other
+     */
+    public boolean hasSameEdges(CsrGraph other) {
+        return (other == this) || ((other != null) && (other.targets == targets));
+    }
+
+    /**
+     * @return a copy of the length of every edge
+     */
+    public double[] copyLengths() {
+        double[] copy = new double[getNumEdges()];
+        lengths.duplicate().get(copy);
+        return copy;
+    }
+
+    private static int intern(HashMap<String, Integer> table, String value) {
+        Integer id = table.get(value);
+        if (id == null) {
+            id = table.size();
+            table.put(value, id);
+        }
+        return id;
+    }
+
+    private static String[] toArray(HashMap<String, Integer> table) {
+        String[] values = new String[table.size()];
+        for (Map.Entry<String, Integer> entry : table.entrySet()) {
+            values[entry.getValue()] = entry.getKey();
+        }
+        return values;
+    }
+
+    public int getNumVertices() {
+        return latitudes.limit();
+    }
+
+    public int getNumEdges() {
+        return targets.limit();
+    }
+
+    /**
+     * @param location A location in the graph
+     * @return the vertex id of the location, or -1 if it is not a vertex
+     */
+    public int getId(GeographicPoint location) {
+        HashMap<GeographicPoint, Integer> table = ids;
+        if (table == null) {
+            table = computeIds();
+        }
+        Integer id = location == null ? null : table.get(location);
+        return id == null ? -1 : id;
+    }
+
+    // Racing threads compute the same table, so no lock is needed
+    private HashMap<GeographicPoint, Integer> computeIds() {
+        int numVertices = getNumVertices();
+        HashMap<GeographicPoint, Integer> table = new HashMap<>(numVertices * 2);
+        for (int v = 0; v < numVertices; v++) {
+            table.put(getLocation(v), v);
+        }
+        ids = table;
+        return table;
+    }
+
+    /**
+     * @return the location of the vertex, a new GeographicPoint unless the graph
+     * was compiled from one
+     */
+    public GeographicPoint getLocation(int vertex) {
+        if (locations != null) {
+            return locations[vertex];
+        }
+        return new GeographicPoint(latitudes.get(vertex), longitudes.get(vertex));
+    }
+
+    public double getLatitude(int vertex) {
+        return latitudes.get(vertex);
+    }
+
+    public double getLongitude(int vertex) {
+        return longitudes.get(vertex);
+    }
+
+    /**
+     * A cheap lower bound on the great circle distance between two vertices:
+     * the straight line through the earth between them. The sine and cosine
+     * of every location are taken once, so a call is three differences and a
+     * square root instead of GeographicPoint.distance's haversine. The chord
+     * is shorter than the arc by less than a millimetre per km at city scale,
+     * and it obeys the triangle inequality, so it is as good a heuristic.
+     *
+     * @return the chord length in km, never more than the great circle distance
+     */
+    public double chordDistance(int from, int to) {
+        double[] xyz = unitVectors;
+        if (xyz == null) {
+            xyz = computeUnitVectors();
+        }
+        double dx = xyz[3 * from] - xyz[3 * to];
+        double dy = xyz[3 * from + 1] - xyz[3 * to + 1];
+        double dz = xyz[3 * from + 2] - xyz[3 * to + 2];
+        return Math.max(0, EARTH_RADIUS_KM * Math.sqrt(dx * dx + dy * dy + dz * dz) - CHORD_MARGIN_KM);
+    }
+
+    // Racing threads compute the same values, so no lock is needed
+    private double[] computeUnitVectors() {
+        int numVertices = getNumVertices();
+        double[] xyz = new double[3 * numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            double lat = Math.toRadians(latitudes.get(v));
+            double lon = Math.toRadians(longitudes.get(v));
+            double cosLat = Math.cos(lat);
+            xyz[3 * v] = cosLat * Math.cos(lon);
+            xyz[3 * v + 1] = cosLat * Math.sin(lon);
+            xyz[3 * v + 2] = Math.sin(lat);
+        }
+        unitVectors = xyz;
+        return xyz;
+    }
+
+    /**
+     * @return the id of the first outgoing edge of the vertex
+     */
+    public int firstEdge(int vertex) {
+        return offsets.get(vertex);
+    }
+
+    /**
+     * @return one past the id of the last outgoing edge of the vertex
+     */
+    public int endEdge(int vertex) {
+        return offsets.get(vertex + 1);
+    }
+
+    /**
+     * @return the index of the first incoming edge of the vertex in the reverse
+     * adjacency, see {@link #getInEdge(int)}
+     */
+    public int firstInEdge(int vertex) {
+        return inOffsets.get(vertex);
+    }
+
+    /**
+     * @return one past the index of the last incoming edge of the vertex
+     */
+    public int endInEdge(int vertex) {
+        return inOffsets.get(vertex + 1);
+    }
+
+    /**
+     * @param index An index between firstInEdge(v) and endInEdge(v)
+     * @return the edge id stored at that index of the reverse adjacency
+     */
+    public int getInEdge(int index) {
+        return inEdges.get(index);
+    }
+
+    public int getSource(int edge) {
+        return sources.get(edge);
+    }
+
+    public int getTarget(int edge) {
+        return targets.get(edge);
+    }
+
+    public double getLength(int edge) {
+        return lengths.get(edge);
+    }
+
+    public boolean isClosed(int edge) {
+        return lengths.get(edge) == Double.POSITIVE_INFINITY;
+    }
+
+    public int getRoadNameId(int edge) {
+        return roadNameIds.get(edge);
+    }
+
+    public int getRoadTypeId(int edge) {
+        return roadTypeIds.get(edge);
+    }
+
+    public String getRoadName(int edge) {
+        return roadNames[roadNameIds.get(edge)];
+    }
+
+    public String getRoadType(int edge) {
+        return roadTypes[roadTypeIds.get(edge)];
+    }
+
+    public int getNumRoadNames() {
+        return roadNames.length;
+    }
+
+    public String getInternedRoadName(int roadNameId) {
+        return roadNames[roadNameId];
+    }
+
+    public int getNumRoadTypes() {
+        return roadTypes.length;
+    }
+
+    public String getInternedRoadType(int roadTypeId) {
+        return roadTypes[roadTypeId];
+    }
+
+    /**
+     * A hash of the vertex numbering, coordinates and edges, used to check that
+     * data precomputed for a graph still matches it
+     *
+     * @return The fingerprint of this graph
+     */
+    public long fingerprint() {
+        long hash = 1125899906842597L;
+        int numVertices = getNumVertices();
+        for (int v = 0; v < numVertices; v++) {
+            hash = 31 * hash + Double.doubleToLongBits(latitudes.get(v));
+            hash = 31 * hash + Double.doubleToLongBits(longitudes.get(v));
+        }
+        for (int v = 0; v <= numVertices; v++) {
+            hash = 31 * hash + offsets.get(v);
+        }
+        for (int e = 0; e < getNumEdges(); e++) {
+            hash = 31 * hash + targets.get(e);
+            hash = 31 * hash + Double.doubleToLongBits(lengths.get(e));
+        }
+        return hash;
+    }
+
+    /**
+     * Map a path of vertex ids back to the intersections it visits
+     *
+     * @param path The vertex ids of the path
+     * @return The locations of the path in the same order
+     */
+    public List<GeographicPoint> toLocations(int[] path) {
+        List<GeographicPoint> result = new ArrayList<>(path.length);
+        for (int vertex : path) {
+            result.add(getLocation(vertex));
+        }
+        return result;
+    }
+}
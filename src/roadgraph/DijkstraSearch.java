@@ -1,72 +1,53 @@
 package roadgraph;
 
-import geography.GeographicPoint;
-
-import java.util.*;
-import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public class DijkstraSearch implements SearchPath {
-    @Override
-    public List<GeographicPoint> getPath(HashMap<GeographicPoint, MapNode> vertices, GeographicPoint start, GeographicPoint goal,
-                                         Consumer<GeographicPoint> nodeSearched) {
-        WeightedMapNode startNode = new WeightedMapNode(vertices.get(start));
-        WeightedMapNode goalNode = new WeightedMapNode(vertices.get(goal));
-        int visitedNum = 0;
-        HashMap<GeographicPoint, WeightedMapNode> dijkstraVertices = new HashMap<>();
-        PriorityQueue<WeightedMapNode> pq = new PriorityQueue<>();
-        HashSet<WeightedMapNode> visited = new HashSet<>();
-        HashMap<WeightedMapNode, WeightedMapNode> parentMap = new HashMap<>();
-        boolean found = false;
-        // init
-        for (MapNode mapNode : vertices.values()) {
-            dijkstraVertices.put(mapNode.location, new WeightedMapNode(mapNode, Double.MAX_VALUE));
-
-        }
+    private final WeightProfile profile;
 
-        startNode.setDistance(0);
-        pq.add(startNode);
-        while (!pq.isEmpty()) {
-            WeightedMapNode curr = pq.remove();
-            visitedNum++;
-            if (!visited.contains(curr)) {
-                visited.add(curr);
-                if (curr.getLocation().equals(goalNode.getLocation())) {
-                    found = true;
-                    break;
-                }
-                List<MapEdge> neighbors = curr.getEdges();
-                ListIterator<MapEdge> it = neighbors.listIterator(neighbors.size());
-                while (it.hasPrevious()) {
-                    MapEdge currentEdge = it.previous();
-                    WeightedMapNode next = dijkstraVertices.get(currentEdge.getEnd());
-                    if ((!visited.contains(next))) {
+    public DijkstraSearch() {
+        this(null);
+    }
 
-                        if (next.getDistance() > (currentEdge.getLength() + curr.getDistance())) {
-                            parentMap.put(next, curr);
-                            next.setDistance(currentEdge.getLength() + curr.getDistance());
-                            // Hook for visualization. See writeup.
-                            nodeSearched.accept(next.getLocation());
-                            pq.add(next);
+    /**
+     * @param profile The edge costs to minimize, or null for the lengths
+     */
+    public DijkstraSearch(WeightProfile profile) {
+        this.profile = profile;
+    }
 
-                        }
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        float[] weights = (profile == null) ? null : profile.weightsFor(graph);
+        SearchContext context = SearchContext.get(graph.getNumVertices());
+        IndexedDaryHeap pq = context.getHeap();
+        boolean found = false;
 
-                    }
+        context.update(start, 0, start);
+        pq.push(start, 0);
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            if (curr == goal) {
+                found = true;
+                break;
+            }
+            double currDistance = context.getDistance(curr);
+            for (int edge = graph.endEdge(curr) - 1; edge >= graph.firstEdge(curr); edge--) {
+                int next = graph.getTarget(edge);
+                double nextDistance = currDistance + ((weights == null) ? graph.getLength(edge) : weights[edge]);
+                if ((!context.isSettled(next)) && (nextDistance < context.getDistance(next))) {
+                    context.update(next, nextDistance, curr);
+                    // Hook for visualization. See writeup.
+                    nodeSearched.accept(next);
+                    pq.push(next, nextDistance);
                 }
-
             }
         }
 
         if (!found) {
-            return new ArrayList<GeographicPoint>();
-
+            return new int[0];
         }
-        // System.out.println("visited nodes for Dijkstra");
-        // System.out.println("**********");
-        // for (WeightedMapNode weightedMapNode : visited) {
-        // System.out.println(weightedMapNode.location);
-        // }
-        // System.out.println("**********");
-        System.out.println("  Dijkstra: " + visitedNum);
-        return Utils.constructPath(startNode, goalNode, parentMap);
+        return context.pathTo(start, goal);
     }
 }
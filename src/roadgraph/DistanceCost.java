@@ -0,0 +1,12 @@
+package roadgraph;
+
+/**
+ * The length of an edge in km, which is what the searches minimize without a
+ * WeightProfile.
+ */
+public class DistanceCost implements CostFunction {
+    @Override
+    public double cost(CsrGraph graph, int edge) {
+        return graph.getLength(edge);
+    }
+}
@@ -0,0 +1,162 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Shortest path distances between every source and every target of a batch.
+ * <p>
+ * Without preprocessing each source runs one Dijkstra search that stops as soon
+ * as every target is settled. With a ContractionHierarchy the bucket algorithm
+ * is used instead: one backward upward search per target leaves (target,
+ * distance) entries in the buckets of the vertices it settles, and one forward
+ * upward search per source scans the buckets of the vertices it settles.
+ * Unreachable pairs are reported as positive infinity.
+ */
+public class DistanceMatrix {
+    /**
+     * Compute the matrix with one pruned Dijkstra search per source
+     *
+     * @param graph   The graph to search
+     * @param sources The source vertex ids
+     * @param targets The target vertex ids
+     * @return matrix[i][j] is the distance from sources[i] to targets[j]
+     */
+    public static double[][] oneToMany(CsrGraph graph, int[] sources, int[] targets) {
+        int numVertices = graph.getNumVertices();
+        double[][] matrix = new double[sources.length][targets.length];
+        boolean[] isTarget = new boolean[numVertices];
+        int distinctTargets = 0;
+        for (int target : targets) {
+            if (!isTarget[target]) {
+                isTarget[target] = true;
+                distinctTargets++;
+            }
+        }
+
+        for (int i = 0; i < sources.length; i++) {
+            SearchContext context = SearchContext.get(numVertices);
+            IndexedDaryHeap pq = context.getHeap();
+            int remaining = distinctTargets;
+            context.update(sources[i], 0, sources[i]);
+            pq.push(sources[i], 0);
+            while (!pq.isEmpty() && (remaining > 0)) {
+                int curr = pq.poll();
+                context.settle(curr);
+                if (isTarget[curr]) {
+                    remaining--;
+                }
+                double currDistance = context.getDistance(curr);
+                for (int edge = graph.firstEdge(curr); edge < graph.endEdge(curr); edge++) {
+                    int next = graph.getTarget(edge);
+                    double nextDistance = currDistance + graph.getLength(edge);
+                    if (nextDistance < context.getDistance(next)) {
+                        context.update(next, nextDistance, curr);
+                        pq.push(next, nextDistance);
+                    }
+                }
+            }
+            for (int j = 0; j < targets.length; j++) {
+                matrix[i][j] = context.isSettled(targets[j]) ? context.getDistance(targets[j])
+                        : Double.POSITIVE_INFINITY;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Compute the matrix with the bucket algorithm on a contraction hierarchy
+     *
+     * @param hierarchy The hierarchy of the graph to search
+     * @param sources   The source vertex ids
+     * @param targets   The target vertex ids
+     * @return matrix[i][j] is the distance from sources[i] to targets[j]
+     */
+    public static double[][] manyToMany(ContractionHierarchy hierarchy, int[] sources, int[] targets) {
+        int numVertices = hierarchy.getGraph().getNumVertices();
+        double[][] matrix = new double[sources.length][targets.length];
+        for (double[] row : matrix) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+
+        // Fill the buckets from the backward search spaces of the targets
+        IntList bucketVertices = new IntList();
+        IntList bucketTargets = new IntList();
+        double[] bucketDistances = new double[16];
+        SearchContext context = SearchContext.get(numVertices);
+        IntList settled = new IntList();
+        for (int j = 0; j < targets.length; j++) {
+            upwardSearch(hierarchy, targets[j], false, context, settled);
+            for (int k = 0; k < settled.size(); k++) {
+                int v = settled.get(k);
+                if (bucketVertices.size() == bucketDistances.length) {
+                    bucketDistances = Arrays.copyOf(bucketDistances, bucketDistances.length * 2);
+                }
+                bucketDistances[bucketVertices.size()] = context.getDistance(v);
+                bucketVertices.add(v);
+                bucketTargets.add(j);
+            }
+        }
+        int[] offsets = new int[numVertices + 1];
+        for (int k = 0; k < bucketVertices.size(); k++) {
+            offsets[bucketVertices.get(k) + 1]++;
+        }
+        for (int v = 0; v < numVertices; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] entryTargets = new int[bucketVertices.size()];
+        double[] entryDistances = new double[bucketVertices.size()];
+        int[] fill = Arrays.copyOf(offsets, numVertices);
+        for (int k = 0; k < bucketVertices.size(); k++) {
+            int slot = fill[bucketVertices.get(k)]++;
+            entryTargets[slot] = bucketTargets.get(k);
+            entryDistances[slot] = bucketDistances[k];
+        }
+
+        // Scan the buckets from the forward search spaces of the sources
+        for (int i = 0; i < sources.length; i++) {
+            upwardSearch(hierarchy, sources[i], true, context, settled);
+            double[] row = matrix[i];
+            for (int k = 0; k < settled.size(); k++) {
+                int v = settled.get(k);
+                double d = context.getDistance(v);
+                for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+                    double through = d + entryDistances[slot];
+                    if (through < row[entryTargets[slot]]) {
+                        row[entryTargets[slot]] = through;
+                    }
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Settle the whole upward search space of a vertex
+     *
+     * @param forward Whether to follow upward edges, or downward edges in reverse
+     * @param settled Receives the settled vertices
+     */
+    private static void upwardSearch(ContractionHierarchy hierarchy, int source, boolean forward,
+                                     SearchContext context, IntList settled) {
+        context.reset(hierarchy.getGraph().getNumVertices());
+        settled.clear();
+        IndexedDaryHeap pq = context.getHeap();
+        context.update(source, 0, source);
+        pq.push(source, 0);
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            settled.add(curr);
+            double currDistance = context.getDistance(curr);
+            int end = forward ? hierarchy.endUpEdge(curr) : hierarchy.endDownEdge(curr);
+            for (int edge = forward ? hierarchy.firstUpEdge(curr) : hierarchy.firstDownEdge(curr); edge < end; edge++) {
+                int next = forward ? hierarchy.getUpTarget(edge) : hierarchy.getDownSource(edge);
+                double weight = forward ? hierarchy.getUpWeight(edge) : hierarchy.getDownWeight(edge);
+                if (currDistance + weight < context.getDistance(next)) {
+                    context.update(next, currDistance + weight, curr);
+                    pq.push(next, currDistance + weight);
+                }
+            }
+        }
+    }
+}
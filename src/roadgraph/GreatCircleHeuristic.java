@@ -0,0 +1,12 @@
+package roadgraph;
+
+/**
+ * The great circle distance between two intersections. Every road is at least
+ * as long as the straight line between its ends, so this never overestimates.
+ */
+public class GreatCircleHeuristic implements Heuristic {
+    @Override
+    public double lowerBound(CsrGraph graph, int from, int to) {
+        return graph.getLocation(from).distance(graph.getLocation(to));
+    }
+}
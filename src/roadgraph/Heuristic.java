@@ -0,0 +1,16 @@
+package roadgraph;
+
+/**
+ * A lower bound on shortest path distances, used to guide A* style searches.
+ * Implementations must never overestimate and should be consistent, that is
+ * lowerBound(u, t) &lt;= length(u, v) + lowerBound(v, t) for every edge u -> v.
+ */
+public interface Heuristic {
+    /**
+     * @param graph The graph being searched
+     * @param from  The id of the first vertex
+     * @param to    The id of the second vertex
+     * @return a lower bound on the distance from the first vertex to the second
+     */
+    double lowerBound(CsrGraph graph, int from, int to);
+}
@@ -0,0 +1,127 @@
+package roadgraph;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import util.GraphLoader;
+
+/**
+ * Checks that the A* heuristics never overestimate on the shipped maps and
+ * compares their speed.
+ * <p>
+ * For a sample of goals every vertex is checked against its exact distance
+ * to the goal from a reverse Dijkstra search (admissibility), and every edge
+ * against h(u) &lt;= length(u, v) + h(v) (consistency). Then the cost of one
+ * lowerBound call and of whole A* queries is timed for each heuristic.
+ * <p>
+ * Usage: java roadgraph.HeuristicBenchmark [map files...], by default every
+ * .map file in data/maps
+ */
+public class HeuristicBenchmark {
+    private static final int GOALS = 20;
+    private static final int QUERIES = 2000;
+    // Allowed overestimate, for the rounding of lengths in the map files
+    private static final double TOLERANCE_KM = 1e-9;
+
+    // Keeps the timed calls from being optimized away
+    static volatile double sink;
+
+    public static void main(String[] args) {
+        String[] files = args;
+        if (files.length == 0) {
+            File[] maps = new File("data/maps").listFiles((dir, name) -> name.endsWith(".map"));
+            if (maps == null) {
+                System.err.println("No maps found in data/maps");
+                return;
+            }
+            Arrays.sort(maps);
+            files = new String[maps.length];
+            for (int i = 0; i < maps.length; i++) {
+                files[i] = maps[i].getPath();
+            }
+        }
+        Heuristic[] heuristics = {new GreatCircleHeuristic(), new ChordHeuristic()};
+        boolean allValid = true;
+        for (String file : files) {
+            MapGraph map = new MapGraph();
+            GraphLoader.loadRoadMap(file, map);
+            CsrGraph graph = map.compile();
+            System.out.println(file + ": " + graph.getNumVertices() + " vertices, " + graph.getNumEdges()
+                    + " edges");
+            if (graph.getNumVertices() == 0) {
+                continue;
+            }
+            for (Heuristic heuristic : heuristics) {
+                int[] violations = check(graph, heuristic);
+                allValid &= (violations[0] == 0) && (violations[1] == 0);
+                System.out.printf("  %-20s inadmissible %d, inconsistent %d, %.1f ns/call, %.3f ms/query%n",
+                        heuristic.getClass().getSimpleName(), violations[0], violations[1],
+                        nanosPerCall(graph, heuristic), millisPerQuery(graph, heuristic));
+            }
+        }
+        System.out.println(allValid ? "All heuristics admissible and consistent"
+                : "FAILED: a heuristic overestimates");
+    }
+
+    /**
+     * @return the number of vertices the heuristic overestimates the distance
+     * to a goal for, and the number of edges it is inconsistent on
+     */
+    private static int[] check(CsrGraph graph, Heuristic heuristic) {
+        Random random = new Random(42);
+        int inadmissible = 0;
+        int inconsistent = 0;
+        for (int g = 0; g < GOALS; g++) {
+            int goal = random.nextInt(graph.getNumVertices());
+            ShortestPathTree toGoal = ShortestPathTree.grow(graph, goal, Double.POSITIVE_INFINITY, true);
+            for (int i = 0; i < toGoal.size(); i++) {
+                int v = toGoal.getVertex(i);
+                if (heuristic.lowerBound(graph, v, goal) > toGoal.getDistance(v) + TOLERANCE_KM) {
+                    inadmissible++;
+                }
+            }
+            for (int edge = 0; edge < graph.getNumEdges(); edge++) {
+                double from = heuristic.lowerBound(graph, graph.getSource(edge), goal);
+                double to = heuristic.lowerBound(graph, graph.getTarget(edge), goal);
+                if (from > graph.getLength(edge) + to + TOLERANCE_KM) {
+                    inconsistent++;
+                }
+            }
+        }
+        return new int[]{inadmissible, inconsistent};
+    }
+
+    private static double nanosPerCall(CsrGraph graph, Heuristic heuristic) {
+        int n = graph.getNumVertices();
+        int calls = 2_000_000;
+        long elapsed = 0;
+        // The first round warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            double sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                sum += heuristic.lowerBound(graph, (i * 31) % n, (i * 17 + 5) % n);
+            }
+            elapsed = System.nanoTime() - start;
+            sink += sum;
+        }
+        return elapsed / (double) calls;
+    }
+
+    private static double millisPerQuery(CsrGraph graph, Heuristic heuristic) {
+        AStarSearch search = new AStarSearch(heuristic);
+        Random random = new Random(7);
+        int n = graph.getNumVertices();
+        long elapsed = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                search.getPath(graph, random.nextInt(n), random.nextInt(n), (v) -> {
+                });
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        return elapsed / 1e6 / QUERIES;
+    }
+}
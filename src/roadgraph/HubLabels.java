@@ -0,0 +1,450 @@
+package roadgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A 2-hop distance oracle (hub labeling) derived from a ContractionHierarchy.
+ * <p>
+ * Every vertex v has a forward label of (hub, d(v, hub)) pairs and a backward
+ * label of (hub, d(hub, v)) pairs, both sorted by hub id. For any two vertices
+ * the labels share a hub on a shortest path, so d(s, t) is the minimum of
+ * forward(s) + backward(t) over the common hubs, found by a merge join.
+ * <p>
+ * Labels are built top-down in rank order: the label of v merges the labels of
+ * its upward neighbours, then drops every entry the labels built so far already
+ * beat, which leaves only exact distances. Each entry also stores the next
+ * vertex towards its hub, so a path can be recovered when the hierarchy is
+ * available.
+ * <p>
+ * The labels live in Int/DoubleBuffers which are either plain heap arrays or a
+ * read-only memory-mapped file written by {@link #save(File)}, so several JVMs
+ * on one machine can share one copy through the page cache.
+ */
+public class HubLabels implements SearchPath {
+    private static final int MAGIC = 0x48554C42;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private final long fingerprint;
+    private final int numVertices;
+    private final Side forward;
+    private final Side backward;
+    private ContractionHierarchy hierarchy;
+
+    private HubLabels(long fingerprint, int numVertices, Side forward, Side backward,
+                      ContractionHierarchy hierarchy) {
+        this.fingerprint = fingerprint;
+        this.numVertices = numVertices;
+        this.forward = forward;
+        this.backward = backward;
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * Compute the labels of every vertex of a contraction hierarchy
+     *
+     * @param hierarchy The hierarchy to derive the labels from
+     * @return The labels, able to unpack paths through the hierarchy
+     */
+    public static HubLabels build(ContractionHierarchy hierarchy) {
+        CsrGraph graph = hierarchy.getGraph();
+        int numVertices = graph.getNumVertices();
+        int[] byRank = new int[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            byRank[hierarchy.getRank(v)] = v;
+        }
+
+        Label[] forwardLabels = new Label[numVertices];
+        Label[] backwardLabels = new Label[numVertices];
+        Scratch scratch = new Scratch(numVertices);
+        for (int r = numVertices - 1; r >= 0; r--) {
+            int v = byRank[r];
+            scratch.begin(v);
+            for (int edge = hierarchy.firstUpEdge(v); edge < hierarchy.endUpEdge(v); edge++) {
+                int w = hierarchy.getUpTarget(edge);
+                scratch.merge(forwardLabels[w], hierarchy.getUpWeight(edge), w);
+            }
+            Label candidate = scratch.toLabel();
+            forwardLabels[v] = candidate.prune(v, backwardLabels, true);
+
+            scratch.begin(v);
+            for (int edge = hierarchy.firstDownEdge(v); edge < hierarchy.endDownEdge(v); edge++) {
+                int w = hierarchy.getDownSource(edge);
+                scratch.merge(backwardLabels[w], hierarchy.getDownWeight(edge), w);
+            }
+            candidate = scratch.toLabel();
+            backwardLabels[v] = candidate.prune(v, forwardLabels, false);
+        }
+        return new HubLabels(graph.fingerprint(), numVertices, Side.of(forwardLabels), Side.of(backwardLabels),
+                hierarchy);
+    }
+
+    /**
+     * Memory-map labels written by {@link #save(File)}
+     *
+     * @param file  The label file
+     * @param graph The graph the labels must belong to
+     * @return The labels, without a hierarchy for path unpacking
+     * @throws IOException If the file cannot be read or was built for another graph
+     */
+    public static HubLabels map(File file, CsrGraph graph) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+                throw new IOException("Not a hub label file: " + file);
+            }
+            long fingerprint = buffer.getLong(8);
+            int numVertices = buffer.getInt(16);
+            if ((fingerprint != graph.fingerprint()) || (numVertices != graph.getNumVertices())) {
+                throw new IOException("Hub label file " + file + " belongs to a different graph");
+            }
+            int forwardEntries = buffer.getInt(20);
+            int backwardEntries = buffer.getInt(24);
+            int position = HEADER_BYTES;
+            Side forward = Side.map(buffer, position, numVertices, forwardEntries);
+            position += Side.bytes(numVertices, forwardEntries);
+            Side backward = Side.map(buffer, position, numVertices, backwardEntries);
+            return new HubLabels(fingerprint, numVertices, forward, backward, null);
+        }
+    }
+
+    /**
+     * Write the labels to a file that can be memory-mapped with
+     * {@link #map(File, CsrGraph)}
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        int forwardEntries = forward.hubs.limit();
+        int backwardEntries = backward.hubs.limit();
+        long size = HEADER_BYTES + Side.bytes(numVertices, forwardEntries) + Side.bytes(numVertices, backwardEntries);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(numVertices);
+            buffer.putInt(forwardEntries).putInt(backwardEntries).putInt(0);
+            forward.write(buffer);
+            backward.write(buffer);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Attach the hierarchy the labels were built from, enabling path unpacking
+     *
+     * @param hierarchy The hierarchy of the same graph
+     * @return these labels
+     */
+    public HubLabels withHierarchy(ContractionHierarchy hierarchy) {
+        if (hierarchy.getGraph().fingerprint() != fingerprint) {
+            throw new IllegalArgumentException("The hierarchy was built for a different graph");
+        }
+        this.hierarchy = hierarchy;
+        return this;
+    }
+
+    /**
+     * @return the shortest path distance from start to goal, or positive infinity
+     * if the goal cannot be reached
+     */
+    public double distance(int start, int goal) {
+        return forward.query(start, backward, goal, false);
+    }
+
+    public int getLabelSize(int vertex) {
+        return forward.size(vertex) + backward.size(vertex);
+    }
+
+    public int getNumEntries() {
+        return forward.hubs.limit() + backward.hubs.limit();
+    }
+
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        if (hierarchy == null) {
+            throw new IllegalStateException("Path unpacking needs the contraction hierarchy, see withHierarchy");
+        }
+        if (graph != hierarchy.getGraph()) {
+            throw new IllegalArgumentException("The labels were built for a different graph");
+        }
+        int hub = (int) forward.query(start, backward, goal, true);
+        if (hub < 0) {
+            return new int[0];
+        }
+        IntList path = new IntList();
+        path.add(start);
+        for (int curr = start; curr != hub; ) {
+            int next = forward.next(curr, hub);
+            hierarchy.unpack(curr, next, path);
+            curr = next;
+        }
+        IntList down = new IntList();
+        for (int curr = goal; curr != hub; curr = backward.next(curr, hub)) {
+            down.add(curr);
+        }
+        int prev = hub;
+        for (int i = down.size() - 1; i >= 0; i--) {
+            hierarchy.unpack(prev, down.get(i), path);
+            prev = down.get(i);
+        }
+        return path.toArray();
+    }
+
+    /**
+     * One direction of the labels in CSR form: the entries of vertex v are
+     * offsets[v] .. offsets[v + 1] - 1, sorted by hub
+     */
+    private static class Side {
+        final IntBuffer offsets;
+        final IntBuffer hubs;
+        final IntBuffer nexts;
+        final DoubleBuffer distances;
+
+        Side(IntBuffer offsets, IntBuffer hubs, IntBuffer nexts, DoubleBuffer distances) {
+            this.offsets = offsets;
+            this.hubs = hubs;
+            this.nexts = nexts;
+            this.distances = distances;
+        }
+
+        static Side of(Label[] labels) {
+            int[] offsets = new int[labels.length + 1];
+            for (int v = 0; v < labels.length; v++) {
+                offsets[v + 1] = offsets[v] + labels[v].hubs.length;
+            }
+            int[] hubs = new int[offsets[labels.length]];
+            int[] nexts = new int[hubs.length];
+            double[] distances = new double[hubs.length];
+            for (int v = 0; v < labels.length; v++) {
+                System.arraycopy(labels[v].hubs, 0, hubs, offsets[v], labels[v].hubs.length);
+                System.arraycopy(labels[v].nexts, 0, nexts, offsets[v], labels[v].hubs.length);
+                System.arraycopy(labels[v].distances, 0, distances, offsets[v], labels[v].hubs.length);
+            }
+            return new Side(IntBuffer.wrap(offsets), IntBuffer.wrap(hubs), IntBuffer.wrap(nexts),
+                    DoubleBuffer.wrap(distances));
+        }
+
+        static long bytes(int numVertices, int entries) {
+            long ints = (long) (numVertices + 1) + 2L * entries;
+            // Pad so the distances start on an 8 byte boundary
+            return ((ints * 4 + 7) & ~7L) + 8L * entries;
+        }
+
+        static Side map(ByteBuffer buffer, int position, int numVertices, int entries) {
+            IntBuffer offsets = slice(buffer, position, (numVertices + 1) * 4).asIntBuffer();
+            position += (numVertices + 1) * 4;
+            IntBuffer hubs = slice(buffer, position, entries * 4).asIntBuffer();
+            position += entries * 4;
+            IntBuffer nexts = slice(buffer, position, entries * 4).asIntBuffer();
+            position += entries * 4;
+            position = (position + 7) & ~7;
+            DoubleBuffer distances = slice(buffer, position, entries * 8).asDoubleBuffer();
+            return new Side(offsets, hubs, nexts, distances);
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(position).limit(position + length);
+            return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void write(ByteBuffer buffer) {
+            for (int i = 0; i < offsets.limit(); i++) {
+                buffer.putInt(offsets.get(i));
+            }
+            for (int i = 0; i < hubs.limit(); i++) {
+                buffer.putInt(hubs.get(i));
+            }
+            for (int i = 0; i < nexts.limit(); i++) {
+                buffer.putInt(nexts.get(i));
+            }
+            while ((buffer.position() & 7) != 0) {
+                buffer.put((byte) 0);
+            }
+            for (int i = 0; i < distances.limit(); i++) {
+                buffer.putDouble(distances.get(i));
+            }
+        }
+
+        int size(int vertex) {
+            return offsets.get(vertex + 1) - offsets.get(vertex);
+        }
+
+        /**
+         * Merge join this side's label of a vertex with the other side's label
+         *
+         * @param hubOnly Whether to return the best hub instead of the distance
+         * @return the best distance, or the hub it was found at (-1 if none)
+         */
+        double query(int vertex, Side other, int otherVertex, boolean hubOnly) {
+            int i = offsets.get(vertex);
+            int iEnd = offsets.get(vertex + 1);
+            int j = other.offsets.get(otherVertex);
+            int jEnd = other.offsets.get(otherVertex + 1);
+            double best = Double.POSITIVE_INFINITY;
+            int bestHub = -1;
+            while ((i < iEnd) && (j < jEnd)) {
+                int hub = hubs.get(i);
+                int otherHub = other.hubs.get(j);
+                if (hub == otherHub) {
+                    double d = distances.get(i) + other.distances.get(j);
+                    if (d < best) {
+                        best = d;
+                        bestHub = hub;
+                    }
+                    i++;
+                    j++;
+                } else if (hub < otherHub) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return hubOnly ? bestHub : best;
+        }
+
+        int next(int vertex, int hub) {
+            int low = offsets.get(vertex);
+            int high = offsets.get(vertex + 1) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int midHub = hubs.get(mid);
+                if (midHub < hub) {
+                    low = mid + 1;
+                } else if (midHub > hub) {
+                    high = mid - 1;
+                } else {
+                    return nexts.get(mid);
+                }
+            }
+            throw new IllegalStateException("Hub " + hub + " is not in the label of " + vertex);
+        }
+    }
+
+    /**
+     * The label of one vertex while the labels are being built
+     */
+    private static class Label {
+        final int[] hubs;
+        final int[] nexts;
+        final double[] distances;
+
+        Label(int[] hubs, int[] nexts, double[] distances) {
+            this.hubs = hubs;
+            this.nexts = nexts;
+            this.distances = distances;
+        }
+
+        /**
+         * Drop the entries whose distance the finished labels can already beat
+         *
+         * @param forward Whether this is a forward label, checked against the
+         *                backward labels of its hubs, or the other way round
+         */
+        Label prune(int vertex, Label[] otherLabels, boolean forward) {
+            int kept = 0;
+            boolean[] keep = new boolean[hubs.length];
+            for (int i = 0; i < hubs.length; i++) {
+                int hub = hubs[i];
+                keep[i] = (hub == vertex)
+                        || (forward ? join(this, otherLabels[hub]) : join(otherLabels[hub], this)) >= distances[i];
+                if (keep[i]) {
+                    kept++;
+                }
+            }
+            if (kept == hubs.length) {
+                return this;
+            }
+            Label result = new Label(new int[kept], new int[kept], new double[kept]);
+            int k = 0;
+            for (int i = 0; i < hubs.length; i++) {
+                if (keep[i]) {
+                    result.hubs[k] = hubs[i];
+                    result.nexts[k] = nexts[i];
+                    result.distances[k] = distances[i];
+                    k++;
+                }
+            }
+            return result;
+        }
+
+        static double join(Label forward, Label backward) {
+            int i = 0;
+            int j = 0;
+            double best = Double.POSITIVE_INFINITY;
+            while ((i < forward.hubs.length) && (j < backward.hubs.length)) {
+                if (forward.hubs[i] == backward.hubs[j]) {
+                    best = Math.min(best, forward.distances[i] + backward.distances[j]);
+                    i++;
+                    j++;
+                } else if (forward.hubs[i] < backward.hubs[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Dense scratch space to merge the labels of a vertex's upward neighbours
+     */
+    private static class Scratch {
+        final double[] distance;
+        final int[] next;
+        final IntList touched = new IntList();
+
+        Scratch(int numVertices) {
+            distance = new double[numVertices];
+            next = new int[numVertices];
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        }
+
+        void begin(int vertex) {
+            touched.clear();
+            touched.add(vertex);
+            distance[vertex] = 0;
+            next[vertex] = vertex;
+        }
+
+        void merge(Label label, double weight, int via) {
+            for (int i = 0; i < label.hubs.length; i++) {
+                int hub = label.hubs[i];
+                double d = label.distances[i] + weight;
+                if (distance[hub] == Double.POSITIVE_INFINITY) {
+                    touched.add(hub);
+                }
+                if (d < distance[hub]) {
+                    distance[hub] = d;
+                    next[hub] = via;
+                }
+            }
+        }
+
+        Label toLabel() {
+            int[] hubs = touched.toArray();
+            Arrays.sort(hubs);
+            Label label = new Label(hubs, new int[hubs.length], new double[hubs.length]);
+            for (int i = 0; i < hubs.length; i++) {
+                label.nexts[i] = next[hubs[i]];
+                label.distances[i] = distance[hubs[i]];
+                distance[hubs[i]] = Double.POSITIVE_INFINITY;
+            }
+            return label;
+        }
+    }
+}
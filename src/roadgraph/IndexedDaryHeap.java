@@ -0,0 +1,206 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An indexed 4-ary min-heap of int ids with double keys.
+ * <p>
+ * Every id in 0..capacity-1 can be in the heap at most once. The position of
+ * each id is tracked so its key can be decreased (or changed) in place instead
+ * of pushing a duplicate entry. Nothing is boxed and nothing is allocated after
+ * construction.
+ */
+public class IndexedDaryHeap {
+    private static final int ARITY = 4;
+    private static final int LOG_ARITY = 2;
+
+    private int[] heap;
+    private double[] keys;
+    private int[] position;
+    private int size;
+
+    /**
+     * Create an empty heap for ids 0..capacity-1
+     *
+     * @param capacity The number of distinct ids the heap can hold
+     */
+    public IndexedDaryHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return position.length;
+    }
+
+    public boolean contains(int id) {
+        return position[id] >= 0;
+    }
+
+    /**
+     * @return The current key of an id in the heap
+     */
+    public double getKey(int id) {
+        return keys[position[id]];
+    }
+
+    /**
+     * Add an id to the heap, or lower its key if it is already there
+     *
+     * @param id  The id to add
+     * @param key The key of the id
+     */
+    public void push(int id, double key) {
+        int pos = position[id];
+        if (pos < 0) {
+            pos = size++;
+            heap[pos] = id;
+            position[id] = pos;
+            keys[pos] = key;
+            siftUp(pos);
+        } else if (key < keys[pos]) {
+            keys[pos] = key;
+            siftUp(pos);
+        }
+    }
+
+    /**
+     * Change the key of an id in the heap in either direction, adding the id if
+     * it is not in the heap yet
+     *
+     * @param id  The id to update
+     * @param key The new key of the id
+     */
+    public void update(int id, double key) {
+        int pos = position[id];
+        if ((pos < 0) || (key < keys[pos])) {
+            push(id, key);
+        } else {
+            keys[pos] = key;
+            siftDown(pos);
+        }
+    }
+
+    /**
+     * @return The id with the smallest key
+     */
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return heap[0];
+    }
+
+    /**
+     * @return The smallest key in the heap
+     */
+    public double peekKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    /**
+     * Remove the id with the smallest key
+     *
+     * @return The removed id
+     */
+    public int poll() {
+        int top = peek();
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Remove every id from the heap. This only touches the ids that are still in
+     * the heap, not the whole capacity.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Grow the heap so it can hold ids 0..capacity-1
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > position.length) {
+            int oldCapacity = position.length;
+            heap = Arrays.copyOf(heap, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            position = Arrays.copyOf(position, capacity);
+            Arrays.fill(position, oldCapacity, capacity, -1);
+        }
+    }
+
+    private void siftUp(int pos) {
+        int id = heap[pos];
+        double key = keys[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> LOG_ARITY;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, pos);
+            pos = parent;
+        }
+        place(id, key, pos);
+    }
+
+    private void siftDown(int pos) {
+        int id = heap[pos];
+        double key = keys[pos];
+        while (true) {
+            int firstChild = (pos << LOG_ARITY) + 1;
+            if (firstChild >= size) {
+                break;
+            }
+            int lastChild = Math.min(firstChild + ARITY, size);
+            int best = firstChild;
+            for (int child = firstChild + 1; child < lastChild; child++) {
+                if (keys[child] < keys[best]) {
+                    best = child;
+                }
+            }
+            if (keys[best] >= key) {
+                break;
+            }
+            move(best, pos);
+            pos = best;
+        }
+        place(id, key, pos);
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        keys[to] = keys[from];
+        position[heap[to]] = to;
+    }
+
+    private void place(int id, double key, int pos) {
+        heap[pos] = id;
+        keys[pos] = key;
+        position[id] = pos;
+    }
+}
@@ -0,0 +1,393 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything that can be reached from an origin within a distance budget:
+ * the intersections, found with a bounded Dijkstra search, and the partial
+ * edges that leave a reached intersection but end beyond the budget.
+ * <p>
+ * The area can be outlined as a convex hull or, tighter, as a concave hull
+ * built with the k-nearest neighbours algorithm of Moreira and Santos. Hulls
+ * are computed in a local equirectangular projection around the origin.
+ * Instances are immutable and safe to share between threads.
+ */
+public class Isochrone {
+    private static final int MAX_EXTRA_NEIGHBOURS = 24;
+
+    private final CsrGraph graph;
+    private final ShortestPathTree tree;
+    private final List<PartialEdge> partialEdges;
+
+    /**
+     * An edge that leaves a reached intersection but only part of which is
+     * within the budget
+     */
+    public static class PartialEdge {
+        private final int edge;
+        private final GeographicPoint start;
+        private final GeographicPoint end;
+        private final double fraction;
+        private final GeographicPoint reachedPoint;
+
+        PartialEdge(int edge, GeographicPoint start, GeographicPoint end, double fraction) {
+            this.edge = edge;
+            this.start = start;
+            this.end = end;
+            this.fraction = fraction;
+            this.reachedPoint = new GeographicPoint(start.getX() + fraction * (end.getX() - start.getX()),
+                    start.getY() + fraction * (end.getY() - start.getY()));
+        }
+
+        public int getEdge() {
+            return edge;
+        }
+
+        public GeographicPoint getStart() {
+            return start;
+        }
+
+        public GeographicPoint getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the part of the edge's length that is within the budget, from
+         * 0 to 1
+         */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /**
+         * @return the farthest point of the edge within the budget, on the
+         * straight line between its ends
+         */
+        public GeographicPoint getReachedPoint() {
+            return reachedPoint;
+        }
+    }
+
+    /**
+     * Find everything within the budget of an origin
+     *
+     * @param graph       The graph to search
+     * @param origin      The vertex id to start at
+     * @param maxDistance The budget in km
+     */
+    public Isochrone(CsrGraph graph, int origin, double maxDistance) {
+        this.graph = graph;
+        tree = ShortestPathTree.grow(graph, origin, maxDistance, false);
+        List<PartialEdge> partial = new ArrayList<>();
+        for (int i = 0; i < tree.size(); i++) {
+            int vertex = tree.getVertex(i);
+            double remaining = maxDistance - tree.getDistance(vertex);
+            for (int edge = graph.firstEdge(vertex); edge < graph.endEdge(vertex); edge++) {
+                if ((graph.getLength(edge) > remaining) && !graph.isClosed(edge)) {
+                    partial.add(new PartialEdge(edge, graph.getLocation(vertex),
+                            graph.getLocation(graph.getTarget(edge)), remaining / graph.getLength(edge)));
+                }
+            }
+        }
+        partialEdges = Collections.unmodifiableList(partial);
+    }
+
+    public GeographicPoint getOrigin() {
+        return graph.getLocation(tree.getSource());
+    }
+
+    public double getMaxDistance() {
+        return tree.getMaxDistance();
+    }
+
+    /**
+     * @return the shortest path tree of the reached intersections
+     */
+    public ShortestPathTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the reached intersections, closest first
+     */
+    public List<GeographicPoint> getVertices() {
+        List<GeographicPoint> result = new ArrayList<>(tree.size());
+        for (int i = 0; i < tree.size(); i++) {
+            result.add(graph.getLocation(tree.getVertex(i)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the distance in km from the origin to an intersection, or
+     * positive infinity if it is not within the budget
+     */
+    public double getDistance(GeographicPoint location) {
+        int vertex = graph.getId(location);
+        return vertex < 0 ? Double.POSITIVE_INFINITY : tree.getDistance(vertex);
+    }
+
+    public List<PartialEdge> getPartialEdges() {
+        return partialEdges;
+    }
+
+    /**
+     * Outline the reached intersections and partial edges with their convex
+     * hull
+     *
+     * @return the corners of the hull in counterclockwise order
+     */
+    public List<GeographicPoint> convexHull() {
+        Outline outline = new Outline();
+        return outline.toLocations(outline.convexHull());
+    }
+
+    /**
+     * Outline the reached intersections and partial edges with a concave hull.
+     * Each corner of the hull is chosen among the k nearest points of the
+     * previous one, so a smaller k follows the area more closely. If no valid
+     * hull is found for k or somewhat larger values, the convex hull is used.
+     *
+     * @param k The number of neighbours to consider, at least 3
+     * @return the corners of the hull in counterclockwise order
+     */
+    public List<GeographicPoint> concaveHull(int k) {
+        Outline outline = new Outline();
+        int n = outline.size();
+        for (int neighbours = Math.max(3, k); (neighbours < n) && (neighbours <= k + MAX_EXTRA_NEIGHBOURS);
+             neighbours++) {
+            int[] hull = outline.concaveHull(neighbours);
+            if (hull != null) {
+                return outline.toLocations(hull);
+            }
+        }
+        return outline.toLocations(outline.convexHull());
+    }
+
+    /**
+     * The distinct points of the area projected onto a plane around the
+     * origin
+     */
+    private class Outline {
+        final double[] x;
+        final double[] y;
+        final GeographicPoint[] locations;
+
+        Outline() {
+            List<GeographicPoint> points = getVertices();
+            for (PartialEdge partial : partialEdges) {
+                points.add(partial.getReachedPoint());
+            }
+            GeographicPoint origin = getOrigin();
+            double scale = Math.cos(Math.toRadians(origin.getX()));
+            // Sort so duplicates are adjacent
+            points.sort((a, b) -> (a.getX() != b.getX()) ? Double.compare(a.getX(), b.getX())
+                    : Double.compare(a.getY(), b.getY()));
+            List<GeographicPoint> distinct = new ArrayList<>(points.size());
+            for (GeographicPoint point : points) {
+                if (distinct.isEmpty() || !distinct.get(distinct.size() - 1).equals(point)) {
+                    distinct.add(point);
+                }
+            }
+            locations = distinct.toArray(new GeographicPoint[0]);
+            x = new double[locations.length];
+            y = new double[locations.length];
+            for (int i = 0; i < locations.length; i++) {
+                x[i] = (locations[i].getY() - origin.getY()) * scale;
+                y[i] = locations[i].getX() - origin.getX();
+            }
+        }
+
+        int size() {
+            return locations.length;
+        }
+
+        List<GeographicPoint> toLocations(int[] hull) {
+            List<GeographicPoint> result = new ArrayList<>(hull.length);
+            for (int i : hull) {
+                result.add(locations[i]);
+            }
+            return result;
+        }
+
+        private double cross(int o, int a, int b) {
+            return (x[a] - x[o]) * (y[b] - y[o]) - (y[a] - y[o]) * (x[b] - x[o]);
+        }
+
+        // Andrew's monotone chain
+        int[] convexHull() {
+            int n = locations.length;
+            if (n < 3) {
+                int[] all = new int[n];
+                Arrays.setAll(all, i -> i);
+                return all;
+            }
+            Integer[] order = new Integer[n];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, (a, b) -> (x[a] != x[b]) ? Double.compare(x[a], x[b]) : Double.compare(y[a], y[b]));
+            int[] hull = new int[2 * n];
+            int size = 0;
+            for (int i = 0; i < n; i++) {
+                while ((size >= 2) && (cross(hull[size - 2], hull[size - 1], order[i]) <= 0)) {
+                    size--;
+                }
+                hull[size++] = order[i];
+            }
+            for (int i = n - 2, lower = size + 1; i >= 0; i--) {
+                while ((size >= lower) && (cross(hull[size - 2], hull[size - 1], order[i]) <= 0)) {
+                    size--;
+                }
+                hull[size++] = order[i];
+            }
+            return Arrays.copyOf(hull, size - 1);
+        }
+
+        /**
+         * Walk around the points counterclockwise, always turning as far right
+         * as possible towards one of the k nearest unused points without
+         * crossing the hull so far
+         *
+         * @return the hull, or null if the walk got stuck or left points outside
+         */
+        int[] concaveHull(int k) {
+            int n = locations.length;
+            if (n <= 3) {
+                return convexHull();
+            }
+            int first = 0;
+            for (int i = 1; i < n; i++) {
+                if ((y[i] < y[first]) || ((y[i] == y[first]) && (x[i] < x[first]))) {
+                    first = i;
+                }
+            }
+            boolean[] used = new boolean[n];
+            IntList hull = new IntList();
+            hull.add(first);
+            used[first] = true;
+            int current = first;
+            // The direction back along the previous hull edge; at the lowest
+            // point the hull is entered from the west
+            double backAngle = Math.PI;
+            while (true) {
+                if (hull.size() == 4) {
+                    // Allow the walk to close once the hull has some area
+                    used[first] = false;
+                }
+                int[] candidates = nearest(current, k, used);
+                if (candidates.length == 0) {
+                    return null;
+                }
+                double[] turn = new double[candidates.length];
+                for (int c = 0; c < candidates.length; c++) {
+                    double angle = Math.atan2(y[candidates[c]] - y[current], x[candidates[c]] - x[current]);
+                    double t = backAngle - angle;
+                    while (t <= 0) {
+                        t += 2 * Math.PI;
+                    }
+                    while (t > 2 * Math.PI) {
+                        t -= 2 * Math.PI;
+                    }
+                    turn[c] = t;
+                }
+                Integer[] order = new Integer[candidates.length];
+                Arrays.setAll(order, i -> i);
+                Arrays.sort(order, (a, b) -> Double.compare(turn[b], turn[a]));
+
+                int next = -1;
+                for (int c : order) {
+                    int candidate = candidates[c];
+                    if (!crossesHull(hull, current, candidate, candidate == first)) {
+                        next = candidate;
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    return null;
+                }
+                if (next == first) {
+                    break;
+                }
+                hull.add(next);
+                used[next] = true;
+                backAngle = Math.atan2(y[current] - y[next], x[current] - x[next]);
+                current = next;
+            }
+
+            int[] result = hull.toArray();
+            for (int i = 0; i < n; i++) {
+                if (!used[i] && (i != first) && !inside(result, i)) {
+                    return null;
+                }
+            }
+            return result;
+        }
+
+        // The k unused points nearest to a point, kept sorted by insertion
+        private int[] nearest(int from, int k, boolean[] used) {
+            int[] best = new int[k];
+            double[] bestDistance = new double[k];
+            int count = 0;
+            for (int i = 0; i < locations.length; i++) {
+                if (used[i] || (i == from)) {
+                    continue;
+                }
+                double d = (x[i] - x[from]) * (x[i] - x[from]) + (y[i] - y[from]) * (y[i] - y[from]);
+                if ((count == k) && (d >= bestDistance[k - 1])) {
+                    continue;
+                }
+                int slot = (count < k) ? count++ : k - 1;
+                while ((slot > 0) && (bestDistance[slot - 1] > d)) {
+                    best[slot] = best[slot - 1];
+                    bestDistance[slot] = bestDistance[slot - 1];
+                    slot--;
+                }
+                best[slot] = i;
+                bestDistance[slot] = d;
+            }
+            return Arrays.copyOf(best, count);
+        }
+
+        // Whether the segment from the last hull point to a candidate crosses an
+        // earlier hull edge. When closing, the first edge shares the candidate.
+        private boolean crossesHull(IntList hull, int from, int to, boolean closing) {
+            for (int i = closing ? 1 : 0; i + 2 < hull.size(); i++) {
+                if (properlyIntersect(hull.get(i), hull.get(i + 1), from, to)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean properlyIntersect(int a, int b, int c, int d) {
+            double d1 = cross(c, d, a);
+            double d2 = cross(c, d, b);
+            double d3 = cross(a, b, c);
+            double d4 = cross(a, b, d);
+            return (((d1 > 0) && (d2 < 0)) || ((d1 < 0) && (d2 > 0)))
+                    && (((d3 > 0) && (d4 < 0)) || ((d3 < 0) && (d4 > 0)));
+        }
+
+        // Ray casting, counting points on the boundary as inside
+        private boolean inside(int[] polygon, int p) {
+            boolean in = false;
+            for (int i = 0, j = polygon.length - 1; i < polygon.length; j = i++) {
+                int a = polygon[i];
+                int b = polygon[j];
+                if ((cross(a, b, p) == 0) && (Math.min(x[a], x[b]) <= x[p]) && (x[p] <= Math.max(x[a], x[b]))
+                        && (Math.min(y[a], y[b]) <= y[p]) && (y[p] <= Math.max(y[a], y[b]))) {
+                    return true;
+                }
+                if (((y[a] > y[p]) != (y[b] > y[p]))
+                        && (x[p] < (x[b] - x[a]) * (y[p] - y[a]) / (y[b] - y[a]) + x[a])) {
+                    in = !in;
+                }
+            }
+            return in;
+        }
+    }
+}
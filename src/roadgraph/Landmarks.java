@@ -0,0 +1,355 @@
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The ALT heuristic (A*, landmarks and the triangle inequality).
+ * <p>
+ * A few landmark vertices L are chosen and the exact distances d(L, v) and
+ * d(v, L) to and from every vertex are precomputed. By the triangle inequality
+ * d(u, t) &gt;= d(L, t) - d(L, u) and d(u, t) &gt;= d(u, L) - d(t, L), and the
+ * largest of these bounds over all landmarks is used as the heuristic. On road
+ * networks it is much tighter than the great circle distance.
+ * <p>
+ * The tables are stored as floats, interleaved per vertex so a lookup touches
+ * one cache line, and every bound is lowered by one float ulp to stay
+ * admissible. The tables describe the graph they were computed on and are
+ * only used with that graph: on another one, even a snapshot of the same
+ * roads with some lengths lowered, the bounds need not be admissible.
+ * Instances are immutable and safe to share between threads.
+ */
+public class Landmarks implements Heuristic {
+    public enum Strategy {
+        /** Repeatedly pick the vertex farthest from the landmarks chosen so far */
+        FARTHEST,
+        /** Pick the leaf of the shortest path tree whose subtree is covered worst */
+        AVOID
+    }
+
+    private static final int MAGIC = 0x4C4D4B53;
+    private static final int VERSION = 1;
+
+    private final CsrGraph graph;
+    private final int[] landmarks;
+    private final float[] fromLandmark;
+    private final float[] toLandmark;
+
+    private Landmarks(CsrGraph graph, int[] landmarks, float[] fromLandmark, float[] toLandmark) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    /**
+     * Choose landmarks and compute their distance tables
+     *
+     * @param graph    The graph to choose landmarks in
+     * @param count    The number of landmarks
+     * @param strategy How to choose them
+     * @return The landmarks
+     */
+    public static Landmarks select(CsrGraph graph, int count, Strategy strategy) {
+        int numVertices = graph.getNumVertices();
+        count = Math.min(count, numVertices);
+        Landmarks result = new Landmarks(graph, new int[count], new float[numVertices * count],
+                new float[numVertices * count]);
+        SearchContext context = new SearchContext();
+        Random random = new Random(numVertices);
+        for (int i = 0; i < count; i++) {
+            int landmark;
+            if (strategy == Strategy.AVOID) {
+                landmark = selectAvoid(graph, result, i, random.nextInt(numVertices), context);
+            } else {
+                landmark = selectFarthest(graph, result, i, random.nextInt(numVertices), context);
+            }
+            result.landmarks[i] = landmark;
+            result.fillTable(graph, i, false, context);
+            result.fillTable(graph, i, true, context);
+        }
+        return result;
+    }
+
+    private static int selectFarthest(CsrGraph graph, Landmarks chosen, int numChosen, int seed,
+                                      SearchContext context) {
+        if (numChosen == 0) {
+            shortestPathTree(graph, seed, false, context, null);
+            return farthest(graph, context);
+        }
+        int best = seed;
+        double bestDistance = -1;
+        int stride = chosen.landmarks.length;
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < numChosen; i++) {
+                float d = chosen.fromLandmark[v * stride + i];
+                if (Float.isFinite(d)) {
+                    nearest = Math.min(nearest, d);
+                }
+            }
+            if ((nearest != Double.POSITIVE_INFINITY) && (nearest > bestDistance)) {
+                bestDistance = nearest;
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    private static int farthest(CsrGraph graph, SearchContext context) {
+        int best = 0;
+        double bestDistance = -1;
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            double d = context.getDistance(v);
+            if ((d != Double.POSITIVE_INFINITY) && (d > bestDistance)) {
+                bestDistance = d;
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Grow a shortest path tree from a random root and weigh every vertex by how
+     * much the current landmarks underestimate its distance from the root. Walk
+     * down from the root into the heaviest subtree that has no landmark yet; the
+     * leaf reached becomes the next landmark.
+     */
+    private static int selectAvoid(CsrGraph graph, Landmarks chosen, int numChosen, int root,
+                                   SearchContext context) {
+        int numVertices = graph.getNumVertices();
+        IntList order = new IntList(numVertices);
+        shortestPathTree(graph, root, false, context, order);
+
+        double[] size = new double[numVertices];
+        boolean[] covered = new boolean[numVertices];
+        for (int i = 0; i < numChosen; i++) {
+            covered[chosen.landmarks[i]] = true;
+        }
+        int[] childCount = new int[numVertices + 1];
+        for (int i = order.size() - 1; i > 0; i--) {
+            int v = order.get(i);
+            int parent = context.getParent(v);
+            childCount[parent + 1]++;
+            size[v] += context.getDistance(v) - chosen.lowerBound(numChosen, root, v);
+            if (covered[v]) {
+                covered[parent] = true;
+                size[v] = 0;
+            } else {
+                size[parent] += size[v];
+            }
+        }
+        for (int v = 0; v < numVertices; v++) {
+            childCount[v + 1] += childCount[v];
+        }
+        int[] children = new int[order.size()];
+        int[] fill = Arrays.copyOf(childCount, numVertices);
+        for (int i = 1; i < order.size(); i++) {
+            int v = order.get(i);
+            children[fill[context.getParent(v)]++] = v;
+        }
+
+        int curr = root;
+        while (true) {
+            int next = -1;
+            for (int i = childCount[curr]; i < childCount[curr + 1]; i++) {
+                int child = children[i];
+                if ((size[child] > 0) && ((next < 0) || (size[child] > size[next]))) {
+                    next = child;
+                }
+            }
+            if (next < 0) {
+                return curr;
+            }
+            curr = next;
+        }
+    }
+
+    private void fillTable(CsrGraph graph, int index, boolean reverse, SearchContext context) {
+        shortestPathTree(graph, landmarks[index], reverse, context, null);
+        float[] table = reverse ? toLandmark : fromLandmark;
+        int stride = landmarks.length;
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            table[v * stride + index] = (float) context.getDistance(v);
+        }
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the source to every vertex
+     *
+     * @param reverse Whether to follow edges backwards, giving distances to the
+     *                source instead of from it
+     * @param order   Receives the vertices in the order they are settled, or null
+     */
+    static void shortestPathTree(CsrGraph graph, int source, boolean reverse, SearchContext context,
+                                 IntList order) {
+        context.reset(graph.getNumVertices());
+        IndexedDaryHeap pq = context.getHeap();
+        context.update(source, 0, source);
+        pq.push(source, 0);
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            if (order != null) {
+                order.add(curr);
+            }
+            double currDistance = context.getDistance(curr);
+            int end = reverse ? graph.endInEdge(curr) : graph.endEdge(curr);
+            for (int i = reverse ? graph.firstInEdge(curr) : graph.firstEdge(curr); i < end; i++) {
+                int edge = reverse ? graph.getInEdge(i) : i;
+                int next = reverse ? graph.getSource(edge) : graph.getTarget(edge);
+                double nextDistance = currDistance + graph.getLength(edge);
+                if (nextDistance < context.getDistance(next)) {
+                    context.update(next, nextDistance, curr);
+                    pq.push(next, nextDistance);
+                }
+            }
+        }
+    }
+
+    public int[] getLandmarks() {
+        return landmarks.clone();
+    }
+
+    /**
+     * @return the graph the distance tables were computed on
+     */
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the graph is not the one the tables
+     *                                  were computed on
+     */
+    @Override
+    public double lowerBound(CsrGraph graph, int from, int to) throws IllegalArgumentException {
+        if (graph != this.graph) {
+            throw new IllegalArgumentException("The landmark tables belong to another graph");
+        }
+        return lowerBound(landmarks.length, from, to);
+    }
+
+    private double lowerBound(int numLandmarks, int from, int to) {
+        int stride = landmarks.length;
+        int fromBase = from * stride;
+        int toBase = to * stride;
+        double bound = 0;
+        for (int i = 0; i < numLandmarks; i++) {
+            float landmarkToTarget = fromLandmark[toBase + i];
+            float landmarkToSource = fromLandmark[fromBase + i];
+            if (Float.isFinite(landmarkToTarget) && Float.isFinite(landmarkToSource)) {
+                // Subtracting one ulp keeps the bound admissible despite rounding to float
+                bound = Math.max(bound, landmarkToTarget - landmarkToSource - Math.ulp(landmarkToTarget));
+            }
+            float sourceToLandmark = toLandmark[fromBase + i];
+            float targetToLandmark = toLandmark[toBase + i];
+            if (Float.isFinite(sourceToLandmark) && Float.isFinite(targetToLandmark)) {
+                bound = Math.max(bound, sourceToLandmark - targetToLandmark - Math.ulp(sourceToLandmark));
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Write the landmark tables to a file
+     *
+     * @param file  The file to write
+     * @param graph The graph the tables were computed for
+     * @throws IOException If the file cannot be written
+     * @throws IllegalArgumentException If the tables were computed on another
+     *                                  graph
+     */
+    public void save(File file, CsrGraph graph) throws IOException {
+        if (graph != this.graph) {
+            throw new IllegalArgumentException("The landmark tables belong to another graph");
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(graph.fingerprint());
+            out.writeInt(graph.getNumVertices());
+            out.writeInt(landmarks.length);
+            for (int landmark : landmarks) {
+                out.writeInt(landmark);
+            }
+            for (float d : fromLandmark) {
+                out.writeFloat(d);
+            }
+            for (float d : toLandmark) {
+                out.writeFloat(d);
+            }
+        }
+    }
+
+    /**
+     * Read landmark tables written by {@link #save(File, CsrGraph)}
+     *
+     * @param file  The file to read
+     * @param graph The graph the tables must belong to
+     * @return The landmarks
+     * @throws IOException If the file cannot be read or was computed for another
+     *                     graph
+     */
+    public static Landmarks load(File file, CsrGraph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                throw new IOException("Not a landmark file: " + file);
+            }
+            if ((in.readLong() != graph.fingerprint()) || (in.readInt() != graph.getNumVertices())) {
+                throw new IOException("Landmark file " + file + " belongs to a different graph");
+            }
+            int count = in.readInt();
+            int[] landmarks = new int[count];
+            for (int i = 0; i < count; i++) {
+                landmarks[i] = in.readInt();
+            }
+            float[] fromLandmark = new float[graph.getNumVertices() * count];
+            for (int i = 0; i < fromLandmark.length; i++) {
+                fromLandmark[i] = in.readFloat();
+            }
+            float[] toLandmark = new float[fromLandmark.length];
+            for (int i = 0; i < toLandmark.length; i++) {
+                toLandmark[i] = in.readFloat();
+            }
+            return new Landmarks(graph, landmarks, fromLandmark, toLandmark);
+        }
+    }
+
+    /**
+     * Load the landmark tables stored next to a map file, or compute and store
+     * them if they are missing or stale. The tables live in mapFile + ".landmarks".
+     *
+     * @param mapFile  The map file the graph was loaded from
+     * @param graph    The graph loaded from the map file
+     * @param count    The number of landmarks to choose if they must be computed
+     * @param strategy How to choose them
+     * @return The landmarks
+     */
+    public static Landmarks loadOrSelect(String mapFile, CsrGraph graph, int count, Strategy strategy) {
+        File file = new File(mapFile + ".landmarks");
+        if (file.exists()) {
+            try {
+                return load(file, graph);
+            } catch (IOException e) {
+                System.err.println("Problem loading landmark file: " + file + " (" + e.getMessage() + ")");
+            }
+        }
+        Landmarks result = select(graph, count, strategy);
+        try {
+            result.save(file, graph);
+        } catch (IOException e) {
+            System.err.println("Problem saving landmark file: " + file);
+            e.printStackTrace();
+        }
+        return result;
+    }
+}
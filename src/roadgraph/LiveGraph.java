@@ -0,0 +1,159 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import geography.GeographicPoint;
+
+/**
+ * A road network whose roads can be closed, reopened and given new lengths
+ * while it is being searched.
+ * <p>
+ * Every change publishes a new immutable CsrGraph. Only the length array is
+ * copied, with closed edges set to positive infinity; the vertices, edges,
+ * road names and reverse adjacency are shared with the base graph. A search
+ * takes one {@link #snapshot()} and keeps it, so it sees a consistent graph
+ * no matter what changes meanwhile, and the next search sees the change as
+ * soon as the writer returns. Publishing costs one copy of the lengths, a few
+ * milliseconds for millions of edges; batch changes with
+ * {@link #setLengths} to pay it once.
+ * <p>
+ * Edge ids are those of the base graph and never change. Roads cannot be
+ * added here; that takes a new base graph. Anything precomputed on a snapshot
+ * (a ContractionHierarchy, Landmarks, a WeightProfile and the like) keeps
+ * describing that snapshot and must be rebuilt to see later changes.
+ * Writers are serialized, readers never block.
+ */
+public class LiveGraph {
+    private final CsrGraph base;
+    private volatile CsrGraph current;
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * @param base The graph with every road open at its normal length
+     */
+    public LiveGraph(CsrGraph base) {
+        this.base = base;
+        this.current = base;
+    }
+
+    /**
+     * @return the graph as it is now, unaffected by later changes
+     */
+    public CsrGraph snapshot() {
+        return current;
+    }
+
+    /**
+     * @return the graph with every road open at its normal length
+     */
+    public CsrGraph getBase() {
+        return base;
+    }
+
+    /**
+     * @return the number of changes published so far
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Change the lengths of several edges at once
+     *
+     * @param edges   The edge ids
+     * @param lengths The new length of every edge in km, positive infinity to
+     *                close it, or NaN to restore its normal length
+     * @throws IllegalArgumentException If a length is not positive
+     */
+    public synchronized void setLengths(int[] edges, double[] lengths) throws IllegalArgumentException {
+        if (edges.length != lengths.length) {
+            throw new IllegalArgumentException("Expected one length per edge");
+        }
+        CsrGraph graph = current;
+        double[] updated = graph.copyLengths();
+        for (int i = 0; i < edges.length; i++) {
+            double length = Double.isNaN(lengths[i]) ? base.getLength(edges[i]) : lengths[i];
+            if (!(length > 0)) {
+                throw new IllegalArgumentException("Invalid length " + length + " of edge " + edges[i]);
+            }
+            updated[edges[i]] = length;
+        }
+        current = graph.withLengths(updated);
+        version.incrementAndGet();
+    }
+
+    public void setLength(int edge, double length) {
+        setLengths(new int[]{edge}, new double[]{length});
+    }
+
+    public void closeEdge(int edge) {
+        setLength(edge, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Open an edge again at its normal length
+     */
+    public void reopenEdge(int edge) {
+        setLength(edge, Double.NaN);
+    }
+
+    public boolean isClosed(int edge) {
+        return current.isClosed(edge);
+    }
+
+    /**
+     * Close every road from one intersection to another
+     *
+     * @return the number of edges closed, 0 if there is no such road
+     */
+    public int closeRoad(GeographicPoint from, GeographicPoint to) {
+        return setRoad(from, to, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Open every road from one intersection to another again at its normal
+     * length
+     *
+     * @return the number of edges reopened, 0 if there is no such road
+     */
+    public int reopenRoad(GeographicPoint from, GeographicPoint to) {
+        return setRoad(from, to, Double.NaN);
+    }
+
+    /**
+     * Set the length of every road from one intersection to another
+     *
+     * @return the number of edges changed, 0 if there is no such road
+     */
+    public int setRoadLength(GeographicPoint from, GeographicPoint to, double length) {
+        return setRoad(from, to, length);
+    }
+
+    private int setRoad(GeographicPoint from, GeographicPoint to, double length) {
+        int[] edges = edgesBetween(from, to);
+        if (edges.length > 0) {
+            double[] lengths = new double[edges.length];
+            Arrays.fill(lengths, length);
+            setLengths(edges, lengths);
+        }
+        return edges.length;
+    }
+
+    /**
+     * @return the ids of the edges from one intersection to another
+     */
+    public int[] edgesBetween(GeographicPoint from, GeographicPoint to) {
+        int source = base.getId(from);
+        int target = base.getId(to);
+        IntList edges = new IntList();
+        if ((source >= 0) && (target >= 0)) {
+            for (int edge = base.firstEdge(source); edge < base.endEdge(source); edge++) {
+                if (base.getTarget(edge) == target) {
+                    edges.add(edge);
+                }
+            }
+        }
+        return edges.toArray();
+    }
+}
@@ -5,9 +5,11 @@ import geography.GeographicPoint;
 public class MapEdge {
     private GeographicPoint start;
     private GeographicPoint end;
+    private int endId = -1;
     private String streetName;
     private String roadType;
     private double length;
+    private boolean closed;
 
     public MapEdge(GeographicPoint start, GeographicPoint end, String streetName, String roadType, double length) {
         this.start = start;
@@ -17,6 +19,15 @@ public class MapEdge {
         this.length = length;
     }
 
+    /**
+     * Create an edge that also knows the id of its end vertex, see
+     * {@link MapNode#getId()}
+     */
+    public MapEdge(GeographicPoint start, GeographicPoint end, int endId, String streetName, String roadType,
+                   double length) {
+        this(start, end, streetName, roadType, length);
+        this.endId = endId;
+    }
 
     public GeographicPoint getStart() {
         return this.start;
@@ -34,6 +45,18 @@ public class MapEdge {
         this.end = end;
     }
 
+    /**
+     * @return the id of the end vertex, or -1 if the edge was created without
+     * one
+     */
+    public int getEndId() {
+        return this.endId;
+    }
+
+    public void setEndId(int endId) {
+        this.endId = endId;
+    }
+
     public String getStreetName() {
         return this.streetName;
     }
@@ -58,6 +81,17 @@ public class MapEdge {
         this.length = length;
     }
 
+    /**
+     * @return whether the road is closed, see {@link MapGraph#closeRoad}
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    public void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+
 
     @Override
     public String toString() {
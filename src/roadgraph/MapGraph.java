@@ -7,6 +7,7 @@
 package roadgraph;
 
 import geography.GeographicPoint;
+import geography.PointIndex;
 import util.GraphLoader;
 
 import java.util.*;
@@ -21,8 +22,18 @@ import java.util.function.Consumer;
 public class MapGraph {
 
     HashMap<GeographicPoint, MapNode> vertices;
+    ArrayList<MapNode> nodes;
     int edgesNum;
-    SearchPath searchPath;
+    volatile LiveGraph liveGraph;
+    // Built lazily by query threads and dropped by changeRoad while they run.
+    // Racing builds may both compute one, so whatever can go stale is checked
+    // against the current snapshot before use.
+    volatile ContractionHierarchy hierarchy;
+    volatile PointIndex vertexIndex;
+    volatile TravelTimeModel travelTimes;
+    volatile RouteCache routeCache;
+    volatile MultilevelPartition partition;
+    volatile MultilevelMetric multilevelMetric;
 
 
     /**
@@ -30,6 +41,27 @@ public class MapGraph {
      */
     public MapGraph() {
         vertices = new HashMap<>();
+        nodes = new ArrayList<>();
+    }
+
+    /**
+     * Create a MapGraph holding the vertices and edges of a compiled graph, for
+     * example one opened from a snapshot file. The compiled graph is kept, so
+     * its vertex ids stay valid until a vertex or edge is added. Every vertex
+     * and edge is copied into the adjacency lists, so this takes O(V+E) time.
+     *
+     * @param graph The compiled graph
+     */
+    public MapGraph(CsrGraph graph) {
+        this();
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            addVertex(graph.getLocation(v));
+        }
+        for (int edge = 0; edge < graph.getNumEdges(); edge++) {
+            addEdge(graph.getLocation(graph.getSource(edge)), graph.getLocation(graph.getTarget(edge)),
+                    graph.getRoadName(edge), graph.getRoadType(edge), graph.getLength(edge));
+        }
+        liveGraph = new LiveGraph(graph);
     }
 
     /**
@@ -72,7 +104,18 @@ public class MapGraph {
         if ((location == null) || (vertices.get(location) != null)) {
             return false;
         }
-        this.vertices.put(location, new MapNode(location));
+        MapNode node = new MapNode(location, nodes.size());
+        this.vertices.put(location, node);
+        this.nodes.add(node);
+        liveGraph = null;
+        hierarchy = null;
+        partition = null;
+        multilevelMetric = null;
+        vertexIndex = null;
+        travelTimes = null;
+        if (routeCache != null) {
+            routeCache.invalidate();
+        }
         return true;
     }
 
@@ -100,17 +143,323 @@ public class MapGraph {
             throw new IllegalArgumentException();
         }
         edgesNum++;
-        fromNode.addEdge(from, to, roadName, roadType, length);
+        fromNode.addEdge(from, toNode, roadName, roadType, length);
+        liveGraph = null;
+        hierarchy = null;
+        partition = null;
+        multilevelMetric = null;
+        vertexIndex = null;
+        travelTimes = null;
+        if (routeCache != null) {
+            routeCache.invalidate();
+        }
+    }
+
+    /**
+     * Freeze the graph into its compressed sparse row form. The result is cached
+     * until the next change to the graph, and closed roads have infinite length
+     * in it. Its vertex ids are the ids given out by addVertex, see
+     * {@link #getVertexId}, so they stay the same as the graph grows.
+     *
+     * @return The compiled graph
+     */
+    public CsrGraph compile() {
+        return live().snapshot();
+    }
+
+    /**
+     * Get the live form of the compiled graph, which publishes a new snapshot
+     * on every road closure or length change. Its edge ids stay valid until
+     * the next call to addVertex or addEdge.
+     *
+     * @return The live graph
+     */
+    public LiveGraph live() {
+        LiveGraph live = liveGraph;
+        if (live == null) {
+            synchronized (this) {
+                live = liveGraph;
+                if (live == null) {
+                    live = new LiveGraph(CsrGraph.compile(nodes));
+                    IntList closed = new IntList();
+                    int edge = 0;
+                    for (MapNode node : nodes) {
+                        for (MapEdge mapEdge : node.getEdges()) {
+                            if (mapEdge.isClosed()) {
+                                closed.add(edge);
+                            }
+                            edge++;
+                        }
+                    }
+                    if (closed.size() > 0) {
+                        double[] lengths = new double[closed.size()];
+                        Arrays.fill(lengths, Double.POSITIVE_INFINITY);
+                        live.setLengths(closed.toArray(), lengths);
+                    }
+                    liveGraph = live;
+                    if (routeCache != null) {
+                        routeCache.invalidate(live.snapshot());
+                    }
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Close every road from one intersection to another, for example for
+     * roadworks or an accident. Searches already running keep the graph they
+     * started on; searches started after this returns avoid the road. Unlike
+     * addVertex and addEdge this may be called while other threads search.
+     *
+     * @param from The start of the road
+     * @param to   The end of the road
+     * @return The number of edges closed, 0 if there is no such road
+     */
+    public int closeRoad(GeographicPoint from, GeographicPoint to) {
+        return changeRoad(from, to, true, Double.NaN);
+    }
+
+    /**
+     * Open every road from one intersection to another again
+     *
+     * @return The number of edges reopened, 0 if there is no such road
+     * @see #closeRoad
+     */
+    public int reopenRoad(GeographicPoint from, GeographicPoint to) {
+        return changeRoad(from, to, false, Double.NaN);
+    }
+
+    /**
+     * Change the length of every road from one intersection to another, for
+     * example to make a congested road less attractive. Closed roads stay
+     * closed.
+     *
+     * @param length The new length in km
+     * @return The number of edges changed, 0 if there is no such road
+     * @throws IllegalArgumentException If the length is not positive
+     * @see #closeRoad
+     */
+    public int updateRoadLength(GeographicPoint from, GeographicPoint to, double length)
+            throws IllegalArgumentException {
+        if (!(length > 0) || (length == Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        return changeRoad(from, to, null, length);
+    }
+
+    // Set the closed flag (unless null) and length (unless NaN) of the edges
+    // from one vertex to another and publish them in one snapshot
+    private synchronized int changeRoad(GeographicPoint from, GeographicPoint to, Boolean closed, double length) {
+        MapNode fromNode = (from == null) ? null : vertices.get(from);
+        MapNode toNode = (to == null) ? null : vertices.get(to);
+        if ((fromNode == null) || (toNode == null)) {
+            return 0;
+        }
+        LiveGraph live = live();
+        int firstEdge = live.getBase().firstEdge(fromNode.getId());
+        List<MapEdge> edges = fromNode.getEdges();
+        IntList changed = new IntList();
+        List<Double> lengths = new ArrayList<>();
+        for (int i = 0; i < edges.size(); i++) {
+            MapEdge mapEdge = edges.get(i);
+            if (mapEdge.getEndId() != toNode.getId()) {
+                continue;
+            }
+            if (closed != null) {
+                mapEdge.setClosed(closed);
+            }
+            if (!Double.isNaN(length)) {
+                mapEdge.setLength(length);
+            }
+            changed.add(firstEdge + i);
+            lengths.add(mapEdge.isClosed() ? Double.POSITIVE_INFINITY : mapEdge.getLength());
+        }
+        if (changed.size() > 0) {
+            double[] newLengths = new double[lengths.size()];
+            for (int i = 0; i < newLengths.length; i++) {
+                newLengths[i] = lengths.get(i);
+            }
+            live.setLengths(changed.toArray(), newLengths);
+            hierarchy = null;
+            travelTimes = null;
+            if (routeCache != null) {
+                routeCache.invalidate(live.snapshot());
+            }
+        }
+        return changed.size();
+    }
+
+    /**
+     * Get the dense id addVertex gave an intersection, for the id based search
+     * methods. Ids run from 0 to getNumVertices() - 1 in the order the vertices
+     * were added.
+     *
+     * @param location The location of the intersection
+     * @return The vertex id, or -1 if the location is not a vertex
+     */
+    public int getVertexId(GeographicPoint location) {
+        MapNode node = (location == null) ? null : vertices.get(location);
+        return (node == null) ? -1 : node.getId();
+    }
+
+    /**
+     * @param id A vertex id, see {@link #getVertexId}
+     * @return The location of the vertex
+     */
+    public GeographicPoint getVertex(int id) {
+        return nodes.get(id).getLocation();
+    }
+
+    /**
+     * Build a contraction hierarchy over the compiled graph for fast point to
+     * point queries, see {@link ContractionHierarchySearch}. The result is cached
+     * until the next change to the graph.
+     *
+     * @return The contraction hierarchy
+     */
+    public ContractionHierarchy contract() {
+        ContractionHierarchy result = hierarchy;
+        CsrGraph graph = compile();
+        if ((result == null) || (result.getGraph() != graph)) {
+            result = new ContractionHierarchy(graph);
+            hierarchy = result;
+        }
+        return result;
     }
 
 
     /**
-     * set the searching algorithm
+     * Partition the compiled graph into nested cells for customizable route
+     * planning, see {@link MultilevelPartition}. The partition only depends on
+     * the roads, not their lengths, so it is cached until the next call to
+     * addVertex or addEdge.
      *
-     * @param searchPath The searching algorithm
+     * @return The partition
      */
-    public void setSearchPath(SearchPath searchPath) {
-        this.searchPath = searchPath;
+    public MultilevelPartition partition() {
+        MultilevelPartition result = partition;
+        CsrGraph graph = compile();
+        if ((result == null) || !result.getGraph().hasSameEdges(graph)) {
+            result = new MultilevelPartition(graph);
+            partition = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the partition customized for the current road lengths. After road
+     * closures or length changes only the cells they touch are customized
+     * again.
+     *
+     * @return The metric of the compiled graph
+     */
+    public MultilevelMetric multilevelMetric() {
+        MultilevelPartition cells = partition();
+        MultilevelMetric metric = multilevelMetric;
+        CsrGraph graph = compile();
+        if ((metric == null) || (metric.getPartition() != cells)) {
+            metric = MultilevelMetric.customize(cells, graph);
+            multilevelMetric = metric;
+        } else if (metric.getGraph() != graph) {
+            metric = metric.update(graph);
+            multilevelMetric = metric;
+        }
+        return metric;
+    }
+
+    /**
+     * Find the shortest path from start to goal with a multilevel query on
+     * {@link #multilevelMetric()}
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> multilevelPath(GeographicPoint start, GeographicPoint goal) {
+        MultilevelMetric metric = multilevelMetric();
+        return new MultilevelSearch(metric).getPath(metric.getGraph(), start, goal, (x) -> {
+        });
+    }
+
+    /**
+     * Build a spatial index over the vertices of the compiled graph. The indexes
+     * it returns are the vertex ids of {@link #compile()}. The result is cached
+     * until the next call to addVertex or addEdge.
+     *
+     * @return The spatial index
+     */
+    public PointIndex spatialIndex() {
+        PointIndex index = vertexIndex;
+        if (index == null) {
+            CsrGraph graph = compile();
+            double[] latitudes = new double[graph.getNumVertices()];
+            double[] longitudes = new double[graph.getNumVertices()];
+            for (int v = 0; v < latitudes.length; v++) {
+                latitudes[v] = graph.getLatitude(v);
+                longitudes[v] = graph.getLongitude(v);
+            }
+            index = new PointIndex(latitudes, longitudes);
+            vertexIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Snap a location to the closest intersection
+     *
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @return The closest vertex, or null if the graph is empty
+     */
+    public GeographicPoint nearestVertex(double lat, double lon) {
+        int vertex = spatialIndex().nearest(lat, lon);
+        return vertex < 0 ? null : compile().getLocation(vertex);
+    }
+
+    /**
+     * Find the intersections closest to a location
+     *
+     * @param lat The latitude of the location
+     * @param lon The longitude of the location
+     * @param k   The number of vertices to find
+     * @return Up to k vertices, closest first
+     */
+    public List<GeographicPoint> kNearest(double lat, double lon, int k) {
+        return compile().toLocations(spatialIndex().nearest(lat, lon, k));
+    }
+
+    /**
+     * Find the intersections within a distance of a location
+     *
+     * @param lat      The latitude of the location
+     * @param lon      The longitude of the location
+     * @param radiusKm The great circle distance in km
+     * @return The vertices within the distance, closest first
+     */
+    public List<GeographicPoint> verticesWithin(double lat, double lon, double radiusKm) {
+        return compile().toLocations(spatialIndex().within(lat, lon, radiusKm));
+    }
+
+    /**
+     * Cache the routes of the searches without a visualization hook, and the
+     * shortest path trees of sources that distanceMatrix is often asked about.
+     * The cache is invalidated and bound to the new snapshot whenever the
+     * graph changes.
+     *
+     * @param cache The cache to use, or null to stop caching
+     */
+    public synchronized void setRouteCache(RouteCache cache) {
+        if (cache != null) {
+            LiveGraph live = liveGraph;
+            cache.invalidate((live == null) ? null : live.snapshot());
+        }
+        routeCache = cache;
+    }
+
+    public RouteCache getRouteCache() {
+        return routeCache;
     }
 
     /**
@@ -123,6 +472,10 @@ public class MapGraph {
      */
     public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
         // Dummy variable for calling the search algorithms
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            return cache.route(compile(), start, goal, "bfs", null, new BreadthFirstSearch());
+        }
         Consumer<GeographicPoint> temp = (x) -> {
         };
         return bfs(start, goal, temp);
@@ -141,60 +494,9 @@ public class MapGraph {
     public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal,
                                      Consumer<GeographicPoint> nodeSearched) {
 
-        MapNode startNode = vertices.get(start);
-        MapNode goalNode = vertices.get(goal);
-        if ((startNode == null) || (goalNode == null)) {
-            return new LinkedList<>();
-        }
-
-        HashMap<MapNode, MapNode> parentMap = new HashMap<>();
-        boolean found = bfsSearch(startNode, goalNode, parentMap, nodeSearched);
-        if (!found) {
-            return new ArrayList<GeographicPoint>();
-        }
-        return Utils.constructPath(startNode, goalNode, parentMap);
-    }
-
-    private boolean bfsSearch(MapNode startNode, MapNode goalNode, HashMap<MapNode, MapNode> parentMap,
-                              Consumer<GeographicPoint> nodeSearched) {
-        Queue<MapNode> toExplore = new LinkedList<>();
-        HashSet<MapNode> visited = new HashSet<>();
-        boolean found = false;
-        toExplore.add(startNode);
-        while (!toExplore.isEmpty()) {
-            MapNode curr = toExplore.remove();
-            if (curr.getLocation().equals(goalNode.getLocation())) {
-                found = true;
-                break;
-            }
-            List<MapEdge> neighbors = curr.getEdges();
-            ListIterator<MapEdge> it = neighbors.listIterator(neighbors.size());
-
-            while (it.hasPrevious()) {
-                MapNode next = vertices.get(it.previous().getEnd());
-                if (!visited.contains(next)) {
-                    // Hook for visualization. See writeup.
-                    nodeSearched.accept(next.getLocation());
-                    visited.add(next);
-                    parentMap.put(next, curr);
-                    toExplore.add(next);
-                }
-            }
-        }
-
-        return found;
+        return new BreadthFirstSearch().getPath(compile(), start, goal, nodeSearched);
     }
 
-    /**
-     * construct a path between two nodes in the graph
-     *
-     * @param startNode the start node
-     * @param goalNode  the goal
-     * @param parentMap
-     * @return path between two nodes
-     */
-
-
     /**
      * Find the path from start to goal using Dijkstra's algorithm
      *
@@ -206,6 +508,10 @@ public class MapGraph {
     public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
         // Dummy variable for calling the search algorithms
         // You do not need to change this method.
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            return cache.route(compile(), start, goal, "dijkstra", null, new DijkstraSearch());
+        }
         Consumer<GeographicPoint> temp = (x) -> {
         };
         return dijkstra(start, goal, temp);
@@ -223,11 +529,64 @@ public class MapGraph {
      */
     public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal,
                                           Consumer<GeographicPoint> nodeSearched) {
-        searchPath = new DijkstraSearch();
-        return searchPath.getPath(vertices, start, goal, nodeSearched);
+        return new DijkstraSearch().getPath(compile(), start, goal, nodeSearched);
 
     }
 
+    /**
+     * Find the path between two vertex ids with breadth first search. Nothing is
+     * hashed; map the result back with {@link #getVertex}.
+     *
+     * @param start The id of the starting vertex
+     * @param goal  The id of the goal vertex
+     * @return The vertex ids of the shortest (unweighted) path from start to goal
+     * (including both), or an empty array if there is no path
+     * @throws IllegalArgumentException If an id is not a vertex id
+     */
+    public int[] bfs(int start, int goal) throws IllegalArgumentException {
+        return searchIds(start, goal, "bfs", new BreadthFirstSearch());
+    }
+
+    /**
+     * Find the path between two vertex ids with Dijkstra's algorithm
+     *
+     * @param start The id of the starting vertex
+     * @param goal  The id of the goal vertex
+     * @return The vertex ids of the shortest path from start to goal (including
+     * both), or an empty array if there is no path
+     * @throws IllegalArgumentException If an id is not a vertex id
+     */
+    public int[] dijkstra(int start, int goal) throws IllegalArgumentException {
+        return searchIds(start, goal, "dijkstra", new DijkstraSearch());
+    }
+
+    /**
+     * Find the path between two vertex ids with A-Star search
+     *
+     * @param start The id of the starting vertex
+     * @param goal  The id of the goal vertex
+     * @return The vertex ids of the shortest path from start to goal (including
+     * both), or an empty array if there is no path
+     * @throws IllegalArgumentException If an id is not a vertex id
+     */
+    public int[] aStarSearch(int start, int goal) throws IllegalArgumentException {
+        return searchIds(start, goal, "astar", new AStarSearch());
+    }
+
+    private int[] searchIds(int start, int goal, String algorithm, SearchPath search) {
+        if ((start < 0) || (start >= nodes.size()) || (goal < 0) || (goal >= nodes.size())) {
+            throw new IllegalArgumentException("Not a vertex id: " + ((start < 0) || (start >= nodes.size())
+                    ? start : goal));
+        }
+        CsrGraph graph = compile();
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            return cache.route(graph, start, goal, algorithm, null, search);
+        }
+        return search.getPath(graph, start, goal, (v) -> {
+        });
+    }
+
     /**
      * Find the path from start to goal using A-Star search
      *
@@ -238,6 +597,10 @@ public class MapGraph {
      */
     public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
         // Dummy variable for calling the search algorithms
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            return cache.route(compile(), start, goal, "astar", null, new AStarSearch());
+        }
         Consumer<GeographicPoint> temp = (x) -> {
         };
         return aStarSearch(start, goal, temp);
@@ -255,11 +618,214 @@ public class MapGraph {
      */
     public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal,
                                              Consumer<GeographicPoint> nodeSearched) {
-        searchPath = new AStarSearch();
-        return searchPath.getPath(vertices, start, goal, nodeSearched);
+        return new AStarSearch().getPath(compile(), start, goal, nodeSearched);
 
     }
 
+    /**
+     * Find the path from start to goal with the least cost under a weight
+     * profile, using A-Star search
+     *
+     * @param start   The starting location
+     * @param goal    The goal location
+     * @param profile The edge costs, built over {@link #compile()}; for example
+     *                new WeightProfile(graph.compile(), RoadTypeCost.truck())
+     * @return The list of intersections that form the cheapest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> cheapestPath(GeographicPoint start, GeographicPoint goal, WeightProfile profile) {
+        SearchPath search = new AStarSearch(profile, new ChordHeuristic());
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            return cache.route(profile.getGraph(), start, goal, "astar", profile, search);
+        }
+        return search.getPath(profile.getGraph(), start, goal, (x) -> {
+        });
+    }
+
+    /**
+     * Find the shortest path from start to goal that respects turn
+     * restrictions and pays turn costs, using edge based A-Star search
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @param turns The turn costs in km, built over {@link #compile()}
+     * @return The list of intersections that form the shortest path from start
+     * to goal (including both start and goal). An intersection may appear
+     * more than once when a forbidden turn forces a detour.
+     */
+    public List<GeographicPoint> turnAwarePath(GeographicPoint start, GeographicPoint goal, TurnCostTable turns) {
+        return new TurnAwareSearch(turns, null, new ChordHeuristic()).getPath(turns.getGraph(), start, goal,
+                (x) -> {
+                });
+    }
+
+    /**
+     * Find the k shortest loopless paths from start to goal with Yen's
+     * algorithm, see {@link AlternativeRoutes#kShortest}
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @param k     The number of paths
+     * @return Up to k paths, each a list of intersections from start to goal,
+     * shortest first. Empty if there is no path.
+     */
+    public List<List<GeographicPoint>> kShortestPaths(GeographicPoint start, GeographicPoint goal, int k) {
+        CsrGraph graph = compile();
+        int startId = graph.getId(start);
+        int goalId = graph.getId(goal);
+        if ((startId < 0) || (goalId < 0)) {
+            return new ArrayList<>();
+        }
+        return toLocationLists(graph, AlternativeRoutes.kShortest(graph, startId, goalId, k));
+    }
+
+    /**
+     * Find the shortest path from start to goal and alternatives to it that are
+     * at most 30% longer and share at most 70% of their length with the routes
+     * before them, with the penalty method
+     *
+     * @param start     The starting location
+     * @param goal      The goal location
+     * @param maxRoutes The largest number of routes, including the shortest
+     * @return The routes, each a list of intersections from start to goal,
+     * shortest first. Empty if there is no path.
+     */
+    public List<List<GeographicPoint>> alternativeRoutes(GeographicPoint start, GeographicPoint goal,
+                                                         int maxRoutes) {
+        return alternativeRoutes(start, goal, maxRoutes, AlternativeRoutes.DEFAULT_MAX_STRETCH,
+                AlternativeRoutes.DEFAULT_MAX_OVERLAP);
+    }
+
+    /**
+     * Find the shortest path from start to goal and alternatives to it with the
+     * penalty method, see {@link AlternativeRoutes#penaltyAlternatives}
+     *
+     * @param start      The starting location
+     * @param goal       The goal location
+     * @param maxRoutes  The largest number of routes, including the shortest
+     * @param maxStretch How many times longer than the shortest path a route
+     *                   may be
+     * @param maxOverlap The largest fraction of a route's length that may run
+     *                   along the routes before it
+     * @return The routes, each a list of intersections from start to goal,
+     * shortest first. Empty if there is no path.
+     */
+    public List<List<GeographicPoint>> alternativeRoutes(GeographicPoint start, GeographicPoint goal,
+                                                         int maxRoutes, double maxStretch, double maxOverlap) {
+        CsrGraph graph = compile();
+        int startId = graph.getId(start);
+        int goalId = graph.getId(goal);
+        if ((startId < 0) || (goalId < 0)) {
+            return new ArrayList<>();
+        }
+        return toLocationLists(graph, AlternativeRoutes.penaltyAlternatives(graph, startId, goalId, maxRoutes,
+                maxStretch, maxOverlap));
+    }
+
+    private static List<List<GeographicPoint>> toLocationLists(CsrGraph graph, List<int[]> paths) {
+        List<List<GeographicPoint>> result = new ArrayList<>(paths.size());
+        for (int[] path : paths) {
+            result.add(graph.toLocations(path));
+        }
+        return result;
+    }
+
+    /**
+     * Compute the shortest path distance from every source to every target.
+     * Uses the contraction hierarchy when {@link #contract()} has already built
+     * one, the route cache's shortest path trees for hot sources when there is
+     * a cache, and one pruned Dijkstra search per source otherwise.
+     *
+     * @param sources The starting locations
+     * @param targets The goal locations
+     * @return matrix[i][j] is the distance in km from sources[i] to targets[j],
+     * or positive infinity if there is no path.
+     * @throws IllegalArgumentException If a location is not a vertex of the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets)
+            throws IllegalArgumentException {
+        CsrGraph graph = compile();
+        int[] sourceIds = toIds(graph, sources);
+        int[] targetIds = toIds(graph, targets);
+        ContractionHierarchy contracted = hierarchy;
+        if ((contracted != null) && (contracted.getGraph() == graph)) {
+            return DistanceMatrix.manyToMany(contracted, sourceIds, targetIds);
+        }
+        RouteCache cache = routeCache;
+        if (cache != null) {
+            return cache.distances(graph, sourceIds, targetIds);
+        }
+        return DistanceMatrix.oneToMany(graph, sourceIds, targetIds);
+    }
+
+    /**
+     * Find every intersection, and the partial edges leaving them, within a
+     * driving distance of an origin. The search stops as soon as the next
+     * intersection is beyond the budget; see {@link Isochrone} for the result
+     * and its convex and concave hull outlines.
+     *
+     * @param origin The starting location
+     * @param maxKm  The distance budget in km
+     * @return The reachable area
+     * @throws IllegalArgumentException If the origin is not a vertex of the graph
+     *                                  or the budget is negative
+     */
+    public Isochrone reachableWithin(GeographicPoint origin, double maxKm) throws IllegalArgumentException {
+        CsrGraph graph = compile();
+        int id = graph.getId(origin);
+        if ((id < 0) || (maxKm < 0)) {
+            throw new IllegalArgumentException();
+        }
+        return new Isochrone(graph, id, maxKm);
+    }
+
+    /**
+     * Get the travel time model used by {@link #fastestPath}, starting out
+     * with the per road type defaults of {@link TravelTimeModel#withDefaults}.
+     * Profiles changed on it apply until the next change to the graph.
+     *
+     * @return The travel time model of the compiled graph
+     */
+    public TravelTimeModel travelTimeModel() {
+        TravelTimeModel model = travelTimes;
+        CsrGraph graph = compile();
+        if ((model == null) || (model.getGraph() != graph)) {
+            model = TravelTimeModel.withDefaults(graph);
+            travelTimes = model;
+        }
+        return model;
+    }
+
+    /**
+     * Find the quickest path from start to goal when leaving at a given time,
+     * using time dependent A* search over {@link #travelTimeModel()}
+     *
+     * @param start         The starting location
+     * @param goal          The goal location
+     * @param departureTime The time of leaving the start, in seconds after
+     *                      midnight
+     * @return The list of intersections that form the quickest path from start
+     * to goal (including both start and goal).
+     */
+    public List<GeographicPoint> fastestPath(GeographicPoint start, GeographicPoint goal, double departureTime) {
+        TravelTimeModel model = travelTimeModel();
+        return new TimeDependentSearch(model, departureTime, new ChordHeuristic())
+                .getPath(model.getGraph(), start, goal, (x) -> {
+                });
+    }
+
+    private static int[] toIds(CsrGraph graph, List<GeographicPoint> locations) {
+        int[] ids = new int[locations.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = graph.getId(locations.get(i));
+            if (ids[i] < 0) {
+                throw new IllegalArgumentException("Not a vertex: " + locations.get(i));
+            }
+        }
+        return ids;
+    }
+
     public static void main(String[] args) {
         MapGraph theMap = new MapGraph();
         System.out.print("DONE. \nLoading the map...");
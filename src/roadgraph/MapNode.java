@@ -9,6 +9,7 @@ import geography.GeographicPoint;
 public class MapNode {
     protected GeographicPoint location;
     protected List<MapEdge> edges;
+    protected int id = -1;
     // protected double distance;
 
     public MapNode() {
@@ -26,6 +27,22 @@ public class MapNode {
         this.location = location;
     }
 
+    /**
+     * Create a node with a dense vertex id, which the compiled graph uses as
+     * its vertex id
+     */
+    public MapNode(GeographicPoint location, int id) {
+        this(location);
+        this.id = id;
+    }
+
+    /**
+     * @return the vertex id of the node, or -1 if it was created without one
+     */
+    public int getId() {
+        return this.id;
+    }
+
     public GeographicPoint getLocation() {
         return this.location;
     }
@@ -46,6 +63,10 @@ public class MapNode {
         this.edges.add(new MapEdge(start, end, streetName, roadType, length));
     }
 
+    public void addEdge(GeographicPoint start, MapNode end, String streetName, String roadType, double length) {
+        this.edges.add(new MapEdge(start, end.getLocation(), end.getId(), streetName, roadType, length));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == this)
@@ -54,7 +75,7 @@ public class MapNode {
             return false;
         }
         MapNode mapNode = (MapNode) o;
-        return location == mapNode.location;
+        return Objects.equals(location, mapNode.location);
     }
 
     @Override
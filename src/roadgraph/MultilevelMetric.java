@@ -0,0 +1,255 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The edge weights of a graph and, for every cell of a
+ * {@link MultilevelPartition}, the shortest distances between its boundary
+ * vertices that stay inside the cell: the metric dependent half of
+ * customizable route planning.
+ * <p>
+ * Customization fills the matrices level by level, each cell on its own, so
+ * the cells of a level are customized in parallel. On level 0 a Dijkstra
+ * search from every boundary vertex runs over the original edges inside the
+ * cell. On a higher level it runs over the overlay of the level below
+ * instead: the matrices of the subcells and the original edges between
+ * them, which is far smaller than the cell. A distance matrix entry is
+ * positive infinity if the cell cannot be crossed that way.
+ * <p>
+ * Nothing here depends on the order of the vertices, so a metric for new
+ * weights takes seconds where a contraction hierarchy must be rebuilt;
+ * {@link #update} recomputes only the cells an edge changed in, and their
+ * parents. Instances are immutable and safe to share between threads.
+ */
+public class MultilevelMetric {
+    private final MultilevelPartition partition;
+    private final CsrGraph graph;
+    private final double[] weights;
+    // matrices[l] holds the distance matrices of the cells of level l, row by
+    // row from the boundary vertex of the row to that of the column
+    private final double[][] matrices;
+
+    private MultilevelMetric(MultilevelPartition partition, CsrGraph graph, double[] weights) {
+        if (!graph.hasSameEdges(partition.getGraph())) {
+            throw new IllegalArgumentException("The partition belongs to another graph");
+        }
+        this.partition = partition;
+        this.graph = graph;
+        this.weights = weights;
+        this.matrices = new double[partition.getNumLevels()][];
+    }
+
+    /**
+     * Customize a partition for the lengths of a graph, which may be the
+     * partitioned graph or any graph with the same edges, like a snapshot of
+     * a LiveGraph with closed roads
+     *
+     * @param partition The partition
+     * @param graph     The graph whose lengths to use
+     * @return The metric
+     * @throws IllegalArgumentException If the graph has other edges than the
+     *                                  partitioned one
+     */
+    public static MultilevelMetric customize(MultilevelPartition partition, CsrGraph graph)
+            throws IllegalArgumentException {
+        MultilevelMetric metric = new MultilevelMetric(partition, graph, graph.copyLengths());
+        metric.customizeAll(null);
+        return metric;
+    }
+
+    /**
+     * Customize a partition for the costs of a weight profile
+     *
+     * @see #customize(MultilevelPartition, CsrGraph)
+     */
+    public static MultilevelMetric customize(MultilevelPartition partition, WeightProfile profile)
+            throws IllegalArgumentException {
+        CsrGraph graph = profile.getGraph();
+        double[] weights = new double[graph.getNumEdges()];
+        for (int edge = 0; edge < weights.length; edge++) {
+            weights[edge] = profile.getWeight(edge);
+        }
+        MultilevelMetric metric = new MultilevelMetric(partition, graph, weights);
+        metric.customizeAll(null);
+        return metric;
+    }
+
+    /**
+     * Customize for the lengths of a graph with the same edges, recomputing
+     * only the cells that contain an edge whose length differs from this
+     * metric's weight, and the cells above them
+     *
+     * @param graph The graph whose lengths to use
+     * @return The new metric; this one is unchanged
+     * @throws IllegalArgumentException If the graph has other edges than the
+     *                                  partitioned one
+     */
+    public MultilevelMetric update(CsrGraph graph) throws IllegalArgumentException {
+        MultilevelMetric metric = new MultilevelMetric(partition, graph, graph.copyLengths());
+        int numLevels = partition.getNumLevels();
+        boolean[][] dirty = new boolean[numLevels][];
+        for (int l = 0; l < numLevels; l++) {
+            dirty[l] = new boolean[partition.getNumCells(l)];
+        }
+        for (int edge = 0; edge < weights.length; edge++) {
+            if (metric.weights[edge] == weights[edge]) {
+                continue;
+            }
+            int source = graph.getSource(edge);
+            int target = graph.getTarget(edge);
+            // An edge is inside its endpoints' common cells, which are nested
+            for (int l = 0; l < numLevels; l++) {
+                int cell = partition.getCell(l, source);
+                if (cell == partition.getCell(l, target)) {
+                    dirty[l][cell] = true;
+                }
+            }
+        }
+        for (int l = 1; l < numLevels; l++) {
+            for (int c = 0; c < dirty[l - 1].length; c++) {
+                if (dirty[l - 1][c]) {
+                    dirty[l][c >>> MultilevelPartition.LEVEL_BITS] = true;
+                }
+            }
+        }
+        for (int l = 0; l < numLevels; l++) {
+            metric.matrices[l] = matrices[l].clone();
+        }
+        metric.customizeAll(dirty);
+        return metric;
+    }
+
+    // Fill the matrices of every cell, or of the dirty ones if given
+    private void customizeAll(boolean[][] dirty) {
+        for (int l = 0; l < partition.getNumLevels(); l++) {
+            if (matrices[l] == null) {
+                matrices[l] = new double[partition.getMatrixSize(l)];
+            }
+            int level = l;
+            IntStream.range(0, partition.getNumCells(l)).parallel()
+                    .filter((c) -> (dirty == null) || dirty[level][c])
+                    .forEach((c) -> customizeCell(level, c));
+        }
+    }
+
+    private void customizeCell(int level, int cell) {
+        int size = partition.getBoundarySize(level, cell);
+        int offset = partition.getMatrixOffset(level, cell);
+        double[] matrix = matrices[level];
+        for (int i = 0; i < size; i++) {
+            SearchContext context = searchCell(level, cell, partition.getBoundaryVertex(level, cell, i), -1);
+            for (int j = 0; j < size; j++) {
+                matrix[offset + i * size + j] = context.getDistance(partition.getBoundaryVertex(level, cell, j));
+            }
+        }
+    }
+
+    /**
+     * Dijkstra's algorithm from a vertex of a cell, inside the cell: over the
+     * original edges on level 0 and over the overlay of the level below above
+     * that. It stops at the target if there is one, and once every boundary
+     * vertex of the cell is settled otherwise.
+     *
+     * @return the calling thread's context holding the distances and parents
+     */
+    private SearchContext searchCell(int level, int cell, int source, int target) {
+        SearchContext context = SearchContext.get(graph.getNumVertices());
+        IndexedDaryHeap pq = context.getHeap();
+        context.update(source, 0, source);
+        pq.push(source, 0);
+        int remaining = (target < 0) ? partition.getBoundarySize(level, cell) : 1;
+        int below = level - 1;
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            if ((target < 0) ? (partition.getBoundaryIndex(level, curr) >= 0) && (--remaining == 0)
+                    : (curr == target)) {
+                break;
+            }
+            double currDistance = context.getDistance(curr);
+            if (below >= 0) {
+                int subcell = partition.getCell(below, curr);
+                int size = partition.getBoundarySize(below, subcell);
+                int row = partition.getMatrixOffset(below, subcell) + partition.getBoundaryIndex(below, curr) * size;
+                for (int j = 0; j < size; j++) {
+                    relax(context, curr, partition.getBoundaryVertex(below, subcell, j),
+                            currDistance + matrices[below][row + j]);
+                }
+            }
+            for (int edge = graph.firstEdge(curr); edge < graph.endEdge(curr); edge++) {
+                int next = graph.getTarget(edge);
+                if ((partition.getCell(level, next) == cell)
+                        && ((below < 0) || (partition.getCell(below, next) != partition.getCell(below, curr)))) {
+                    relax(context, curr, next, currDistance + weights[edge]);
+                }
+            }
+        }
+        return context;
+    }
+
+    private static void relax(SearchContext context, int curr, int next, double nextDistance) {
+        if (!context.isSettled(next) && (nextDistance < context.getDistance(next))) {
+            context.update(next, nextDistance, curr);
+            context.getHeap().push(next, nextDistance);
+        }
+    }
+
+    /**
+     * Append the original vertices of the shortest path inside a cell from one
+     * of its boundary vertices to another, excluding the first, onto a path
+     *
+     * @param level The level of the cell
+     * @param from  The boundary vertex the path starts at
+     * @param to    The boundary vertex the path ends at, in the same cell
+     * @param path  The path to append to
+     */
+    void unpack(int level, int from, int to, IntList path) {
+        if (from == to) {
+            return;
+        }
+        SearchContext context = searchCell(level, partition.getCell(level, from), from, to);
+        int[] steps = context.pathTo(from, to);
+        if (level == 0) {
+            for (int i = 1; i < steps.length; i++) {
+                path.add(steps[i]);
+            }
+            return;
+        }
+        // A step inside a subcell is a matrix entry of the level below, a step
+        // between subcells an original edge
+        int below = level - 1;
+        for (int i = 1; i < steps.length; i++) {
+            if (partition.getCell(below, steps[i - 1]) == partition.getCell(below, steps[i])) {
+                unpack(below, steps[i - 1], steps[i], path);
+            } else {
+                path.add(steps[i]);
+            }
+        }
+    }
+
+    public MultilevelPartition getPartition() {
+        return partition;
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    public double getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @return the shortest distance inside a cell from its i-th boundary vertex
+     * to its j-th, or positive infinity if there is no such path
+     */
+    public double getDistance(int level, int cell, int i, int j) {
+        int size = partition.getBoundarySize(level, cell);
+        return matrices[level][partition.getMatrixOffset(level, cell) + i * size + j];
+    }
+
+    double[] getMatrices(int level) {
+        return matrices[level];
+    }
+}
@@ -0,0 +1,318 @@
+package roadgraph;
+
+/**
+ * A nested partition of a graph into cells on several levels, the metric
+ * independent half of customizable route planning (see
+ * {@link MultilevelMetric} and {@link MultilevelSearch}).
+ * <p>
+ * The vertices are split in half at the median latitude or longitude,
+ * whichever spans more, and the halves again, to the same depth everywhere,
+ * until no leaf holds more than the maximum cell size (see {@link #bisect}).
+ * The leaves are the cells of level 0 and every level above merges groups of
+ * 2^LEVEL_BITS cells of the level below, so a cell id on a level is the leaf
+ * id shifted right.
+ * Geometric cuts are not as small as those of a graph partitioner, but road
+ * networks are nearly planar, so they cut few edges for the work they take.
+ * <p>
+ * A vertex is a boundary vertex of a level if one of its edges leads to or
+ * from another cell of that level. A boundary vertex of a level is one of
+ * every level below as well. The boundary vertices of every cell are listed
+ * in one array per level, and each cell owns a square matrix of distances
+ * between them, laid out here and filled in by the metric.
+ * Instances are immutable and safe to share between threads.
+ */
+public class MultilevelPartition {
+    public static final int DEFAULT_CELL_SIZE = 64;
+    public static final int DEFAULT_LEVELS = 4;
+
+    // Each level merges 2^LEVEL_BITS cells of the level below
+    static final int LEVEL_BITS = 2;
+
+    private final CsrGraph graph;
+    private final int numLevels;
+    // cells[l][v] is the cell of vertex v on level l
+    private final int[][] cells;
+    private final int[] numCells;
+    // The boundary vertices of cell c on level l are
+    // boundary[l][boundaryOffsets[l][c]] .. boundary[l][boundaryOffsets[l][c + 1] - 1]
+    private final int[][] boundaryOffsets;
+    private final int[][] boundary;
+    // The position of a vertex in its cell's boundary list on a level, or -1
+    private final int[][] boundaryIndex;
+    // The distance matrix of cell c on level l starts at matrixOffsets[l][c]
+    private final int[][] matrixOffsets;
+
+    /**
+     * Partition a graph with the default cell size and number of levels
+     */
+    public MultilevelPartition(CsrGraph graph) {
+        this(graph, DEFAULT_CELL_SIZE, DEFAULT_LEVELS);
+    }
+
+    /**
+     * @param graph       The graph to partition
+     * @param maxCellSize The largest number of vertices in a level 0 cell
+     * @param maxLevels   The largest number of levels; fewer are made if the
+     *                    top level would otherwise have only one cell
+     * @throws IllegalArgumentException If the cell size or levels are not
+     *                                  positive
+     */
+    public MultilevelPartition(CsrGraph graph, int maxCellSize, int maxLevels) throws IllegalArgumentException {
+        if ((maxCellSize <= 0) || (maxLevels <= 0)) {
+            throw new IllegalArgumentException("Cell size and levels must be positive");
+        }
+        this.graph = graph;
+        int numVertices = graph.getNumVertices();
+        int depth = 0;
+        while (((long) maxCellSize << depth) < numVertices) {
+            depth++;
+        }
+        // Every level must have at least two cells, or it has no boundary
+        numLevels = (depth == 0) ? 0 : Math.min(maxLevels, (depth - 1) / LEVEL_BITS + 1);
+
+        int[] leaves = bisect(graph, 1 << depth);
+        cells = new int[numLevels][];
+        numCells = new int[numLevels];
+        boundaryOffsets = new int[numLevels][];
+        boundary = new int[numLevels][];
+        boundaryIndex = new int[numLevels][];
+        matrixOffsets = new int[numLevels][];
+        for (int l = 0; l < numLevels; l++) {
+            int shift = l * LEVEL_BITS;
+            numCells[l] = 1 << (depth - shift);
+            cells[l] = new int[numVertices];
+            for (int v = 0; v < numVertices; v++) {
+                cells[l][v] = leaves[v] >>> shift;
+            }
+            findBoundary(l);
+        }
+    }
+
+    /**
+     * Split the vertices into parts of nearly equal size by recursive
+     * bisection: a range of vertices to be split into k parts is cut at the
+     * (k / 2) / k quantile of its wider coordinate, and both sides are split
+     * the same way. With a power of two parts every cut is at the median and
+     * the bits of a part id are the sides taken, first cut first.
+     *
+     * @param graph    The graph whose vertices to split
+     * @param numParts The number of parts
+     * @return the part id of every vertex, from 0 to numParts - 1
+     * @throws IllegalArgumentException If the number of parts is not positive
+     */
+    public static int[] bisect(CsrGraph graph, int numParts) throws IllegalArgumentException {
+        if (numParts <= 0) {
+            throw new IllegalArgumentException("The number of parts must be positive");
+        }
+        int numVertices = graph.getNumVertices();
+        int[] order = new int[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            order[v] = v;
+        }
+        int[] parts = new int[numVertices];
+        // Ranges still to split, as lo, hi, first part id and number of parts
+        IntList stack = new IntList();
+        stack.add(0);
+        stack.add(numVertices);
+        stack.add(0);
+        stack.add(numParts);
+        while (stack.size() > 0) {
+            int count = stack.removeLast();
+            int first = stack.removeLast();
+            int hi = stack.removeLast();
+            int lo = stack.removeLast();
+            if (count == 1) {
+                for (int i = lo; i < hi; i++) {
+                    parts[order[i]] = first;
+                }
+                continue;
+            }
+            int half = count / 2;
+            int mid = lo + (int) ((long) (hi - lo) * half / count);
+            if ((mid > lo) && (mid < hi)) {
+                select(graph, order, lo, hi, mid, widerAxis(graph, order, lo, hi));
+            }
+            stack.add(lo);
+            stack.add(mid);
+            stack.add(first);
+            stack.add(half);
+            stack.add(mid);
+            stack.add(hi);
+            stack.add(first + half);
+            stack.add(count - half);
+        }
+        return parts;
+    }
+
+    // 0 if the vertices span more latitude than longitude, 1 otherwise
+    private static int widerAxis(CsrGraph graph, int[] order, int lo, int hi) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++) {
+            double lat = graph.getLatitude(order[i]);
+            double lon = graph.getLongitude(order[i]);
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+            minLon = Math.min(minLon, lon);
+            maxLon = Math.max(maxLon, lon);
+        }
+        // A degree of longitude shrinks towards the poles
+        double lonScale = Math.cos(Math.toRadians((minLat + maxLat) / 2));
+        return (maxLat - minLat >= (maxLon - minLon) * lonScale) ? 0 : 1;
+    }
+
+    private static double coordinate(CsrGraph graph, int vertex, int axis) {
+        return (axis == 0) ? graph.getLatitude(vertex) : graph.getLongitude(vertex);
+    }
+
+    /**
+     * Reorder order[lo..hi-1] so that order[k] holds the vertex that sorts
+     * there by the coordinate and no vertex before it has a larger one, nor
+     * any after it a smaller one (quickselect)
+     */
+    private static void select(CsrGraph graph, int[] order, int lo, int hi, int k, int axis) {
+        int left = lo;
+        int right = hi - 1;
+        while (left < right) {
+            double pivot = coordinate(graph, order[(left + right) >>> 1], axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinate(graph, order[i], axis) < pivot) {
+                    i++;
+                }
+                while (coordinate(graph, order[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void findBoundary(int level) {
+        int numVertices = graph.getNumVertices();
+        int[] cell = cells[level];
+        boolean[] isBoundary = new boolean[numVertices];
+        for (int edge = 0; edge < graph.getNumEdges(); edge++) {
+            int source = graph.getSource(edge);
+            int target = graph.getTarget(edge);
+            if (cell[source] != cell[target]) {
+                isBoundary[source] = true;
+                isBoundary[target] = true;
+            }
+        }
+        int[] offsets = new int[numCells[level] + 1];
+        for (int v = 0; v < numVertices; v++) {
+            if (isBoundary[v]) {
+                offsets[cell[v] + 1]++;
+            }
+        }
+        int[] matrices = new int[numCells[level] + 1];
+        for (int c = 0; c < numCells[level]; c++) {
+            int size = offsets[c + 1];
+            matrices[c + 1] = matrices[c] + size * size;
+            offsets[c + 1] += offsets[c];
+        }
+        int[] vertices = new int[offsets[numCells[level]]];
+        int[] index = new int[numVertices];
+        int[] fill = offsets.clone();
+        for (int v = 0; v < numVertices; v++) {
+            if (isBoundary[v]) {
+                index[v] = fill[cell[v]] - offsets[cell[v]];
+                vertices[fill[cell[v]]++] = v;
+            } else {
+                index[v] = -1;
+            }
+        }
+        boundaryOffsets[level] = offsets;
+        boundary[level] = vertices;
+        boundaryIndex[level] = index;
+        matrixOffsets[level] = matrices;
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the number of levels, 0 if the graph fits in one cell
+     */
+    public int getNumLevels() {
+        return numLevels;
+    }
+
+    public int getNumCells(int level) {
+        return numCells[level];
+    }
+
+    public int getCell(int level, int vertex) {
+        return cells[level][vertex];
+    }
+
+    /**
+     * @return the number of boundary vertices of a cell
+     */
+    public int getBoundarySize(int level, int cell) {
+        return boundaryOffsets[level][cell + 1] - boundaryOffsets[level][cell];
+    }
+
+    /**
+     * @return the i-th boundary vertex of a cell
+     */
+    public int getBoundaryVertex(int level, int cell, int i) {
+        return boundary[level][boundaryOffsets[level][cell] + i];
+    }
+
+    /**
+     * @return the position of a vertex in its cell's boundary list on a
+     * level, or -1 if it is not a boundary vertex there
+     */
+    public int getBoundaryIndex(int level, int vertex) {
+        return boundaryIndex[level][vertex];
+    }
+
+    /**
+     * @return the total number of boundary vertices on a level
+     */
+    public int getNumBoundaryVertices(int level) {
+        return boundary[level].length;
+    }
+
+    int getMatrixOffset(int level, int cell) {
+        return matrixOffsets[level][cell];
+    }
+
+    int getMatrixSize(int level) {
+        return matrixOffsets[level][numCells[level]];
+    }
+
+    /**
+     * @return the highest level on which the vertex is in neither the start's
+     * nor the goal's cell, or -1 if there is none, the level a query searches
+     * the vertex on
+     */
+    int queryLevel(int vertex, int start, int goal) {
+        for (int l = numLevels - 1; l >= 0; l--) {
+            int cell = cells[l][vertex];
+            if ((cell != cells[l][start]) && (cell != cells[l][goal])) {
+                return l;
+            }
+        }
+        return -1;
+    }
+}
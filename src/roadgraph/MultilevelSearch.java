@@ -0,0 +1,126 @@
+package roadgraph;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Point to point queries on a {@link MultilevelMetric}, the query phase of
+ * customizable route planning.
+ * <p>
+ * A bidirectional Dijkstra search runs on a graph that depends on the query:
+ * in the level 0 cells of the start and the goal it uses the original edges,
+ * and elsewhere it uses the highest level whose cell holds neither of them,
+ * following the distance matrix of that cell and the original edges leaving
+ * it. Far from the endpoints the search thus skips whole cells at a time.
+ * <p>
+ * The path found is unpacked into original vertices by searching each
+ * matrix step again inside its cell, one level down at a time, which touches
+ * only the overlay and the level 0 cells along the path.
+ */
+public class MultilevelSearch implements SearchPath {
+    private final MultilevelMetric metric;
+
+    public MultilevelSearch(MultilevelMetric metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        if (graph != metric.getGraph()) {
+            throw new IllegalArgumentException("The metric was customized for a different graph");
+        }
+        if (start == goal) {
+            return new int[]{start};
+        }
+        MultilevelPartition partition = metric.getPartition();
+        SearchContext forward = SearchContext.get(graph.getNumVertices());
+        SearchContext backward = SearchContext.getBackward(graph.getNumVertices());
+        IndexedDaryHeap forwardPq = forward.getHeap();
+        IndexedDaryHeap backwardPq = backward.getHeap();
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+
+        forward.update(start, 0, start);
+        forwardPq.push(start, 0);
+        backward.update(goal, 0, goal);
+        backwardPq.push(goal, 0);
+        while (!forwardPq.isEmpty() && !backwardPq.isEmpty()) {
+            if (forwardPq.peekKey() + backwardPq.peekKey() >= best) {
+                break;
+            }
+            boolean isForward = forwardPq.peekKey() <= backwardPq.peekKey();
+            SearchContext context = isForward ? forward : backward;
+            SearchContext other = isForward ? backward : forward;
+            int curr = context.getHeap().poll();
+            context.settle(curr);
+            double currDistance = context.getDistance(curr);
+            int level = partition.queryLevel(curr, start, goal);
+            if (level >= 0) {
+                int cell = partition.getCell(level, curr);
+                int size = partition.getBoundarySize(level, cell);
+                int offset = partition.getMatrixOffset(level, cell);
+                int index = partition.getBoundaryIndex(level, curr);
+                double[] matrix = metric.getMatrices(level);
+                for (int j = 0; j < size; j++) {
+                    double distance = isForward ? matrix[offset + index * size + j]
+                            : matrix[offset + j * size + index];
+                    int next = partition.getBoundaryVertex(level, cell, j);
+                    double through = relax(context, other, curr, next, currDistance + distance, nodeSearched);
+                    if (through < best) {
+                        best = through;
+                        meeting = next;
+                    }
+                }
+            }
+            int first = isForward ? graph.firstEdge(curr) : graph.firstInEdge(curr);
+            int end = isForward ? graph.endEdge(curr) : graph.endInEdge(curr);
+            for (int i = first; i < end; i++) {
+                int edge = isForward ? i : graph.getInEdge(i);
+                int next = isForward ? graph.getTarget(edge) : graph.getSource(edge);
+                // Edges inside the cell were replaced by its matrix
+                if ((level >= 0) && (partition.getCell(level, next) == partition.getCell(level, curr))) {
+                    continue;
+                }
+                double through = relax(context, other, curr, next, currDistance + metric.getWeight(edge), nodeSearched);
+                if (through < best) {
+                    best = through;
+                    meeting = next;
+                }
+            }
+        }
+
+        if (meeting < 0) {
+            return new int[0];
+        }
+        int[] overlayPath = BidirectionalDijkstraSearch.joinPaths(forward.pathTo(start, meeting), backward,
+                meeting, goal);
+        IntList path = new IntList();
+        path.add(start);
+        for (int i = 1; i < overlayPath.length; i++) {
+            int from = overlayPath[i - 1];
+            int to = overlayPath[i];
+            int level = partition.queryLevel(from, start, goal);
+            if ((level >= 0) && (partition.getCell(level, from) == partition.getCell(level, to))) {
+                metric.unpack(level, from, to, path);
+            } else {
+                path.add(to);
+            }
+        }
+        return path.toArray();
+    }
+
+    /**
+     * Relax one arc of either search
+     *
+     * @return the length of the best path through the far end of the arc
+     */
+    private static double relax(SearchContext context, SearchContext other, int curr, int next,
+                                double nextDistance, IntConsumer nodeSearched) {
+        if (!context.isSettled(next) && (nextDistance < context.getDistance(next))) {
+            context.update(next, nextDistance, curr);
+            // Hook for visualization. See writeup.
+            nodeSearched.accept(next);
+            context.getHeap().push(next, nextDistance);
+        }
+        return context.getDistance(next) + other.getDistance(next);
+    }
+}
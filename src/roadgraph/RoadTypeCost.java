@@ -0,0 +1,97 @@
+package roadgraph;
+
+import java.util.HashMap;
+
+/**
+ * The time it takes to drive an edge, in seconds, at a fixed speed per road
+ * type, optionally multiplied by a penalty per road type to steer routes away
+ * from some roads without forbidding them. A speed of 0 forbids a road type.
+ */
+public class RoadTypeCost implements CostFunction {
+    private final HashMap<String, Double> speeds = new HashMap<>();
+    private final HashMap<String, Double> penalties = new HashMap<>();
+    private final double defaultSpeed;
+
+    /**
+     * @param defaultSpeed The speed of road types without one, in km/h
+     */
+    public RoadTypeCost(double defaultSpeed) {
+        if (!(defaultSpeed >= 0)) {
+            throw new IllegalArgumentException("Invalid speed " + defaultSpeed);
+        }
+        this.defaultSpeed = defaultSpeed;
+    }
+
+    /**
+     * @return a car driving at the free flow speed of every road type
+     */
+    public static RoadTypeCost car() {
+        RoadTypeCost cost = new RoadTypeCost(TravelTimeModel.DEFAULT_SPEED_KMH);
+        for (String type : TravelTimeModel.roadTypes()) {
+            cost.setSpeed(type, TravelTimeModel.freeFlowSpeed(type));
+        }
+        return cost;
+    }
+
+    /**
+     * @return a car that only takes motorways and trunk roads if they save a
+     * lot of time
+     */
+    public static RoadTypeCost avoidMotorways() {
+        RoadTypeCost cost = car();
+        for (String type : new String[]{"motorway", "motorway_link", "trunk", "trunk_link"}) {
+            cost.setPenalty(type, 5);
+        }
+        return cost;
+    }
+
+    /**
+     * @return a truck, slower than a car on the larger roads, staying out of
+     * living streets and avoiding residential ones
+     */
+    public static RoadTypeCost truck() {
+        RoadTypeCost cost = car();
+        for (String type : new String[]{"motorway", "trunk", "primary"}) {
+            cost.setSpeed(type, Math.min(80, TravelTimeModel.freeFlowSpeed(type)));
+        }
+        cost.setSpeed("living_street", 0);
+        cost.setPenalty("residential", 3);
+        return cost;
+    }
+
+    /**
+     * @param roadType The road type, as in the map file
+     * @param speed    The speed in km/h, or 0 to forbid the road type
+     * @return this cost function
+     */
+    public RoadTypeCost setSpeed(String roadType, double speed) {
+        if (!(speed >= 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Invalid speed " + speed);
+        }
+        speeds.put(roadType, speed);
+        return this;
+    }
+
+    /**
+     * @param roadType The road type, as in the map file
+     * @param factor   The factor to multiply its travel times by, at least 1
+     * @return this cost function
+     */
+    public RoadTypeCost setPenalty(String roadType, double factor) {
+        if (!(factor >= 1) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("Invalid penalty " + factor);
+        }
+        penalties.put(roadType, factor);
+        return this;
+    }
+
+    @Override
+    public double cost(CsrGraph graph, int edge) {
+        String type = graph.getRoadType(edge);
+        double speed = speeds.getOrDefault(type, defaultSpeed);
+        if (speed == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return graph.getLength(edge) * 3600 / speed * penalties.getOrDefault(type, 1.0);
+    }
+}
@@ -0,0 +1,377 @@
+package roadgraph;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import geography.GeographicPoint;
+
+/**
+ * A bounded cache of search results for skewed traffic, where the same
+ * routes between popular intersections are asked for over and over.
+ * <p>
+ * Routes are keyed by start, goal, algorithm name and cost profile and kept
+ * in segments by key hash, each an access ordered LinkedHashMap behind its
+ * own lock, so concurrent lookups rarely contend. A segment evicts its least
+ * recently used routes once their total weight, the number of vertices they
+ * hold plus a fixed overhead, exceeds its share of the budget.
+ * <p>
+ * Sources that are asked for distances again and again get a full
+ * ShortestPathTree, kept in a second LRU map with its own weight budget, so
+ * their one-to-many lookups become table lookups. How often a source was asked
+ * for is counted approximately in a small fixed table. No trees are grown if
+ * a tree over every vertex of the graph would not fit that budget.
+ * <p>
+ * A cache serves one graph at a time, the one it was last bound to with
+ * {@link #invalidate(CsrGraph)}, which also drops every entry; MapGraph does
+ * so with every snapshot it publishes. Lookups on any other graph bypass the
+ * cache, and results computed on a graph the cache was rebound from in the
+ * meantime are not stored. Lookups never bind the cache themselves, so a
+ * search still running on an old snapshot cannot claim it. Concurrent misses
+ * on the same key each run their own search.
+ */
+public class RouteCache {
+    private static final int NUM_SEGMENTS = 16;
+    // The weight of an entry on top of the ids it holds
+    private static final int ENTRY_OVERHEAD = 16;
+    // The number of distance lookups from a source before its tree is grown
+    private static final int HOT_SOURCE_THRESHOLD = 3;
+    private static final int SOURCE_COUNTERS = 4096;
+
+    private volatile CsrGraph bound;
+    private final Segment[] segments = new Segment[NUM_SEGMENTS];
+    private final Segment trees;
+    private final AtomicIntegerArray sourceCounts = new AtomicIntegerArray(SOURCE_COUNTERS);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder treeHits = new LongAdder();
+    private final LongAdder treeMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Create a cache whose trees may take a quarter of the route budget
+     *
+     * @param maxWeight The route budget, roughly the number of vertex ids held
+     */
+    public RouteCache(long maxWeight) {
+        this(maxWeight, maxWeight / 4);
+    }
+
+    /**
+     * @param maxRouteWeight The route budget, roughly the number of vertex ids
+     *                       held
+     * @param maxTreeWeight  The shortest path tree budget, roughly the number of
+     *                       vertices held, or 0 to cache no trees
+     */
+    public RouteCache(long maxRouteWeight, long maxTreeWeight) {
+        if ((maxRouteWeight < 0) || (maxTreeWeight < 0)) {
+            throw new IllegalArgumentException("Weights must not be negative");
+        }
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            segments[i] = new Segment(maxRouteWeight / NUM_SEGMENTS);
+        }
+        trees = new Segment(maxTreeWeight);
+    }
+
+    /**
+     * Look up a route, searching for it on a miss
+     *
+     * @param graph     The graph to route on
+     * @param start     The id of the starting vertex
+     * @param goal      The id of the goal vertex
+     * @param algorithm A name for the kind of search; routes are only shared
+     *                  between lookups with equal names
+     * @param profile   What the search minimizes, compared with equals, or null
+     *                  for the lengths
+     * @param search    The search to run on a miss
+     * @return The vertex ids of the path from start to goal (including both),
+     * or an empty array if there is no path
+     */
+    public int[] route(CsrGraph graph, int start, int goal, String algorithm, Object profile, SearchPath search) {
+        if (!serves(graph)) {
+            misses.increment();
+            return search.getPath(graph, start, goal, (v) -> {
+            });
+        }
+        Key key = new Key(start, goal, algorithm, profile);
+        Segment segment = segments[(key.hashCode() & 0x7FFFFFFF) % NUM_SEGMENTS];
+        int[] path = (int[]) segment.get(key);
+        if (path != null) {
+            hits.increment();
+            return path.clone();
+        }
+        misses.increment();
+        path = search.getPath(graph, start, goal, (v) -> {
+        });
+        store(graph, segment, key, path, path.length);
+        return path.clone();
+    }
+
+    /**
+     * Look up a route, searching for it on a miss
+     *
+     * @return The list of intersections from start to goal (including both),
+     * empty if there is no path or a location is not in the graph
+     * @see #route(CsrGraph, int, int, String, Object, SearchPath)
+     */
+    public List<GeographicPoint> route(CsrGraph graph, GeographicPoint start, GeographicPoint goal,
+                                       String algorithm, Object profile, SearchPath search) {
+        int startId = graph.getId(start);
+        int goalId = graph.getId(goal);
+        if ((startId < 0) || (goalId < 0)) {
+            return graph.toLocations(new int[0]);
+        }
+        return graph.toLocations(route(graph, startId, goalId, algorithm, profile, search));
+    }
+
+    /**
+     * Get the shortest path tree of a source if it is cached, growing it if the
+     * source has become hot
+     *
+     * @param graph  The graph to search
+     * @param source The source vertex id
+     * @return The tree of every vertex reachable from the source, or null if
+     * the source is not hot yet or trees of the graph do not fit the budget
+     */
+    public ShortestPathTree tree(CsrGraph graph, int source) {
+        if (!serves(graph)) {
+            return null;
+        }
+        ShortestPathTree tree = (ShortestPathTree) trees.get(source);
+        if (tree != null) {
+            treeHits.increment();
+            return tree;
+        }
+        treeMisses.increment();
+        int slot = (source * 0x9E3779B9 >>> 20) % SOURCE_COUNTERS;
+        // A tree may reach every vertex, so none is grown that might not fit
+        if ((graph.getNumVertices() + ENTRY_OVERHEAD > trees.maxWeight)
+                || (sourceCounts.incrementAndGet(slot) < HOT_SOURCE_THRESHOLD)) {
+            return null;
+        }
+        tree = ShortestPathTree.grow(graph, source, Double.POSITIVE_INFINITY, false);
+        store(graph, trees, source, tree, tree.size());
+        return tree;
+    }
+
+    /**
+     * Compute the shortest path distances from every source to every target,
+     * using the cached trees of hot sources and one pruned Dijkstra search for
+     * the others together
+     *
+     * @return matrix[i][j] is the distance from sources[i] to targets[j], or
+     * positive infinity if there is no path
+     */
+    public double[][] distances(CsrGraph graph, int[] sources, int[] targets) {
+        double[][] matrix = new double[sources.length][];
+        IntList cold = new IntList();
+        for (int i = 0; i < sources.length; i++) {
+            ShortestPathTree tree = tree(graph, sources[i]);
+            if (tree == null) {
+                cold.add(i);
+                continue;
+            }
+            matrix[i] = new double[targets.length];
+            for (int j = 0; j < targets.length; j++) {
+                matrix[i][j] = tree.getDistance(targets[j]);
+            }
+        }
+        if (cold.size() > 0) {
+            int[] coldSources = new int[cold.size()];
+            for (int c = 0; c < coldSources.length; c++) {
+                coldSources[c] = sources[cold.get(c)];
+            }
+            double[][] rows = DistanceMatrix.oneToMany(graph, coldSources, targets);
+            for (int c = 0; c < coldSources.length; c++) {
+                matrix[cold.get(c)] = rows[c];
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Drop every entry and unbind the cache, so every lookup bypasses it until
+     * it is bound again
+     */
+    public void invalidate() {
+        invalidate(null);
+    }
+
+    /**
+     * Drop every entry and bind the cache to a graph. Calls must not overlap.
+     *
+     * @param graph The graph to cache results for from now on, or null to
+     *              leave the cache unbound
+     */
+    public void invalidate(CsrGraph graph) {
+        // Unbound while clearing, so nothing is stored or found for either graph
+        bound = null;
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        trees.clear();
+        for (int i = 0; i < SOURCE_COUNTERS; i++) {
+            sourceCounts.set(i, 0);
+        }
+        invalidations.increment();
+        bound = graph;
+    }
+
+    // Whether the cache is bound to the graph
+    private boolean serves(CsrGraph graph) {
+        return (graph != null) && (bound == graph);
+    }
+
+    private void store(CsrGraph graph, Segment segment, Object key, Object value, int size) {
+        synchronized (segment) {
+            // Checked under the lock, so an invalidate that unbinds the graph clears it afterwards
+            if (bound == graph) {
+                segment.put(key, value, size + ENTRY_OVERHEAD);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of route lookups answered from the cache, 0 if there
+     * were none
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getTreeHitCount() {
+        return treeHits.sum();
+    }
+
+    public long getTreeMissCount() {
+        return treeMisses.sum();
+    }
+
+    /**
+     * @return the number of routes and trees evicted to stay within budget
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return the number of routes held
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the total weight of the routes held
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /** An LRU map with a weight budget, guarded by its own monitor */
+    private class Segment {
+        final long maxWeight;
+        final LinkedHashMap<Object, Entry> map = new LinkedHashMap<>(64, 0.75f, true);
+        long weight;
+
+        Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized Object get(Object key) {
+            Entry entry = map.get(key);
+            return entry == null ? null : entry.value;
+        }
+
+        synchronized void put(Object key, Object value, int entryWeight) {
+            if (entryWeight > maxWeight) {
+                return;
+            }
+            Entry old = map.put(key, new Entry(value, entryWeight));
+            weight += entryWeight - ((old == null) ? 0 : old.weight);
+            Iterator<Entry> eldest = map.values().iterator();
+            while (weight > maxWeight) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+    }
+
+    private static class Entry {
+        final Object value;
+        final int weight;
+
+        Entry(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class Key {
+        final int start;
+        final int goal;
+        final String algorithm;
+        final Object profile;
+
+        Key(int start, int goal, String algorithm, Object profile) {
+            this.start = start;
+            this.goal = goal;
+            this.algorithm = algorithm;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return (start == other.start) && (goal == other.goal) && algorithm.equals(other.algorithm)
+                    && Objects.equals(profile, other.profile);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * start + goal;
+            hash = 31 * hash + algorithm.hashCode();
+            return 31 * hash + Objects.hashCode(profile);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * One point to point request for the RoutingEngine
+ */
+public class RouteQuery {
+    private final GeographicPoint start;
+    private final GeographicPoint goal;
+    private final SearchPath algorithm;
+
+    /**
+     * @param start     The starting location
+     * @param goal      The goal location
+     * @param algorithm The search to answer the query with. It is shared between
+     *                  worker threads, so it must be thread-safe.
+     */
+    public RouteQuery(GeographicPoint start, GeographicPoint goal, SearchPath algorithm) {
+        this.start = start;
+        this.goal = goal;
+        this.algorithm = algorithm;
+    }
+
+    public GeographicPoint getStart() {
+        return start;
+    }
+
+    public GeographicPoint getGoal() {
+        return goal;
+    }
+
+    public SearchPath getAlgorithm() {
+        return algorithm;
+    }
+}
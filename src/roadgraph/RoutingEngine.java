@@ -0,0 +1,118 @@
+package roadgraph;
+
+import geography.GeographicPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Answers batches of route queries in parallel against an immutable snapshot
+ * of a graph.
+ * <p>
+ * The snapshot is a CsrGraph (see {@link MapGraph#compile()}), so later changes
+ * to the MapGraph never affect queries in flight. An engine on a LiveGraph
+ * takes the latest snapshot as each query starts, so queries see road closures
+ * published before they run. Queries run on a work-stealing
+ * ForkJoinPool by default, or on any executor passed in (for example a virtual
+ * thread executor). Each worker thread reuses its own SearchContext, so the
+ * searches share nothing but the read-only graph and scale with the number of
+ * cores. On virtual threads every task gets a fresh context, which costs one
+ * allocation of the search arrays per query.
+ */
+public class RoutingEngine implements AutoCloseable {
+    private final LiveGraph graph;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Create an engine with one worker per available processor
+     *
+     * @param graph The graph snapshot to route on
+     */
+    public RoutingEngine(CsrGraph graph) {
+        this(graph, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an engine with its own work-stealing pool
+     *
+     * @param graph       The graph snapshot to route on
+     * @param parallelism The number of worker threads
+     */
+    public RoutingEngine(CsrGraph graph, int parallelism) {
+        this(graph, new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * Create an engine on an existing executor, which the engine does not shut
+     * down on close
+     *
+     * @param graph    The graph snapshot to route on
+     * @param executor The executor to run the queries on
+     */
+    public RoutingEngine(CsrGraph graph, ExecutorService executor) {
+        this(graph, executor, false);
+    }
+
+    /**
+     * Create an engine that routes on the latest snapshot of a live graph, with
+     * one worker per available processor
+     *
+     * @param graph The live graph to route on
+     */
+    public RoutingEngine(LiveGraph graph) {
+        this(graph, new ForkJoinPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    private RoutingEngine(CsrGraph graph, ExecutorService executor, boolean ownsExecutor) {
+        this(new LiveGraph(graph), executor, ownsExecutor);
+    }
+
+    private RoutingEngine(LiveGraph graph, ExecutorService executor, boolean ownsExecutor) {
+        this.graph = graph;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @return the snapshot the next query will route on
+     */
+    public CsrGraph getGraph() {
+        return graph.snapshot();
+    }
+
+    /**
+     * Queue one query
+     *
+     * @return A future with the list of intersections from start to goal, which
+     * is empty if there is no path or a location is not in the graph
+     */
+    public CompletableFuture<List<GeographicPoint>> route(RouteQuery query) {
+        return CompletableFuture.supplyAsync(() -> query.getAlgorithm().getPath(graph.snapshot(), query.getStart(),
+                query.getGoal(), (x) -> {
+                }), executor);
+    }
+
+    /**
+     * Queue a batch of queries
+     *
+     * @return One future per query, in the same order
+     */
+    public List<CompletableFuture<List<GeographicPoint>>> routeAll(List<RouteQuery> queries) {
+        List<CompletableFuture<List<GeographicPoint>>> results = new ArrayList<>(queries.size());
+        for (RouteQuery query : queries) {
+            results.add(route(query));
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * Reusable per-thread working memory of a shortest path search.
+ * <p>
+ * The distance and parent arrays are only valid for ids stamped with the
+ * current generation, so starting a new search just bumps the generation
+ * counter instead of refilling the arrays. Together with the heap, which is
+ * cleared in O(size), a query only pays for the vertices it touches.
+ * <p>
+ * A context is owned by one thread and must not be shared. A search must not
+ * start another search of the same kind on the same thread (for example from
+ * its nodeSearched hook) while it is still using its context.
+ */
+public class SearchContext {
+    private static final ThreadLocal<SearchContext> FORWARD = ThreadLocal.withInitial(SearchContext::new);
+    private static final ThreadLocal<SearchContext> BACKWARD = ThreadLocal.withInitial(SearchContext::new);
+
+    private double[] distance = new double[0];
+    private int[] parent = new int[0];
+    private int[] reached = new int[0];
+    private int[] settled = new int[0];
+    private int generation;
+    private final IndexedDaryHeap heap = new IndexedDaryHeap(0);
+
+    /**
+     * Get the calling thread's context, reset for a search over ids 0..size-1
+     *
+     * @param size The number of ids the search may touch
+     * @return The reset context
+     */
+    public static SearchContext get(int size) {
+        SearchContext context = FORWARD.get();
+        context.reset(size);
+        return context;
+    }
+
+    /**
+     * Get the calling thread's second context, used by the backward half of a
+     * bidirectional search, reset for a search over ids 0..size-1
+     *
+     * @param size The number of ids the search may touch
+     * @return The reset context
+     */
+    public static SearchContext getBackward(int size) {
+        SearchContext context = BACKWARD.get();
+        context.reset(size);
+        return context;
+    }
+
+    /**
+     * Forget the previous search and make room for ids 0..size-1
+     *
+     * @param size The number of ids the next search may touch
+     */
+    public void reset(int size) {
+        if (size > reached.length) {
+            int capacity = Math.max(size, reached.length + (reached.length >> 1));
+            distance = new double[capacity];
+            parent = new int[capacity];
+            reached = new int[capacity];
+            settled = new int[capacity];
+            generation = 0;
+        }
+        heap.clear();
+        heap.ensureCapacity(size);
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+    }
+
+    public IndexedDaryHeap getHeap() {
+        return heap;
+    }
+
+    public boolean isReached(int id) {
+        return reached[id] == generation;
+    }
+
+    /**
+     * @return the tentative distance of the id, or positive infinity if this
+     * search has not reached it yet
+     */
+    public double getDistance(int id) {
+        return (reached[id] == generation) ? distance[id] : Double.POSITIVE_INFINITY;
+    }
+
+    public int getParent(int id) {
+        return parent[id];
+    }
+
+    /**
+     * Record a new tentative distance for an id
+     *
+     * @param id       The id that was reached
+     * @param distance The distance of the id from the source
+     * @param parent   The id it was reached from
+     */
+    public void update(int id, double distance, int parent) {
+        this.distance[id] = distance;
+        this.parent[id] = parent;
+        reached[id] = generation;
+    }
+
+    public boolean isSettled(int id) {
+        return settled[id] == generation;
+    }
+
+    public void settle(int id) {
+        settled[id] = generation;
+    }
+
+    /**
+     * Follow the parent pointers back from the goal to the start
+     *
+     * @return the ids of the path from start to goal
+     */
+    public int[] pathTo(int start, int goal) {
+        return Utils.constructPath(start, goal, parent);
+    }
+}
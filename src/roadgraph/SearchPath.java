@@ -1,13 +1,41 @@
 package roadgraph;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import geography.GeographicPoint;
 
 public interface SearchPath {
-    List<GeographicPoint>  getPath(HashMap<GeographicPoint, MapNode> vertices, GeographicPoint start, GeographicPoint goal,
-                                   Consumer<GeographicPoint> nodeSearched);
-    
+    /**
+     * Find a path between two vertices of a compiled graph
+     *
+     * @param graph        The graph to search
+     * @param start        The id of the starting vertex
+     * @param goal         The id of the goal vertex
+     * @param nodeSearched A hook for visualization, called with every vertex id the
+     *                     search reaches
+     * @return The vertex ids of the path from start to goal (including both), or an
+     * empty array if there is no path.
+     */
+    int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched);
+
+    default List<GeographicPoint> getPath(CsrGraph graph, GeographicPoint start, GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched) {
+        int startId = graph.getId(start);
+        int goalId = graph.getId(goal);
+        if ((startId < 0) || (goalId < 0)) {
+            return new ArrayList<>();
+        }
+        int[] path = getPath(graph, startId, goalId, (v) -> nodeSearched.accept(graph.getLocation(v)));
+        return graph.toLocations(path);
+    }
+
+    default List<GeographicPoint> getPath(HashMap<GeographicPoint, MapNode> vertices, GeographicPoint start,
+                                          GeographicPoint goal, Consumer<GeographicPoint> nodeSearched) {
+        return getPath(CsrGraph.compile(vertices), start, goal, nodeSearched);
+    }
+
 }
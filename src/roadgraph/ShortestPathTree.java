@@ -0,0 +1,187 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * The shortest paths from one source to every vertex within a distance
+ * bound, found by a Dijkstra search that stops at the bound.
+ * <p>
+ * Only the settled vertices are stored, in settling order, together with an
+ * open addressing table from vertex id to slot, so a tree costs memory in
+ * proportion to the area it covers rather than the size of the graph and
+ * many trees can be cached at once. Instances are immutable and safe to
+ * share between threads.
+ */
+public class ShortestPathTree {
+    private final int source;
+    private final double maxDistance;
+    private final boolean reverse;
+    private final int[] vertices;
+    private final double[] distances;
+    private final int[] parentEdges;
+    private final int[] table;
+
+    private ShortestPathTree(int source, double maxDistance, boolean reverse, int[] vertices,
+                             double[] distances, int[] parentEdges) {
+        this.source = source;
+        this.maxDistance = maxDistance;
+        this.reverse = reverse;
+        this.vertices = vertices;
+        this.distances = distances;
+        this.parentEdges = parentEdges;
+        table = new int[Integer.highestOneBit(Math.max(4, vertices.length * 2)) * 2];
+        Arrays.fill(table, -1);
+        for (int slot = 0; slot < vertices.length; slot++) {
+            int i = hash(vertices[slot]) & (table.length - 1);
+            while (table[i] >= 0) {
+                i = (i + 1) & (table.length - 1);
+            }
+            table[i] = slot;
+        }
+    }
+
+    /**
+     * Run Dijkstra's algorithm from the source until the next vertex is
+     * farther away than the bound
+     *
+     * @param graph       The graph to search
+     * @param source      The vertex id to start at
+     * @param maxDistance The largest distance to settle, in km
+     * @param reverse     Whether to follow edges backwards, giving the paths to
+     *                    the source instead of from it
+     * @return The tree of every vertex within maxDistance
+     */
+    public static ShortestPathTree grow(CsrGraph graph, int source, double maxDistance, boolean reverse) {
+        SearchContext context = SearchContext.get(graph.getNumVertices());
+        IndexedDaryHeap pq = context.getHeap();
+        IntList settled = new IntList();
+        // The parent of a vertex in this search is the edge it was reached by
+        context.update(source, 0, -1);
+        pq.push(source, 0);
+        while (!pq.isEmpty() && (pq.peekKey() <= maxDistance)) {
+            int curr = pq.poll();
+            context.settle(curr);
+            settled.add(curr);
+            double currDistance = context.getDistance(curr);
+            int end = reverse ? graph.endInEdge(curr) : graph.endEdge(curr);
+            for (int i = reverse ? graph.firstInEdge(curr) : graph.firstEdge(curr); i < end; i++) {
+                int edge = reverse ? graph.getInEdge(i) : i;
+                int next = reverse ? graph.getSource(edge) : graph.getTarget(edge);
+                double nextDistance = currDistance + graph.getLength(edge);
+                if (nextDistance < context.getDistance(next)) {
+                    context.update(next, nextDistance, edge);
+                    pq.push(next, nextDistance);
+                }
+            }
+        }
+
+        int[] vertices = settled.toArray();
+        double[] distances = new double[vertices.length];
+        int[] parentEdges = new int[vertices.length];
+        for (int slot = 0; slot < vertices.length; slot++) {
+            distances[slot] = context.getDistance(vertices[slot]);
+            parentEdges[slot] = context.getParent(vertices[slot]);
+        }
+        return new ShortestPathTree(source, maxDistance, reverse, vertices, distances, parentEdges);
+    }
+
+    private static int hash(int vertex) {
+        int h = vertex * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int slot(int vertex) {
+        int i = hash(vertex) & (table.length - 1);
+        while (table[i] >= 0) {
+            if (vertices[table[i]] == vertex) {
+                return table[i];
+            }
+            i = (i + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    /**
+     * @return the distance bound the tree was grown to; every vertex at most
+     * this far from the source is in the tree
+     */
+    public double getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return the number of vertices in the tree
+     */
+    public int size() {
+        return vertices.length;
+    }
+
+    /**
+     * @param index An index from 0 to size() - 1
+     * @return the vertex settled at that position, in order of distance
+     */
+    public int getVertex(int index) {
+        return vertices[index];
+    }
+
+    public boolean contains(int vertex) {
+        return slot(vertex) >= 0;
+    }
+
+    /**
+     * @return the shortest distance between the source and the vertex, or
+     * positive infinity if it is not in the tree
+     */
+    public double getDistance(int vertex) {
+        int slot = slot(vertex);
+        return slot < 0 ? Double.POSITIVE_INFINITY : distances[slot];
+    }
+
+    /**
+     * @return the last edge of the shortest path to the vertex (the first one
+     * for a reverse tree), or -1 for the source and vertices outside the tree
+     */
+    public int getParentEdge(int vertex) {
+        int slot = slot(vertex);
+        return slot < 0 ? -1 : parentEdges[slot];
+    }
+
+    /**
+     * Follow the parent edges from a vertex back to the source
+     *
+     * @param graph  The graph the tree was grown in
+     * @param vertex A vertex in the tree
+     * @return the edge ids of the path in travel order, from the source to the
+     * vertex (from the vertex to the source for a reverse tree), or null if the
+     * vertex is not in the tree
+     */
+    public int[] edgesTo(CsrGraph graph, int vertex) {
+        if (!contains(vertex)) {
+            return null;
+        }
+        IntList edges = new IntList();
+        int curr = vertex;
+        int edge;
+        while ((edge = getParentEdge(curr)) >= 0) {
+            edges.add(edge);
+            curr = reverse ? graph.getTarget(edge) : graph.getSource(edge);
+        }
+        int[] result = edges.toArray();
+        if (!reverse) {
+            for (int i = 0, j = result.length - 1; i < j; i++, j--) {
+                int t = result[i];
+                result[i] = result[j];
+                result[j] = t;
+            }
+        }
+        return result;
+    }
+}
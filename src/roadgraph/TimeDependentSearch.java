@@ -0,0 +1,111 @@
+package roadgraph;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Finds the quickest path for a given departure time under a
+ * {@link TravelTimeModel}.
+ * <p>
+ * This is Dijkstra's algorithm with the label of a vertex being the time it
+ * is reached: an edge is relaxed with the travel time at the moment it is
+ * entered. Since the model is FIFO, waiting never pays and the first time a
+ * vertex is settled is the earliest it can be reached. Given a distance
+ * Heuristic the search turns into A*, using the distance bound times the
+ * fastest pace of the model as a bound on the remaining time.
+ */
+public class TimeDependentSearch implements SearchPath {
+    private final TravelTimeModel model;
+    private final double departureTime;
+    private final Heuristic heuristic;
+    private final double minPace;
+
+    /**
+     * Create a time dependent Dijkstra search
+     *
+     * @param model         The travel times to minimize
+     * @param departureTime The time of leaving the start, in seconds after
+     *                      midnight
+     */
+    public TimeDependentSearch(TravelTimeModel model, double departureTime) {
+        this(model, departureTime, null);
+    }
+
+    /**
+     * Create a time dependent A* search
+     *
+     * @param model         The travel times to minimize
+     * @param departureTime The time of leaving the start, in seconds after
+     *                      midnight
+     * @param heuristic     A lower bound on the remaining distance in km, or
+     *                      null to search without one
+     */
+    public TimeDependentSearch(TravelTimeModel model, double departureTime, Heuristic heuristic) {
+        this.model = model;
+        this.departureTime = departureTime;
+        this.heuristic = heuristic;
+        this.minPace = model.getMinPace();
+    }
+
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        SearchContext context = search(graph, start, goal, nodeSearched);
+        if (!context.isSettled(goal)) {
+            return new int[0];
+        }
+        return context.pathTo(start, goal);
+    }
+
+    /**
+     * Find the quickest travel time between two vertices
+     *
+     * @param graph The graph to search, the one the model was made for
+     * @param start The id of the starting vertex
+     * @param goal  The id of the goal vertex
+     * @return the time from departing the start to arriving at the goal, in
+     * seconds, or positive infinity if there is no path
+     */
+    public double travelTime(CsrGraph graph, int start, int goal) {
+        SearchContext context = search(graph, start, goal, (v) -> {
+        });
+        return context.isSettled(goal) ? context.getDistance(goal) : Double.POSITIVE_INFINITY;
+    }
+
+    // The distances in the context are the times since departure
+    private SearchContext search(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        if (graph != model.getGraph()) {
+            throw new IllegalArgumentException("The travel time model belongs to another graph");
+        }
+        SearchContext context = SearchContext.get(graph.getNumVertices());
+        IndexedDaryHeap pq = context.getHeap();
+
+        context.update(start, 0, start);
+        pq.push(start, 0);
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            if (curr == goal) {
+                break;
+            }
+            double currTime = context.getDistance(curr);
+            double now = departureTime + currTime;
+            for (int edge = graph.endEdge(curr) - 1; edge >= graph.firstEdge(curr); edge--) {
+                int next = graph.getTarget(edge);
+                if (context.isSettled(next)) {
+                    continue;
+                }
+                double nextTime = currTime + model.travelTime(edge, now);
+                if (nextTime < context.getDistance(next)) {
+                    context.update(next, nextTime, curr);
+                    // Hook for visualization. See writeup.
+                    nodeSearched.accept(next);
+                    double key = nextTime;
+                    if (heuristic != null) {
+                        key += heuristic.lowerBound(graph, next, goal) * minPace;
+                    }
+                    pq.push(next, key);
+                }
+            }
+        }
+        return context;
+    }
+}
@@ -0,0 +1,299 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Time of day dependent travel times for the edges of a compiled graph.
+ * <p>
+ * A profile is a piecewise linear function from the time of day to the pace
+ * of driving (seconds per km), repeating every day. The travel time of an
+ * edge entered at time t is its length times the pace of its profile at t, so
+ * each edge carries a piecewise linear travel time function without storing
+ * one. The breakpoints of all profiles are kept in two shared arrays and an
+ * edge refers to its profile by index: through its road type by default, or
+ * through a per edge override, which is only allocated once an edge is
+ * overridden.
+ * <p>
+ * Searches assume the FIFO property, that entering an edge later never means
+ * leaving it earlier. It holds as long as the pace of a profile changes by
+ * less than one second per second divided by the length of the longest edge
+ * using it, which is true by a wide margin for traffic patterns measured in
+ * minutes per hour.
+ * <p>
+ * A model must not be changed while it is being searched, but once set up it
+ * is safe to share between threads.
+ */
+public class TravelTimeModel {
+    public static final double SECONDS_PER_DAY = 24 * 3600;
+
+    /** The speed of roads whose type has no profile, in km/h */
+    public static final double DEFAULT_SPEED_KMH = 30;
+
+    // The common OpenStreetMap road types, their free flow speeds in km/h and
+    // the fraction of it left in rush hour
+    private static final String[] ROAD_TYPES = {"motorway", "motorway_link", "trunk", "trunk_link", "primary",
+            "primary_link", "secondary", "secondary_link", "tertiary", "tertiary_link", "unclassified",
+            "residential", "living_street"};
+    private static final double[] FREE_FLOW_SPEEDS = {105, 60, 90, 50, 65, 40, 55, 35, 45, 30, 40, 30, 10};
+    private static final double[] RUSH_HOUR_FACTORS = {0.45, 0.6, 0.5, 0.6, 0.6, 0.7, 0.65, 0.75, 0.75, 0.8, 1,
+            1, 1};
+
+    private final CsrGraph graph;
+
+    // Profile p has the breakpoints profileOffsets[p] .. profileOffsets[p + 1] - 1
+    private int[] profileOffsets = new int[1];
+    private float[] breakTimes = new float[16];
+    private float[] breakPaces = new float[16];
+    private double[] minPaces = new double[0];
+    private int numProfiles;
+    private int numBreaks;
+    private final HashMap<String, Integer> profileIds = new HashMap<>();
+
+    private final int[] typeProfiles;
+    private int[] edgeProfiles;
+
+    /**
+     * Create a model where every road drives at DEFAULT_SPEED_KMH at all times
+     *
+     * @param graph The graph whose edges the model covers
+     */
+    public TravelTimeModel(CsrGraph graph) {
+        this.graph = graph;
+        int constant = addProfile("default", new double[]{0}, new double[]{DEFAULT_SPEED_KMH});
+        typeProfiles = new int[graph.getNumRoadTypes()];
+        Arrays.fill(typeProfiles, constant);
+    }
+
+    /**
+     * Create a model with a profile per common OpenStreetMap road type: a free
+     * flow speed that drops during the morning and evening rush hours on the
+     * larger roads
+     *
+     * @param graph The graph whose edges the model covers
+     * @return The model
+     */
+    public static TravelTimeModel withDefaults(CsrGraph graph) {
+        TravelTimeModel model = new TravelTimeModel(graph);
+        double[] times = {0, 6.5, 8, 9.5, 16, 17.5, 19, 21};
+        for (int i = 0; i < times.length; i++) {
+            times[i] *= 3600;
+        }
+        for (int i = 0; i < ROAD_TYPES.length; i++) {
+            String type = ROAD_TYPES[i];
+            double free = FREE_FLOW_SPEEDS[i];
+            double rush = free * RUSH_HOUR_FACTORS[i];
+            int profile;
+            if (rush == free) {
+                profile = model.addProfile(type, new double[]{0}, new double[]{free});
+            } else {
+                profile = model.addProfile(type, times, new double[]{free, free, rush, free, free, rush, free, free});
+            }
+            model.setRoadTypeProfile(type, profile);
+        }
+        return model;
+    }
+
+    /**
+     * @return the road types with a default profile
+     */
+    static List<String> roadTypes() {
+        return Collections.unmodifiableList(Arrays.asList(ROAD_TYPES));
+    }
+
+    /**
+     * @return the default free flow speed of a road type in km/h, or
+     * DEFAULT_SPEED_KMH if it has none
+     */
+    static double freeFlowSpeed(String roadType) {
+        for (int i = 0; i < ROAD_TYPES.length; i++) {
+            if (ROAD_TYPES[i].equals(roadType)) {
+                return FREE_FLOW_SPEEDS[i];
+            }
+        }
+        return DEFAULT_SPEED_KMH;
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Add a profile. Between breakpoints the pace (the inverse of the speed)
+     * changes linearly, and after the last breakpoint it goes back towards the
+     * first one of the next day.
+     *
+     * @param name   A name to find the profile by with getProfileId
+     * @param times  The times of day of the breakpoints in seconds after
+     *               midnight, increasing and in [0, SECONDS_PER_DAY)
+     * @param speeds The speed at every breakpoint in km/h
+     * @return The id of the new profile
+     * @throws IllegalArgumentException If the name is taken or the breakpoints
+     *                                  are invalid
+     */
+    public int addProfile(String name, double[] times, double[] speeds) throws IllegalArgumentException {
+        if (profileIds.containsKey(name) || (times.length == 0) || (times.length != speeds.length)) {
+            throw new IllegalArgumentException("Invalid profile " + name);
+        }
+        for (int i = 0; i < times.length; i++) {
+            if ((times[i] < 0) || (times[i] >= SECONDS_PER_DAY) || ((i > 0) && (times[i] <= times[i - 1]))
+                    || !(speeds[i] > 0) || Double.isInfinite(speeds[i])) {
+                throw new IllegalArgumentException("Invalid breakpoint " + i + " of profile " + name);
+            }
+        }
+        if (numBreaks + times.length > breakTimes.length) {
+            int capacity = Math.max(numBreaks + times.length, 2 * breakTimes.length);
+            breakTimes = Arrays.copyOf(breakTimes, capacity);
+            breakPaces = Arrays.copyOf(breakPaces, capacity);
+        }
+        double minPace = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < times.length; i++) {
+            breakTimes[numBreaks] = (float) times[i];
+            breakPaces[numBreaks] = (float) (3600 / speeds[i]);
+            minPace = Math.min(minPace, breakPaces[numBreaks]);
+            numBreaks++;
+        }
+        profileOffsets = Arrays.copyOf(profileOffsets, numProfiles + 2);
+        profileOffsets[numProfiles + 1] = numBreaks;
+        minPaces = Arrays.copyOf(minPaces, numProfiles + 1);
+        minPaces[numProfiles] = minPace;
+        profileIds.put(name, numProfiles);
+        return numProfiles++;
+    }
+
+    /**
+     * @return the id of the profile with the given name, or -1 if there is none
+     */
+    public int getProfileId(String name) {
+        Integer id = profileIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public int getNumProfiles() {
+        return numProfiles;
+    }
+
+    /**
+     * Use a profile for every edge of a road type that is not overridden. Types
+     * that do not occur in the graph are ignored.
+     *
+     * @param roadType The road type, as in the map file
+     * @param profile  The profile id
+     */
+    public void setRoadTypeProfile(String roadType, int profile) {
+        checkProfile(profile);
+        for (int type = 0; type < graph.getNumRoadTypes(); type++) {
+            if (graph.getInternedRoadType(type).equals(roadType)) {
+                typeProfiles[type] = profile;
+            }
+        }
+    }
+
+    /**
+     * Use a profile for one edge regardless of its road type
+     *
+     * @param edge    The edge id
+     * @param profile The profile id, or -1 to go back to the road type's profile
+     */
+    public void setEdgeProfile(int edge, int profile) {
+        if (profile != -1) {
+            checkProfile(profile);
+        }
+        if (edgeProfiles == null) {
+            if (profile == -1) {
+                return;
+            }
+            edgeProfiles = new int[graph.getNumEdges()];
+            Arrays.fill(edgeProfiles, -1);
+        }
+        edgeProfiles[edge] = profile;
+    }
+
+    private void checkProfile(int profile) {
+        if ((profile < 0) || (profile >= numProfiles)) {
+            throw new IllegalArgumentException("No profile " + profile);
+        }
+    }
+
+    /**
+     * @return the profile id the edge is driven with
+     */
+    public int getProfile(int edge) {
+        if (edgeProfiles != null) {
+            int profile = edgeProfiles[edge];
+            if (profile >= 0) {
+                return profile;
+            }
+        }
+        return typeProfiles[graph.getRoadTypeId(edge)];
+    }
+
+    /**
+     * @param edge          The edge id
+     * @param departureTime The time the edge is entered, in seconds after
+     *                      midnight of the first day; later days repeat it
+     * @return the time it takes to drive the edge, in seconds
+     */
+    public double travelTime(int edge, double departureTime) {
+        return graph.getLength(edge) * pace(getProfile(edge), departureTime);
+    }
+
+    /**
+     * @return the shortest time it ever takes to drive the edge, in seconds
+     */
+    public double minTravelTime(int edge) {
+        return graph.getLength(edge) * minPaces[getProfile(edge)];
+    }
+
+    /**
+     * @return the pace of the fastest profile, in seconds per km; multiplied by
+     * a lower bound on the distance it gives a lower bound on the travel time
+     */
+    public double getMinPace() {
+        double min = Double.POSITIVE_INFINITY;
+        for (int p = 0; p < numProfiles; p++) {
+            min = Math.min(min, minPaces[p]);
+        }
+        return min;
+    }
+
+    /**
+     * @return the pace of a profile at a time, in seconds per km
+     */
+    public double pace(int profile, double time) {
+        int first = profileOffsets[profile];
+        int end = profileOffsets[profile + 1];
+        if (end - first == 1) {
+            return breakPaces[first];
+        }
+        double t = time % SECONDS_PER_DAY;
+        if (t < 0) {
+            t += SECONDS_PER_DAY;
+        }
+        // Few breakpoints per profile, so a linear scan beats a binary search
+        int next = first;
+        while ((next < end) && (breakTimes[next] <= t)) {
+            next++;
+        }
+        int prev = next - 1;
+        double prevTime;
+        double nextTime;
+        if (next == first) {
+            // Before the first breakpoint: wrap to the last one of the day before
+            prev = end - 1;
+            prevTime = breakTimes[prev] - SECONDS_PER_DAY;
+            nextTime = breakTimes[next];
+        } else if (next == end) {
+            next = first;
+            prevTime = breakTimes[prev];
+            nextTime = breakTimes[next] + SECONDS_PER_DAY;
+        } else {
+            prevTime = breakTimes[prev];
+            nextTime = breakTimes[next];
+        }
+        double f = (t - prevTime) / (nextTime - prevTime);
+        return breakPaces[prev] + f * (breakPaces[next] - breakPaces[prev]);
+    }
+}
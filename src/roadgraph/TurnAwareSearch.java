@@ -0,0 +1,114 @@
+package roadgraph;
+
+import java.util.function.IntConsumer;
+
+/**
+ * An edge based search that honours a {@link TurnCostTable}.
+ * <p>
+ * A node based search settles each intersection once, so it cannot take a
+ * detour to avoid a forbidden turn at an intersection it already reached.
+ * This search settles edges instead: the label of an edge is the least cost
+ * of arriving at its end having driven it last, and relaxing it adds the
+ * turn cost onto each edge leaving its target. The line graph this amounts
+ * to is never built; its arcs are the out edges of the target found in the
+ * CSR graph and the ids are the edge ids, so the working memory of
+ * SearchContext is simply sized by the number of edges.
+ * <p>
+ * With a Heuristic the search is A*, bounding the cost from the end of an
+ * edge to the goal; turn costs are never negative so it stays consistent.
+ */
+public class TurnAwareSearch implements SearchPath {
+    private final TurnCostTable turns;
+    private final WeightProfile profile;
+    private final Heuristic heuristic;
+
+    /**
+     * Create an edge based Dijkstra search minimizing length plus turn costs
+     */
+    public TurnAwareSearch(TurnCostTable turns) {
+        this(turns, null, null);
+    }
+
+    /**
+     * @param turns     The turn costs
+     * @param profile   The edge costs to minimize, or null for the lengths
+     * @param heuristic A lower bound on distances, scaled by the profile's
+     *                  heuristic scale, or null for Dijkstra's algorithm
+     */
+    public TurnAwareSearch(TurnCostTable turns, WeightProfile profile, Heuristic heuristic) {
+        this.turns = turns;
+        this.profile = profile;
+        this.heuristic = heuristic;
+    }
+
+    @Override
+    public int[] getPath(CsrGraph graph, int start, int goal, IntConsumer nodeSearched) {
+        if (graph != turns.getGraph()) {
+            throw new IllegalArgumentException("The turn cost table belongs to another graph");
+        }
+        if (start == goal) {
+            return new int[]{start};
+        }
+        float[] weights = (profile == null) ? null : profile.weightsFor(graph);
+        double scale = (profile == null) ? 1 : profile.getHeuristicScale();
+        SearchContext context = SearchContext.get(graph.getNumEdges());
+        IndexedDaryHeap pq = context.getHeap();
+
+        // The parent of an edge is the edge driven before it, -1 for the first
+        for (int edge = graph.firstEdge(start); edge < graph.endEdge(start); edge++) {
+            double cost = (weights == null) ? graph.getLength(edge) : weights[edge];
+            if (cost < context.getDistance(edge)) {
+                context.update(edge, cost, -1);
+                nodeSearched.accept(graph.getTarget(edge));
+                pq.push(edge, cost + bound(graph, graph.getTarget(edge), goal, scale));
+            }
+        }
+        int last = -1;
+        while (!pq.isEmpty()) {
+            int curr = pq.poll();
+            context.settle(curr);
+            int via = graph.getTarget(curr);
+            if (via == goal) {
+                last = curr;
+                break;
+            }
+            double currCost = context.getDistance(curr);
+            for (int edge = graph.firstEdge(via); edge < graph.endEdge(via); edge++) {
+                if (context.isSettled(edge)) {
+                    continue;
+                }
+                double turn = turns.getTurnCost(curr, edge);
+                if (turn == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                double nextCost = currCost + turn + ((weights == null) ? graph.getLength(edge) : weights[edge]);
+                if (nextCost < context.getDistance(edge)) {
+                    context.update(edge, nextCost, curr);
+                    // Hook for visualization. See writeup.
+                    nodeSearched.accept(graph.getTarget(edge));
+                    pq.push(edge, nextCost + bound(graph, graph.getTarget(edge), goal, scale));
+                }
+            }
+        }
+
+        if (last < 0) {
+            return new int[0];
+        }
+        int length = 2;
+        for (int edge = last; context.getParent(edge) >= 0; edge = context.getParent(edge)) {
+            length++;
+        }
+        int[] path = new int[length];
+        int edge = last;
+        for (int i = length - 1; i > 0; i--) {
+            path[i] = graph.getTarget(edge);
+            edge = (i > 1) ? context.getParent(edge) : edge;
+        }
+        path[0] = start;
+        return path;
+    }
+
+    private double bound(CsrGraph graph, int vertex, int goal, double scale) {
+        return (heuristic == null) ? 0 : scale * heuristic.lowerBound(graph, vertex, goal);
+    }
+}
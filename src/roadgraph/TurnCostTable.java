@@ -0,0 +1,169 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+import geography.GeographicPoint;
+
+/**
+ * The cost of turning from one edge into the next at an intersection, for
+ * the edge based {@link TurnAwareSearch}.
+ * <p>
+ * Turning onto the edge straight back to where one came from costs the
+ * U-turn penalty and every other turn is free, unless the table holds an
+ * explicit cost for it. Explicit costs are kept per via vertex, the vertex
+ * the turn is made at, as a sorted array of (incoming edge, outgoing edge)
+ * keys packed into longs with a parallel array of costs. Most vertices have
+ * none and cost a null reference, and a lookup is a binary search over the
+ * few turns of one intersection.
+ * <p>
+ * Costs are in the unit of the edge weights searched with the table (km
+ * without a WeightProfile). A table must not be changed while it is being
+ * searched, but once set up it is safe to share between threads.
+ */
+public class TurnCostTable {
+    private final CsrGraph graph;
+    private final double uTurnPenalty;
+    private final long[][] keys;
+    private final float[][] costs;
+
+    /**
+     * Create a table without explicit turn costs
+     *
+     * @param graph        The graph whose edges the turns are between
+     * @param uTurnPenalty The cost of turning back onto the reverse of the
+     *                     incoming edge, or positive infinity to forbid it
+     */
+    public TurnCostTable(CsrGraph graph, double uTurnPenalty) {
+        if (!(uTurnPenalty >= 0)) {
+            throw new IllegalArgumentException("Invalid U-turn penalty " + uTurnPenalty);
+        }
+        this.graph = graph;
+        this.uTurnPenalty = uTurnPenalty;
+        keys = new long[graph.getNumVertices()][];
+        costs = new float[graph.getNumVertices()][];
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    public double getUTurnPenalty() {
+        return uTurnPenalty;
+    }
+
+    /**
+     * Set the cost of one turn
+     *
+     * @param inEdge  The edge driven into the intersection
+     * @param outEdge The edge driven out of it
+     * @param cost    The cost of the turn, or positive infinity to forbid it
+     * @throws IllegalArgumentException If the edges do not meet or the cost is
+     *                                  negative
+     */
+    public void setTurnCost(int inEdge, int outEdge, double cost) throws IllegalArgumentException {
+        int via = graph.getTarget(inEdge);
+        if ((graph.getSource(outEdge) != via) || !(cost >= 0)) {
+            throw new IllegalArgumentException("Invalid turn " + inEdge + " -> " + outEdge);
+        }
+        long key = key(inEdge, outEdge);
+        long[] nodeKeys = keys[via];
+        float[] nodeCosts = costs[via];
+        int index = (nodeKeys == null) ? -1 : Arrays.binarySearch(nodeKeys, key);
+        if (index >= 0) {
+            nodeCosts[index] = (float) cost;
+            return;
+        }
+        int insert = -index - 1;
+        int size = (nodeKeys == null) ? 0 : nodeKeys.length;
+        long[] newKeys = new long[size + 1];
+        float[] newCosts = new float[size + 1];
+        if (nodeKeys != null) {
+            System.arraycopy(nodeKeys, 0, newKeys, 0, insert);
+            System.arraycopy(nodeKeys, insert, newKeys, insert + 1, size - insert);
+            System.arraycopy(nodeCosts, 0, newCosts, 0, insert);
+            System.arraycopy(nodeCosts, insert, newCosts, insert + 1, size - insert);
+        }
+        newKeys[insert] = key;
+        newCosts[insert] = (float) cost;
+        keys[via] = newKeys;
+        costs[via] = newCosts;
+    }
+
+    /**
+     * Forbid one turn, like a no left turn sign
+     */
+    public void forbidTurn(int inEdge, int outEdge) {
+        setTurnCost(inEdge, outEdge, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Forbid every turn from an edge except the one onto the given edge, like
+     * a straight on only sign
+     */
+    public void onlyTurn(int inEdge, int outEdge) {
+        int via = graph.getTarget(inEdge);
+        if (graph.getSource(outEdge) != via) {
+            throw new IllegalArgumentException("Invalid turn " + inEdge + " -> " + outEdge);
+        }
+        for (int edge = graph.firstEdge(via); edge < graph.endEdge(via); edge++) {
+            if (edge != outEdge) {
+                forbidTurn(inEdge, edge);
+            }
+        }
+    }
+
+    /**
+     * Forbid the turns from the roads between two intersections onto the roads
+     * between the second one and a third
+     *
+     * @param from The intersection the turn comes from
+     * @param via  The intersection the turn is made at
+     * @param to   The intersection the turn goes to
+     * @return the number of turns forbidden, 0 if there are no such roads
+     */
+    public int forbidTurn(GeographicPoint from, GeographicPoint via, GeographicPoint to) {
+        int fromId = graph.getId(from);
+        int viaId = graph.getId(via);
+        int toId = graph.getId(to);
+        if ((fromId < 0) || (viaId < 0) || (toId < 0)) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = graph.firstInEdge(viaId); i < graph.endInEdge(viaId); i++) {
+            int inEdge = graph.getInEdge(i);
+            if (graph.getSource(inEdge) != fromId) {
+                continue;
+            }
+            for (int outEdge = graph.firstEdge(viaId); outEdge < graph.endEdge(viaId); outEdge++) {
+                if (graph.getTarget(outEdge) == toId) {
+                    forbidTurn(inEdge, outEdge);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param inEdge  The edge driven into the intersection
+     * @param outEdge An edge leaving the target of inEdge
+     * @return the cost of the turn, positive infinity if it is forbidden
+     */
+    public double getTurnCost(int inEdge, int outEdge) {
+        long[] nodeKeys = keys[graph.getSource(outEdge)];
+        if (nodeKeys != null) {
+            int index = Arrays.binarySearch(nodeKeys, key(inEdge, outEdge));
+            if (index >= 0) {
+                return costs[graph.getSource(outEdge)][index];
+            }
+        }
+        if (graph.getTarget(outEdge) == graph.getSource(inEdge)) {
+            return uTurnPenalty;
+        }
+        return 0;
+    }
+
+    private static long key(int inEdge, int outEdge) {
+        return ((long) inEdge << 32) | (outEdge & 0xFFFFFFFFL);
+    }
+}
@@ -1,20 +1,25 @@
 package roadgraph;
 
-import geography.GeographicPoint;
-
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-
 public class Utils {
-    public static  <T extends MapNode> List<GeographicPoint> constructPath(T startNode, T goalNode, HashMap<T, T> parentMap) {
-        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
-        T curr = goalNode;
-        while (startNode != curr) {
-            path.addFirst(curr.getLocation());
-            curr = parentMap.get(curr);
+    /**
+     * Walk a parent array back from the goal to the start
+     *
+     * @param start  The id of the start vertex
+     * @param goal   The id of the goal vertex
+     * @param parent The parent of every vertex reached by the search
+     * @return The vertex ids of the path from start to goal
+     */
+    public static int[] constructPath(int start, int goal, int[] parent) {
+        int length = 1;
+        for (int curr = goal; curr != start; curr = parent[curr]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int curr = goal;
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = curr;
+            curr = (i > 0) ? parent[curr] : curr;
         }
-        path.addFirst(startNode.getLocation());
         return path;
     }
 }
@@ -0,0 +1,74 @@
+package roadgraph;
+
+/**
+ * The cost of every edge of a graph under a {@link CostFunction}, computed
+ * once and stored in a float array indexed by edge id, so a search reads an
+ * array instead of calling the cost function in its inner loop.
+ * <p>
+ * A profile also knows the smallest cost per km of any edge. A Heuristic
+ * bounds distances, and scaled by that factor it bounds costs, which keeps A*
+ * and the landmark heuristics usable with any profile. Instances are
+ * immutable, so several profiles can be searched on the same graph at once.
+ */
+public class WeightProfile {
+    private final CsrGraph graph;
+    private final float[] weights;
+    private final double heuristicScale;
+
+    /**
+     * Evaluate a cost function on every edge of a graph
+     *
+     * @param graph The graph
+     * @param cost  The cost function
+     * @throws IllegalArgumentException If a cost is negative or not a number
+     */
+    public WeightProfile(CsrGraph graph, CostFunction cost) throws IllegalArgumentException {
+        this.graph = graph;
+        weights = new float[graph.getNumEdges()];
+        double scale = Double.POSITIVE_INFINITY;
+        for (int edge = 0; edge < weights.length; edge++) {
+            double weight = cost.cost(graph, edge);
+            if (!(weight >= 0)) {
+                throw new IllegalArgumentException("Invalid cost " + weight + " of edge " + edge);
+            }
+            weights[edge] = (float) weight;
+            double length = graph.getLength(edge);
+            if ((length > 0) && !graph.isClosed(edge)) {
+                scale = Math.min(scale, weights[edge] / length);
+            }
+        }
+        // Rounding down keeps scaled distance bounds below the float weights
+        heuristicScale = (scale == Double.POSITIVE_INFINITY) ? 0 : Math.max(0, scale * (1 - 1e-6));
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the cost of the edge, or positive infinity if it must not be
+     * driven
+     */
+    public double getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @return the factor that turns a lower bound on the distance in km into
+     * a lower bound on the cost
+     */
+    public double getHeuristicScale() {
+        return heuristicScale;
+    }
+
+    /**
+     * @return the weight array of a graph, checking that it is the one this
+     * profile was built for
+     */
+    float[] weightsFor(CsrGraph searched) {
+        if (searched != graph) {
+            throw new IllegalArgumentException("The weight profile belongs to another graph");
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,266 @@
+package sharding;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import geography.GeographicPoint;
+import roadgraph.AStarSearch;
+import roadgraph.CsrGraph;
+import roadgraph.DistanceMatrix;
+import roadgraph.SearchPath;
+import roadgraph.ShortestPathTree;
+import util.GraphSnapshot;
+
+/**
+ * One shard of a map written by {@link ShardPartitioner}: a part of the road
+ * network and the routing on it that a {@link ShardServer} offers.
+ * <p>
+ * Vertices are known to callers by their global ids, which the shard maps to
+ * its local ids by binary search. Searches never leave the shard, so every
+ * distance is that of the shortest path inside it. When the shard is loaded
+ * the distances between all its boundary vertices are computed once, which
+ * is what a {@link ShardCoordinator} joins the shards with.
+ * Instances are immutable and safe to share between threads.
+ */
+public class Shard {
+    private final int id;
+    private final int numShards;
+    private final CsrGraph graph;
+    private final int[] globalIds;
+    private final int[] boundary;
+    private final double[][] boundaryDistances;
+    private final int[] cutSources;
+    private final int[] cutTargets;
+    private final int[] cutTargetShards;
+    private final double[] cutLengths;
+    private final double[] bounds;
+    private final SearchPath search = new AStarSearch();
+
+    private Shard(int id, int numShards, CsrGraph graph, int[] globalIds, int[] boundary, int[] cutSources,
+                  int[] cutTargets, int[] cutTargetShards, double[] cutLengths) {
+        this.id = id;
+        this.numShards = numShards;
+        this.graph = graph;
+        this.globalIds = globalIds;
+        this.boundary = boundary;
+        this.cutSources = cutSources;
+        this.cutTargets = cutTargets;
+        this.cutTargetShards = cutTargetShards;
+        this.cutLengths = cutLengths;
+        boundaryDistances = DistanceMatrix.oneToMany(graph, boundary, boundary);
+        bounds = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY};
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            bounds[0] = Math.min(bounds[0], graph.getLatitude(v));
+            bounds[1] = Math.min(bounds[1], graph.getLongitude(v));
+            bounds[2] = Math.max(bounds[2], graph.getLatitude(v));
+            bounds[3] = Math.max(bounds[3], graph.getLongitude(v));
+        }
+    }
+
+    /**
+     * Load a shard from the files of a partitioned map
+     *
+     * @param directory The directory the partitioner wrote to
+     * @param shard     The id of the shard
+     * @return The shard, with its boundary distances computed
+     * @throws IOException If the files cannot be read or do not match
+     */
+    public static Shard load(File directory, int shard) throws IOException {
+        CsrGraph graph = GraphSnapshot.open(ShardPartitioner.graphFile(directory, shard)).getGraph();
+        File meta = ShardPartitioner.metaFile(directory, shard);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meta), 1 << 16))) {
+            if ((in.readInt() != ShardPartitioner.META_MAGIC) || (in.readInt() != ShardPartitioner.META_VERSION)) {
+                throw new IOException("Not a shard file: " + meta);
+            }
+            int id = in.readInt();
+            int numShards = in.readInt();
+            int numVertices = in.readInt();
+            if ((id != shard) || (numVertices != graph.getNumVertices())) {
+                throw new IOException("Shard file " + meta + " does not match its graph");
+            }
+            int[] globalIds = readInts(in, numVertices);
+            int[] boundary = readInts(in, in.readInt());
+            int numCutEdges = in.readInt();
+            int[] cutSources = new int[numCutEdges];
+            int[] cutTargets = new int[numCutEdges];
+            int[] cutTargetShards = new int[numCutEdges];
+            double[] cutLengths = new double[numCutEdges];
+            for (int i = 0; i < numCutEdges; i++) {
+                cutSources[i] = in.readInt();
+                cutTargets[i] = in.readInt();
+                cutTargetShards[i] = in.readInt();
+                cutLengths[i] = in.readDouble();
+            }
+            return new Shard(id, numShards, graph, globalIds, boundary, cutSources, cutTargets, cutTargetShards,
+                    cutLengths);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+    public CsrGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the smallest latitude and longitude of the shard's vertices,
+     * followed by the largest
+     */
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return the local id of a vertex, or -1 if it is not in this shard
+     */
+    public int toLocal(int globalId) {
+        int local = Arrays.binarySearch(globalIds, globalId);
+        return (local < 0) ? -1 : local;
+    }
+
+    public int toGlobal(int localId) {
+        return globalIds[localId];
+    }
+
+    /**
+     * @return the global id of the vertex at a location, or -1 if there is
+     * none in this shard
+     */
+    public int locate(GeographicPoint location) {
+        int local = graph.getId(location);
+        return (local < 0) ? -1 : globalIds[local];
+    }
+
+    /**
+     * @return the location of a vertex given by its global id
+     * @throws IllegalArgumentException If the vertex is not in the shard
+     */
+    public GeographicPoint getLocation(int globalId) throws IllegalArgumentException {
+        return graph.getLocation(localId(globalId));
+    }
+
+    /**
+     * @return the global ids of the boundary vertices
+     */
+    public int[] getBoundary() {
+        int[] result = new int[boundary.length];
+        for (int i = 0; i < boundary.length; i++) {
+            result[i] = globalIds[boundary[i]];
+        }
+        return result;
+    }
+
+    /**
+     * @return the distance inside the shard from the i-th boundary vertex to
+     * the j-th, or positive infinity if there is no such path
+     */
+    public double getBoundaryDistance(int i, int j) {
+        return boundaryDistances[i][j];
+    }
+
+    public int getNumCutEdges() {
+        return cutSources.length;
+    }
+
+    /**
+     * @return the global id of the source of the i-th edge leaving the shard
+     */
+    public int getCutSource(int i) {
+        return globalIds[cutSources[i]];
+    }
+
+    /**
+     * @return the global id of the target of the i-th edge leaving the shard
+     */
+    public int getCutTarget(int i) {
+        return cutTargets[i];
+    }
+
+    public int getCutTargetShard(int i) {
+        return cutTargetShards[i];
+    }
+
+    public double getCutLength(int i) {
+        return cutLengths[i];
+    }
+
+    /**
+     * Compute the distances inside the shard from one vertex to several
+     *
+     * @param source  The global id of the source
+     * @param targets The global ids of the targets
+     * @return The distance to every target, positive infinity if it cannot be
+     * reached inside the shard
+     * @throws IllegalArgumentException If a vertex is not in the shard
+     */
+    public double[] distancesFrom(int source, int[] targets) throws IllegalArgumentException {
+        return distances(source, targets, false);
+    }
+
+    /**
+     * Compute the distances inside the shard from several vertices to one
+     *
+     * @param sources The global ids of the sources
+     * @param target  The global id of the target
+     * @return The distance from every source, positive infinity if it cannot
+     * reach the target inside the shard
+     * @throws IllegalArgumentException If a vertex is not in the shard
+     */
+    public double[] distancesTo(int[] sources, int target) throws IllegalArgumentException {
+        return distances(target, sources, true);
+    }
+
+    private double[] distances(int root, int[] others, boolean reverse) {
+        ShortestPathTree tree = ShortestPathTree.grow(graph, localId(root), Double.POSITIVE_INFINITY, reverse);
+        double[] result = new double[others.length];
+        for (int i = 0; i < others.length; i++) {
+            result[i] = tree.getDistance(localId(others[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Find the shortest path inside the shard between two of its vertices
+     *
+     * @param from The global id of the start
+     * @param to   The global id of the goal
+     * @return The global ids of the path (including both), or an empty array
+     * if there is none inside the shard
+     * @throws IllegalArgumentException If a vertex is not in the shard
+     */
+    public int[] path(int from, int to) throws IllegalArgumentException {
+        int[] path = search.getPath(graph, localId(from), localId(to), (v) -> {
+        });
+        for (int i = 0; i < path.length; i++) {
+            path[i] = globalIds[path[i]];
+        }
+        return path;
+    }
+
+    private int localId(int globalId) {
+        int local = toLocal(globalId);
+        if (local < 0) {
+            throw new IllegalArgumentException("Vertex " + globalId + " is not in shard " + id);
+        }
+        return local;
+    }
+}
@@ -0,0 +1,161 @@
+package sharding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * One connection to a {@link ShardServer}. Requests on a connection are
+ * answered in order, so the methods are synchronized and a client may be
+ * shared between threads.
+ */
+class ShardClient implements Closeable {
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    ShardClient(InetSocketAddress address) throws IOException {
+        socket = new Socket();
+        socket.connect(address, CONNECT_TIMEOUT_MS);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * @return the shard id, the number of shards and the number of vertices
+     */
+    synchronized int[] info(double[] bounds) throws IOException {
+        out.writeInt(ShardServer.INFO);
+        receive();
+        int[] info = {in.readInt(), in.readInt(), in.readInt()};
+        for (int i = 0; i < 4; i++) {
+            bounds[i] = in.readDouble();
+        }
+        return info;
+    }
+
+    /**
+     * Read the boundary vertices, their distances and the cut edges of the
+     * shard, see {@link ShardServer}
+     */
+    synchronized Overlay overlay() throws IOException {
+        out.writeInt(ShardServer.OVERLAY);
+        receive();
+        Overlay overlay = new Overlay();
+        int size = in.readInt();
+        overlay.boundary = new int[size];
+        overlay.locations = new GeographicPoint[size];
+        for (int i = 0; i < size; i++) {
+            overlay.boundary[i] = in.readInt();
+            overlay.locations[i] = new GeographicPoint(in.readDouble(), in.readDouble());
+        }
+        overlay.distances = new double[size * size];
+        for (int i = 0; i < overlay.distances.length; i++) {
+            overlay.distances[i] = in.readDouble();
+        }
+        int numCutEdges = in.readInt();
+        overlay.cutSources = new int[numCutEdges];
+        overlay.cutTargets = new int[numCutEdges];
+        overlay.cutLengths = new double[numCutEdges];
+        for (int i = 0; i < numCutEdges; i++) {
+            overlay.cutSources[i] = in.readInt();
+            overlay.cutTargets[i] = in.readInt();
+            in.readInt();
+            overlay.cutLengths[i] = in.readDouble();
+        }
+        return overlay;
+    }
+
+    synchronized int locate(GeographicPoint location) throws IOException {
+        out.writeInt(ShardServer.LOCATE);
+        out.writeDouble(location.getX());
+        out.writeDouble(location.getY());
+        receive();
+        return in.readInt();
+    }
+
+    synchronized double[] distancesFrom(int source, int[] targets) throws IOException {
+        return distances(ShardServer.DISTANCES_FROM, source, targets);
+    }
+
+    synchronized double[] distancesTo(int[] sources, int target) throws IOException {
+        return distances(ShardServer.DISTANCES_TO, target, sources);
+    }
+
+    private double[] distances(int opcode, int root, int[] others) throws IOException {
+        out.writeInt(opcode);
+        out.writeInt(root);
+        out.writeInt(others.length);
+        for (int v : others) {
+            out.writeInt(v);
+        }
+        receive();
+        double[] distances = new double[others.length];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = in.readDouble();
+        }
+        return distances;
+    }
+
+    /**
+     * @return the locations along the shortest path inside the shard, empty
+     * if there is none
+     */
+    synchronized List<GeographicPoint> path(int from, int to) throws IOException {
+        out.writeInt(ShardServer.PATH);
+        out.writeInt(from);
+        out.writeInt(to);
+        receive();
+        int length = in.readInt();
+        List<GeographicPoint> path = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            in.readInt();
+            path.add(new GeographicPoint(in.readDouble(), in.readDouble()));
+        }
+        return path;
+    }
+
+    /**
+     * Ask the server to stop
+     */
+    synchronized void shutdown() throws IOException {
+        out.writeInt(ShardServer.SHUTDOWN);
+        receive();
+    }
+
+    // Send the request and read the status of its reply
+    private void receive() throws IOException {
+        out.flush();
+        if (in.readInt() != ShardServer.OK) {
+            throw new IOException("Shard request failed: " + in.readUTF());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /** What a shard contributes to the overlay graph */
+    static class Overlay {
+        int[] boundary;
+        GeographicPoint[] locations;
+        // Row by row, from the boundary vertex of the row to that of the column
+        double[] distances;
+        int[] cutSources;
+        int[] cutTargets;
+        double[] cutLengths;
+    }
+}
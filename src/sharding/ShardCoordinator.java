@@ -0,0 +1,373 @@
+package sharding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import geography.GeographicPoint;
+import roadgraph.IndexedDaryHeap;
+import roadgraph.IntList;
+
+/**
+ * Routes across a map served by several {@link ShardServer}s.
+ * <p>
+ * On connecting, the coordinator collects the overlay graph of the map: its
+ * vertices are the boundary vertices of all shards, and its arcs are the
+ * precomputed distances between the boundary vertices of each shard and the
+ * edges between shards. That is all it holds, a small fraction of the map.
+ * <p>
+ * A query asks the start's shard for the distances from the start to its
+ * boundary, and the goal's shard for the distances from its boundary to the
+ * goal, and joins them with a Dijkstra search over the overlay. Any shortest
+ * path splits into pieces inside one shard and edges between shards, and
+ * every piece is no shorter than its overlay arc, so the search finds the
+ * true shortest distance. The route is stitched together from the shortest
+ * path inside each shard it passes through, asked from that shard.
+ * <p>
+ * A coordinator is safe to share between threads; requests to the same shard
+ * are sent one at a time.
+ */
+public class ShardCoordinator implements Closeable {
+    private final ShardClient[] clients;
+    private final double[][] bounds;
+    // The overlay vertices, which are the boundary vertices of every shard
+    private final int[] nodeGlobalIds;
+    private final int[] nodeShards;
+    // The position of a node in its shard's boundary list
+    private final int[] nodeIndices;
+    private final GeographicPoint[] nodeLocations;
+    // The nodes of the boundary of every shard and their global ids
+    private final int[][] shardNodes;
+    private final int[][] shardBoundaries;
+    // The arcs of node u are arcTargets[arcOffsets[u]] .. arcTargets[arcOffsets[u + 1] - 1],
+    // each either a path inside arcShards[a] or, if that is -1, an edge between shards
+    private final int[] arcOffsets;
+    private final int[] arcTargets;
+    private final double[] arcLengths;
+    private final int[] arcShards;
+
+    private ShardCoordinator(ShardClient[] clients, double[][] bounds, ShardClient.Overlay[] overlays) {
+        this.clients = clients;
+        this.bounds = bounds;
+        int numShards = clients.length;
+        int numNodes = 0;
+        for (ShardClient.Overlay overlay : overlays) {
+            numNodes += overlay.boundary.length;
+        }
+        nodeGlobalIds = new int[numNodes];
+        nodeShards = new int[numNodes];
+        nodeIndices = new int[numNodes];
+        nodeLocations = new GeographicPoint[numNodes];
+        shardNodes = new int[numShards][];
+        shardBoundaries = new int[numShards][];
+        HashMap<Integer, Integer> nodes = new HashMap<>(numNodes * 2);
+        int node = 0;
+        for (int shard = 0; shard < numShards; shard++) {
+            ShardClient.Overlay overlay = overlays[shard];
+            shardNodes[shard] = new int[overlay.boundary.length];
+            shardBoundaries[shard] = overlay.boundary;
+            for (int i = 0; i < overlay.boundary.length; i++) {
+                nodeGlobalIds[node] = overlay.boundary[i];
+                nodeShards[node] = shard;
+                nodeIndices[node] = i;
+                nodeLocations[node] = overlay.locations[i];
+                shardNodes[shard][i] = node;
+                nodes.put(overlay.boundary[i], node);
+                node++;
+            }
+        }
+
+        IntList[] targets = new IntList[numNodes];
+        List<List<Double>> lengths = new ArrayList<>(numNodes);
+        IntList[] shards = new IntList[numNodes];
+        for (int u = 0; u < numNodes; u++) {
+            targets[u] = new IntList();
+            lengths.add(new ArrayList<>());
+            shards[u] = new IntList();
+        }
+        for (int shard = 0; shard < numShards; shard++) {
+            ShardClient.Overlay overlay = overlays[shard];
+            int size = overlay.boundary.length;
+            for (int i = 0; i < size; i++) {
+                int u = shardNodes[shard][i];
+                for (int j = 0; j < size; j++) {
+                    double distance = overlay.distances[i * size + j];
+                    if ((i != j) && (distance < Double.POSITIVE_INFINITY)) {
+                        targets[u].add(shardNodes[shard][j]);
+                        lengths.get(u).add(distance);
+                        shards[u].add(shard);
+                    }
+                }
+            }
+            for (int c = 0; c < overlay.cutSources.length; c++) {
+                int u = nodes.get(overlay.cutSources[c]);
+                targets[u].add(nodes.get(overlay.cutTargets[c]));
+                lengths.get(u).add(overlay.cutLengths[c]);
+                shards[u].add(-1);
+            }
+        }
+        arcOffsets = new int[numNodes + 1];
+        for (int u = 0; u < numNodes; u++) {
+            arcOffsets[u + 1] = arcOffsets[u] + targets[u].size();
+        }
+        arcTargets = new int[arcOffsets[numNodes]];
+        arcLengths = new double[arcTargets.length];
+        arcShards = new int[arcTargets.length];
+        for (int u = 0; u < numNodes; u++) {
+            for (int i = 0; i < targets[u].size(); i++) {
+                arcTargets[arcOffsets[u] + i] = targets[u].get(i);
+                arcLengths[arcOffsets[u] + i] = lengths.get(u).get(i);
+                arcShards[arcOffsets[u] + i] = shards[u].get(i);
+            }
+        }
+    }
+
+    /**
+     * Connect to the servers of every shard of a map and collect its overlay
+     *
+     * @param addresses The address of every shard's server, in any order
+     * @return The coordinator
+     * @throws IOException If a server cannot be reached, or the servers do not
+     *                     serve every shard of one map exactly once
+     */
+    public static ShardCoordinator connect(List<InetSocketAddress> addresses) throws IOException {
+        ShardClient[] clients = new ShardClient[addresses.size()];
+        double[][] bounds = new double[addresses.size()][];
+        try {
+            for (InetSocketAddress address : addresses) {
+                ShardClient client = new ShardClient(address);
+                double[] shardBounds = new double[4];
+                int[] info;
+                try {
+                    info = client.info(shardBounds);
+                } catch (IOException e) {
+                    client.close();
+                    throw e;
+                }
+                int shard = info[0];
+                if ((info[1] != addresses.size()) || (shard < 0) || (shard >= clients.length)
+                        || (clients[shard] != null)) {
+                    client.close();
+                    throw new IOException("The server at " + address + " does not fit: shard " + shard + " of "
+                            + info[1]);
+                }
+                clients[shard] = client;
+                bounds[shard] = shardBounds;
+            }
+            ShardClient.Overlay[] overlays = new ShardClient.Overlay[clients.length];
+            for (int shard = 0; shard < clients.length; shard++) {
+                overlays[shard] = clients[shard].overlay();
+            }
+            return new ShardCoordinator(clients, bounds, overlays);
+        } catch (IOException e) {
+            for (ShardClient client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    public int getNumShards() {
+        return clients.length;
+    }
+
+    /**
+     * @return the number of vertices of the overlay graph
+     */
+    public int getNumOverlayVertices() {
+        return nodeGlobalIds.length;
+    }
+
+    /**
+     * Find the shortest route from start to goal across the shards
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @return The list of intersections from start to goal (including both),
+     * empty if there is no path or a location is not in the map
+     * @throws IOException If a shard cannot be reached
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal) throws IOException {
+        List<GeographicPoint> route = new ArrayList<>();
+        int[] source = locate(start);
+        int[] target = locate(goal);
+        if ((source == null) || (target == null)) {
+            return route;
+        }
+        route.add(start);
+        if (source[1] == target[1]) {
+            return route;
+        }
+        Search search = search(source, target);
+        if (search == null) {
+            return new ArrayList<>();
+        }
+        // Follow the parents back from the goal, then stitch from the start
+        IntList nodes = new IntList();
+        for (int node = search.goalNode; node != search.startNode; node = search.parents[node]) {
+            nodes.add(node);
+        }
+        int current = source[1];
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            int node = nodes.get(i);
+            int next = (node == search.goalNode) ? target[1] : nodeGlobalIds[node];
+            int shard = search.parentShards[node];
+            if (shard < 0) {
+                route.add(nodeLocations[node]);
+            } else {
+                List<GeographicPoint> piece = clients[shard].path(current, next);
+                if (piece.isEmpty()) {
+                    throw new IOException("Shard " + shard + " has no path its distances promised");
+                }
+                route.addAll(piece.subList(1, piece.size()));
+            }
+            current = next;
+        }
+        return route;
+    }
+
+    /**
+     * Find the shortest distance from start to goal across the shards
+     *
+     * @return The distance in km, positive infinity if there is no path or a
+     * location is not in the map
+     * @throws IOException If a shard cannot be reached
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal) throws IOException {
+        int[] source = locate(start);
+        int[] target = locate(goal);
+        if ((source == null) || (target == null)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (source[1] == target[1]) {
+            return 0;
+        }
+        Search search = search(source, target);
+        return (search == null) ? Double.POSITIVE_INFINITY : search.distance;
+    }
+
+    /**
+     * @return the shard and global id of the vertex at a location, or null if
+     * no shard has one there
+     */
+    private int[] locate(GeographicPoint location) throws IOException {
+        for (int shard = 0; shard < clients.length; shard++) {
+            double[] box = bounds[shard];
+            if ((location.getX() < box[0]) || (location.getY() < box[1]) || (location.getX() > box[2])
+                    || (location.getY() > box[3])) {
+                continue;
+            }
+            int id = clients[shard].locate(location);
+            if (id >= 0) {
+                return new int[]{shard, id};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Dijkstra's algorithm over the overlay, extended by a start node with arcs
+     * to the boundary of the start's shard and a goal node with arcs from the
+     * boundary of the goal's shard
+     *
+     * @return the search, or null if the goal cannot be reached
+     */
+    private Search search(int[] source, int[] target) throws IOException {
+        int sourceShard = source[0];
+        int targetShard = target[0];
+        int[] exits = shardBoundaries[sourceShard];
+        int[] exitTargets = exits;
+        if (sourceShard == targetShard) {
+            // The shortest path may also stay inside the shard
+            exitTargets = Arrays.copyOf(exits, exits.length + 1);
+            exitTargets[exits.length] = target[1];
+        }
+        double[] fromSource = clients[sourceShard].distancesFrom(source[1], exitTargets);
+        double[] toTarget = clients[targetShard].distancesTo(shardBoundaries[targetShard], target[1]);
+
+        int numNodes = nodeGlobalIds.length;
+        Search search = new Search(numNodes + 2, numNodes, numNodes + 1);
+        double[] distances = new double[numNodes + 2];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        boolean[] settled = new boolean[numNodes + 2];
+        IndexedDaryHeap pq = new IndexedDaryHeap(numNodes + 2);
+        distances[search.startNode] = 0;
+        pq.push(search.startNode, 0);
+        while (!pq.isEmpty()) {
+            int u = pq.poll();
+            settled[u] = true;
+            if (u == search.goalNode) {
+                search.distance = distances[u];
+                return search;
+            }
+            if (u == search.startNode) {
+                for (int i = 0; i < exits.length; i++) {
+                    relax(search, distances, settled, pq, u, shardNodes[sourceShard][i], fromSource[i], sourceShard);
+                }
+                if (sourceShard == targetShard) {
+                    relax(search, distances, settled, pq, u, search.goalNode, fromSource[exits.length], sourceShard);
+                }
+                continue;
+            }
+            for (int a = arcOffsets[u]; a < arcOffsets[u + 1]; a++) {
+                relax(search, distances, settled, pq, u, arcTargets[a], distances[u] + arcLengths[a], arcShards[a]);
+            }
+            if (nodeShards[u] == targetShard) {
+                relax(search, distances, settled, pq, u, search.goalNode, distances[u] + toTarget[nodeIndices[u]],
+                        targetShard);
+            }
+        }
+        return null;
+    }
+
+    private static void relax(Search search, double[] distances, boolean[] settled, IndexedDaryHeap pq, int u,
+                              int v, double distance, int shard) {
+        if (!settled[v] && (distance < distances[v])) {
+            distances[v] = distance;
+            search.parents[v] = u;
+            search.parentShards[v] = shard;
+            pq.push(v, distance);
+        }
+    }
+
+    /**
+     * Stop every shard server
+     *
+     * @throws IOException If a server cannot be reached
+     */
+    public void shutdownShards() throws IOException {
+        for (ShardClient client : clients) {
+            client.shutdown();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ShardClient client : clients) {
+            client.close();
+        }
+    }
+
+    /** The parent pointers of an overlay search */
+    private static class Search {
+        final int[] parents;
+        // The shard of the path a node was reached by, -1 for an edge between shards
+        final int[] parentShards;
+        final int startNode;
+        final int goalNode;
+        double distance;
+
+        Search(int size, int startNode, int goalNode) {
+            parents = new int[size];
+            parentShards = new int[size];
+            this.startNode = startNode;
+            this.goalNode = goalNode;
+        }
+    }
+}
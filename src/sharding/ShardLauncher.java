@@ -0,0 +1,188 @@
+package sharding;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import geography.GeographicPoint;
+import roadgraph.CsrGraph;
+import roadgraph.MapGraph;
+import roadgraph.ShortestPathTree;
+import util.GraphLoader;
+
+/**
+ * Starts the shards of a partitioned map as separate local JVMs, each a
+ * {@link ShardServer} on a free loopback port, for testing sharded routing on
+ * one machine. The servers run with this JVM's class path, and their error
+ * output goes to this JVM's.
+ */
+public class ShardLauncher implements Closeable {
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+
+    private ShardLauncher() {
+    }
+
+    /**
+     * Start one server process per shard and wait until all of them accept
+     * connections
+     *
+     * @param directory The directory the partitioner wrote to
+     * @param numShards The number of shards
+     * @param jvmArgs   Extra JVM options for the servers, such as -Xmx512m
+     * @return The launcher, which stops the servers on close
+     * @throws IOException If a server cannot be started
+     */
+    public static ShardLauncher start(File directory, int numShards, String... jvmArgs) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ShardLauncher launcher = new ShardLauncher();
+        try {
+            for (int shard = 0; shard < numShards; shard++) {
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                for (String arg : jvmArgs) {
+                    command.add(arg);
+                }
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(ShardServer.class.getName());
+                command.add(directory.getPath());
+                command.add(Integer.toString(shard));
+                Process process = new ProcessBuilder(command)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                launcher.processes.add(process);
+            }
+            // The shards load in parallel; collect their ports in order
+            for (int shard = 0; shard < numShards; shard++) {
+                launcher.addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        readPort(launcher.processes.get(shard), shard)));
+            }
+            return launcher;
+        } catch (IOException e) {
+            launcher.close();
+            throw e;
+        }
+    }
+
+    private static int readPort(Process process, int shard) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(ShardServer.READY + " ")) {
+                return Integer.parseInt(line.substring(ShardServer.READY.length() + 1).trim());
+            }
+        }
+        throw new IOException("Shard " + shard + " exited before accepting connections");
+    }
+
+    /**
+     * @return the address of every shard's server, in order of shard id
+     */
+    public List<InetSocketAddress> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * Stop the server processes that are still running
+     */
+    @Override
+    public void close() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Partition a map, serve its shards from separate processes and check
+     * random sharded routes against Dijkstra's algorithm on the whole map.
+     * <p>
+     * Usage: java sharding.ShardLauncher [map-file [shards [queries]]]
+     */
+    public static void main(String[] args) throws IOException {
+        String file = (args.length > 0) ? args[0] : "data/maps/san_diego.map";
+        int numShards = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int queries = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        MapGraph map = new MapGraph();
+        GraphLoader.loadRoadMap(file, map);
+        CsrGraph graph = map.compile();
+        File directory = Files.createTempDirectory("shards").toFile();
+        ShardPartitioner.write(graph, numShards, directory);
+
+        int mismatches = 0;
+        long elapsed = 0;
+        try (ShardLauncher launcher = start(directory, numShards);
+             ShardCoordinator coordinator = ShardCoordinator.connect(launcher.getAddresses())) {
+            System.out.println(numShards + " shards, " + coordinator.getNumOverlayVertices()
+                    + " overlay vertices of " + graph.getNumVertices());
+            Random random = new Random(42);
+            for (int q = 0; q < queries; q++) {
+                int start = random.nextInt(graph.getNumVertices());
+                int goal = random.nextInt(graph.getNumVertices());
+                long before = System.nanoTime();
+                List<GeographicPoint> route = coordinator.route(graph.getLocation(start), graph.getLocation(goal));
+                elapsed += System.nanoTime() - before;
+                double expected = ShortestPathTree.grow(graph, start, Double.POSITIVE_INFINITY, false)
+                        .getDistance(goal);
+                if (Math.abs(length(graph, route) - expected) > 1e-9) {
+                    mismatches++;
+                }
+            }
+            coordinator.shutdownShards();
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            directory.delete();
+        }
+        System.out.printf("%d queries, %.3f ms/query, %d mismatches%n", queries, elapsed / 1e6 / queries,
+                mismatches);
+    }
+
+    // The length of a route in the whole graph, positive infinity if it is empty
+    private static double length(CsrGraph graph, List<GeographicPoint> route) {
+        if (route.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double length = 0;
+        for (int i = 0; i + 1 < route.size(); i++) {
+            int from = graph.getId(route.get(i));
+            int to = graph.getId(route.get(i + 1));
+            double best = Double.POSITIVE_INFINITY;
+            for (int edge = graph.firstEdge(from); edge < graph.endEdge(from); edge++) {
+                if (graph.getTarget(edge) == to) {
+                    best = Math.min(best, graph.getLength(edge));
+                }
+            }
+            length += best;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,202 @@
+package sharding;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import geography.GeographicPoint;
+import roadgraph.CsrGraph;
+import roadgraph.IntList;
+import roadgraph.MapGraph;
+import roadgraph.MultilevelPartition;
+import util.GraphLoader;
+import util.GraphSnapshot;
+
+/**
+ * Splits a road map into geographic shards that can be served by separate
+ * JVMs, each holding only its own part of the map.
+ * <p>
+ * The vertices are split into parts of nearly equal size by recursive
+ * bisection on their coordinates (see {@link MultilevelPartition#bisect}).
+ * Every shard is written to a directory as two files: shard-i.graph, a
+ * {@link GraphSnapshot} of the shard's vertices and the edges between them,
+ * numbered locally, and shard-i.meta, which holds
+ * <pre>
+ * header      magic, version, shard id, number of shards, vertices
+ * ints        the global id of every local vertex, in increasing order
+ * boundary    count, then the local id of every boundary vertex
+ * cut edges   count, then for every edge leaving the shard its local source,
+ *             global target, target shard (ints) and length (double)
+ * </pre>
+ * A boundary vertex has an edge to or from another shard. Global ids are the
+ * vertex ids of the whole compiled graph. The partitioner itself needs the
+ * whole map in memory, once; the shards never do.
+ */
+public class ShardPartitioner {
+    static final int META_MAGIC = 0x5348524D;
+    static final int META_VERSION = 1;
+
+    private ShardPartitioner() {
+    }
+
+    static File graphFile(File directory, int shard) {
+        return new File(directory, "shard-" + shard + ".graph");
+    }
+
+    static File metaFile(File directory, int shard) {
+        return new File(directory, "shard-" + shard + ".meta");
+    }
+
+    /**
+     * Split a graph into shards and write them to a directory
+     *
+     * @param graph     The compiled graph of the whole map
+     * @param numShards The number of shards
+     * @param directory The directory to write the shard files to, which must
+     *                  exist
+     * @return the shard of every vertex of the graph
+     * @throws IOException If a file cannot be written
+     */
+    public static int[] write(CsrGraph graph, int numShards, File directory) throws IOException {
+        int numVertices = graph.getNumVertices();
+        int[] shardOf = MultilevelPartition.bisect(graph, numShards);
+        // Local ids follow the global ones, so a shard can map back by binary search
+        int[] localIds = new int[numVertices];
+        int[] shardSizes = new int[numShards];
+        for (int v = 0; v < numVertices; v++) {
+            localIds[v] = shardSizes[shardOf[v]]++;
+        }
+        boolean[] isBoundary = new boolean[numVertices];
+        for (int edge = 0; edge < graph.getNumEdges(); edge++) {
+            int source = graph.getSource(edge);
+            int target = graph.getTarget(edge);
+            if (shardOf[source] != shardOf[target]) {
+                isBoundary[source] = true;
+                isBoundary[target] = true;
+            }
+        }
+
+        int[][] globalIds = new int[numShards][];
+        for (int shard = 0; shard < numShards; shard++) {
+            globalIds[shard] = new int[shardSizes[shard]];
+        }
+        for (int v = 0; v < numVertices; v++) {
+            globalIds[shardOf[v]][localIds[v]] = v;
+        }
+        for (int shard = 0; shard < numShards; shard++) {
+            writeGraph(graphFile(directory, shard), graph, shard, globalIds[shard], shardOf, localIds);
+            writeMeta(metaFile(directory, shard), graph, shard, numShards, globalIds[shard], shardOf, localIds,
+                    isBoundary);
+        }
+        return shardOf;
+    }
+
+    // The subgraph of the shard's vertices, with the edges between them
+    private static void writeGraph(File file, CsrGraph graph, int shard, int[] globalIds, int[] shardOf,
+                                   int[] localIds) throws IOException {
+        GeographicPoint[] locations = new GeographicPoint[globalIds.length];
+        int[] offsets = new int[globalIds.length + 1];
+        IntList edges = new IntList();
+        for (int local = 0; local < globalIds.length; local++) {
+            int v = globalIds[local];
+            locations[local] = graph.getLocation(v);
+            offsets[local] = edges.size();
+            for (int edge = graph.firstEdge(v); edge < graph.endEdge(v); edge++) {
+                if (shardOf[graph.getTarget(edge)] == shard) {
+                    edges.add(edge);
+                }
+            }
+        }
+        offsets[globalIds.length] = edges.size();
+        int[] targets = new int[edges.size()];
+        double[] lengths = new double[edges.size()];
+        int[] nameIds = new int[edges.size()];
+        int[] typeIds = new int[edges.size()];
+        for (int i = 0; i < targets.length; i++) {
+            int edge = edges.get(i);
+            targets[i] = localIds[graph.getTarget(edge)];
+            lengths[i] = graph.getLength(edge);
+            nameIds[i] = graph.getRoadNameId(edge);
+            typeIds[i] = graph.getRoadTypeId(edge);
+        }
+        String[] names = new String[graph.getNumRoadNames()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = graph.getInternedRoadName(i);
+        }
+        String[] types = new String[graph.getNumRoadTypes()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = graph.getInternedRoadType(i);
+        }
+        CsrGraph subgraph = new CsrGraph(locations, offsets, targets, lengths, nameIds, typeIds, names, types);
+        GraphSnapshot.write(file, subgraph, null);
+    }
+
+    private static void writeMeta(File file, CsrGraph graph, int shard, int numShards, int[] globalIds,
+                                  int[] shardOf, int[] localIds, boolean[] isBoundary) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(META_MAGIC);
+            out.writeInt(META_VERSION);
+            out.writeInt(shard);
+            out.writeInt(numShards);
+            out.writeInt(globalIds.length);
+            for (int v : globalIds) {
+                out.writeInt(v);
+            }
+
+            IntList boundary = new IntList();
+            IntList cutEdges = new IntList();
+            for (int local = 0; local < globalIds.length; local++) {
+                int v = globalIds[local];
+                if (isBoundary[v]) {
+                    boundary.add(local);
+                }
+                for (int edge = graph.firstEdge(v); edge < graph.endEdge(v); edge++) {
+                    if (shardOf[graph.getTarget(edge)] != shard) {
+                        cutEdges.add(edge);
+                    }
+                }
+            }
+            out.writeInt(boundary.size());
+            for (int i = 0; i < boundary.size(); i++) {
+                out.writeInt(boundary.get(i));
+            }
+            out.writeInt(cutEdges.size());
+            for (int i = 0; i < cutEdges.size(); i++) {
+                int edge = cutEdges.get(i);
+                int target = graph.getTarget(edge);
+                out.writeInt(localIds[graph.getSource(edge)]);
+                out.writeInt(target);
+                out.writeInt(shardOf[target]);
+                out.writeDouble(graph.getLength(edge));
+            }
+        }
+    }
+
+    /**
+     * Usage: java sharding.ShardPartitioner map-file shards directory
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: java sharding.ShardPartitioner map-file shards directory");
+            return;
+        }
+        MapGraph map = new MapGraph();
+        GraphLoader.loadRoadMap(args[0], map);
+        File directory = new File(args[2]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        int numShards = Integer.parseInt(args[1]);
+        int[] shardOf = write(map.compile(), numShards, directory);
+        int[] sizes = new int[numShards];
+        for (int shard : shardOf) {
+            sizes[shard]++;
+        }
+        for (int shard = 0; shard < numShards; shard++) {
+            System.out.println("shard " + shard + ": " + sizes[shard] + " vertices");
+        }
+    }
+}
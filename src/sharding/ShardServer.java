@@ -0,0 +1,229 @@
+package sharding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import geography.GeographicPoint;
+
+/**
+ * Serves the routing of one {@link Shard} over a socket on the loopback
+ * interface, so that the shards of a map can run in separate processes.
+ * <p>
+ * Every connection is a sequence of requests, each an opcode followed by its
+ * arguments, answered in order. A reply starts with a status, {@link #OK} or
+ * {@link #ERROR} followed by a message. Connections are served on threads of
+ * their own; the shard is immutable, so they share it freely.
+ * <pre>
+ * INFO                             id, shards, vertices, bounds (4 doubles)
+ * OVERLAY                          boundary count, then per boundary vertex
+ *                                  its global id, latitude and longitude;
+ *                                  the boundary distance matrix row by row;
+ *                                  cut edge count, then per cut edge source,
+ *                                  target, target shard and length
+ * LOCATE latitude longitude        global id, or -1
+ * DISTANCES_FROM source n ids      n distances
+ * DISTANCES_TO target n ids        n distances
+ * PATH from to                     n, then per vertex global id, latitude
+ *                                  and longitude
+ * SHUTDOWN                         nothing; the server stops
+ * </pre>
+ */
+public class ShardServer implements Closeable {
+    static final int INFO = 1;
+    static final int OVERLAY = 2;
+    static final int LOCATE = 3;
+    static final int DISTANCES_FROM = 4;
+    static final int DISTANCES_TO = 5;
+    static final int PATH = 6;
+    static final int SHUTDOWN = 7;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    // Printed with the port once the server accepts connections
+    static final String READY = "LISTENING";
+
+    private final Shard shard;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "shard-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Bind a server to a port on the loopback interface
+     *
+     * @param shard The shard to serve
+     * @param port  The port, or 0 for any free one
+     * @throws IOException If the port cannot be bound
+     */
+    public ShardServer(Shard shard, int port) throws IOException {
+        this.shard = shard;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept and serve connections until the server is closed or asked to shut
+     * down
+     */
+    public void serve() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            // The server socket was closed
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            while (true) {
+                int opcode;
+                try {
+                    opcode = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (opcode == SHUTDOWN) {
+                    out.writeInt(OK);
+                    out.flush();
+                    close();
+                    return;
+                }
+                try {
+                    answer(opcode, in, out);
+                } catch (IllegalArgumentException e) {
+                    out.writeInt(ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // The client went away
+        } catch (IOException e) {
+            System.err.println("Shard " + shard.getId() + ": " + e);
+        }
+    }
+
+    private void answer(int opcode, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (opcode) {
+            case INFO: {
+                out.writeInt(OK);
+                out.writeInt(shard.getId());
+                out.writeInt(shard.getNumShards());
+                out.writeInt(shard.getGraph().getNumVertices());
+                for (double bound : shard.getBounds()) {
+                    out.writeDouble(bound);
+                }
+                break;
+            }
+            case OVERLAY: {
+                int[] boundary = shard.getBoundary();
+                out.writeInt(OK);
+                out.writeInt(boundary.length);
+                for (int v : boundary) {
+                    GeographicPoint location = shard.getLocation(v);
+                    out.writeInt(v);
+                    out.writeDouble(location.getX());
+                    out.writeDouble(location.getY());
+                }
+                for (int i = 0; i < boundary.length; i++) {
+                    for (int j = 0; j < boundary.length; j++) {
+                        out.writeDouble(shard.getBoundaryDistance(i, j));
+                    }
+                }
+                out.writeInt(shard.getNumCutEdges());
+                for (int i = 0; i < shard.getNumCutEdges(); i++) {
+                    out.writeInt(shard.getCutSource(i));
+                    out.writeInt(shard.getCutTarget(i));
+                    out.writeInt(shard.getCutTargetShard(i));
+                    out.writeDouble(shard.getCutLength(i));
+                }
+                break;
+            }
+            case LOCATE: {
+                GeographicPoint location = new GeographicPoint(in.readDouble(), in.readDouble());
+                out.writeInt(OK);
+                out.writeInt(shard.locate(location));
+                break;
+            }
+            case DISTANCES_FROM:
+            case DISTANCES_TO: {
+                int root = in.readInt();
+                int[] others = new int[in.readInt()];
+                for (int i = 0; i < others.length; i++) {
+                    others[i] = in.readInt();
+                }
+                double[] distances = (opcode == DISTANCES_FROM) ? shard.distancesFrom(root, others)
+                        : shard.distancesTo(others, root);
+                out.writeInt(OK);
+                for (double distance : distances) {
+                    out.writeDouble(distance);
+                }
+                break;
+            }
+            case PATH: {
+                int[] path = shard.path(in.readInt(), in.readInt());
+                out.writeInt(OK);
+                out.writeInt(path.length);
+                for (int v : path) {
+                    GeographicPoint location = shard.getLocation(v);
+                    out.writeInt(v);
+                    out.writeDouble(location.getX());
+                    out.writeDouble(location.getY());
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown request " + opcode);
+        }
+    }
+
+    /**
+     * Load a shard and serve it until asked to shut down. Prints "LISTENING"
+     * and the port once connections are accepted.
+     * <p>
+     * Usage: java sharding.ShardServer directory shard [port]
+     */
+    public static void main(String[] args) throws IOException {
+        if ((args.length < 2) || (args.length > 3)) {
+            System.err.println("Usage: java sharding.ShardServer directory shard [port]");
+            System.exit(2);
+        }
+        Shard shard = Shard.load(new File(args[0]), Integer.parseInt(args[1]));
+        try (ShardServer server = new ShardServer(shard, (args.length == 3) ? Integer.parseInt(args[2]) : 0)) {
+            System.out.println(READY + " " + server.getPort());
+            System.out.flush();
+            server.serve();
+        }
+    }
+}
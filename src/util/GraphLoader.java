@@ -17,8 +17,6 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
@@ -518,22 +516,26 @@ public class GraphLoader
 	// The map returned is indexed by a GeographicPoint.  The values
 	// are lists of length two where each entry in the list is a list.
 	// The first list stores the outgoing roads while the second 
-	// stores the outgoing roads.
+	// stores the incoming roads.  The lines are parsed in parallel
+	// by MapFileParser and added to the map in file order.  Each
+	// chunk's distinct points become GeographicPoints once.
 	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
 	buildPointMapOneWay(String filename)
 	{
-		BufferedReader reader = null;
         HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
         		new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
 		try {
-            String nextLine;
-            reader = new BufferedReader(new FileReader(filename));
-            // Read the lines out of the file and put them in a HashMap by points
-            while ((nextLine = reader.readLine()) != null) {
-            	RoadLineInfo line = splitInputString(nextLine);
-            	addToPointsMapOneWay(line, pointMap);
-            }
-            reader.close();
+			for (MapFileParser.Chunk chunk : MapFileParser.parse(filename)) {
+				GeographicPoint[] points = new GeographicPoint[chunk.getNumPoints()];
+				for (int i = 0; i < points.length; i++) {
+					points[i] = new GeographicPoint(chunk.getLatitude(i), chunk.getLongitude(i));
+				}
+				for (int i = 0; i < chunk.getNumLines(); i++) {
+					RoadLineInfo line = new RoadLineInfo(points[chunk.getPoint1(i)], points[chunk.getPoint2(i)],
+							chunk.getRoadName(i), chunk.getRoadType(i));
+					addToPointsMapOneWay(line, pointMap);
+				}
+			}
         } catch (IOException e) {
             System.err.println("Problem loading dictionary file: " + filename);
             e.printStackTrace();
@@ -570,34 +572,6 @@ public class GraphLoader
 		
 	}
 	
-	// Split the input string into the line information
-	private static RoadLineInfo splitInputString(String input)
-	{	
-		
-		ArrayList<String> tokens = new ArrayList<String>();
-		Pattern tokSplitter = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
-		Matcher m = tokSplitter.matcher(input);
-		
-		while (m.find()) {
-			if (m.group(1) != null) {
-				tokens.add(m.group(1));	
-			}
-			else {
-				tokens.add(m.group());
-			}
-		}
-
-    	double lat1 = Double.parseDouble(tokens.get(0));
-        double lon1 = Double.parseDouble(tokens.get(1));
-        double lat2 = Double.parseDouble(tokens.get(2));
-        double lon2 = Double.parseDouble(tokens.get(3));
-        GeographicPoint p1 = new GeographicPoint(lat1, lon1);
-        GeographicPoint p2 = new GeographicPoint(lat2, lon2);
-
-        return new RoadLineInfo(p1, p2, tokens.get(4), tokens.get(5));
-		
-	}
-	
 	public static void main(String[] args)
 	{
 		GraphLoader.createIntersectionsFile("data/maps/hollywood_small.map", "data/intersections/hollywood_small.intersections");
@@ -614,103 +588,3 @@ public class GraphLoader
 	}
 	
 }	
-	
-
-// A class to store information about the lines in the road files.
-class RoadLineInfo
-{
-	GeographicPoint point1;
-	GeographicPoint point2;
-	
-	String roadName;
-	String roadType;
-	
-	/** Create a new RoadLineInfo object to store information about the line 
-	 * read from the file
-	 * @param p1 One of the points
-	 * @param p2 The other point
-	 * @param roadName The name of the road
-	 * @param roadType The type of the road
-	 */
-	RoadLineInfo(GeographicPoint p1, GeographicPoint p2, String roadName, String roadType) 
-	{
-		point1 = p1;
-		point2 = p2;
-		this.roadName = roadName;
-		this.roadType = roadType;
-	}
-	
-	
-	/** Get the other point from this roadLineInfo */
-	public GeographicPoint getOtherPoint(GeographicPoint pt)
-	{
-		if (pt == null) throw new IllegalArgumentException();
-		if (pt.equals(point1)) {
-			return point2;
-		}
-		else if (pt.equals(point2)) {
-			return point1;
-		}
-		else throw new IllegalArgumentException();
-	}
-	
-	/** Two RoadLineInfo objects are considered equal if they have the same
-	 * two points and the same roadName and roadType.
-	 */
-	public boolean equals(Object o)
-	{
-		if (o == null || !(o instanceof RoadLineInfo))
-		{
-			return false;
-		}
-		RoadLineInfo info = (RoadLineInfo)o;
-		return info.point1.equals(this.point1) && info.point2.equals(this.point2)  &&
-				info.roadType.equals(this.roadType) && info.roadName.equals(this.roadName);
-				
-	}
-	
-	/** Calculate the hashCode based on the hashCodes of the two points
-	 * @return The hashcode for this object.
-	 */
-	public int hashCode()
-	{
-		return point1.hashCode() + point2.hashCode();
-		
-	}
-	
-	/** Returns whether these segments are part of the same road in terms of
-	 * road name and road type.
-	 * @param info The RoadLineInfo to compare against.
-	 * @return true if these represent the same road, false otherwise.
-	 */
-	public boolean sameRoad(RoadLineInfo info)
-	{
-		return info.roadName.equals(this.roadName) && info.roadType.equals(this.roadType);
-	}
-	
-	/** Return a copy of this LineInfo in the other direction */
-	public RoadLineInfo getReverseCopy()
-	{
-		return new RoadLineInfo(this.point2, this.point1, this.roadName, this.roadType);
-	}
-	
-	/** Return true if this road is the same segment as other, but in reverse
-	 *   Otherwise return false.
-	 */
-	public boolean isReverse(RoadLineInfo other)
-	{
-		return this.point1.equals(other.point2) && this.point2.equals(other.point1) &&
-				this.roadName.equals(other.roadName) && this.roadType.equals(other.roadType);
-	}
-	
-	/** Return the string representation of this LineInfo. */
-	public String toString()
-	{
-		return this.point1 + " " + this.point2 + " " + this.roadName + " " + this.roadType;
-		
-	}
-	
-	
-	
-	
-}
@@ -0,0 +1,481 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.CsrGraph;
+import roadgraph.MapGraph;
+
+/**
+ * A binary snapshot of a road map, written once from a parsed .map file and
+ * then opened with FileChannel.map instead of parsing the text again.
+ *
+ * The file is little endian and laid out as
+ * <pre>
+ * header      magic, version, fingerprint (long), vertices, edges,
+ *             geometry points, road names, road types
+ * doubles     vertex latitudes, vertex longitudes, edge lengths,
+ *             geometry latitudes, geometry longitudes
+ * ints        edge offsets (vertices + 1), edge sources, edge targets,
+ *             incoming edge offsets (vertices + 1), incoming edges,
+ *             road name ids, road type ids, geometry offsets (edges + 1)
+ * strings     road names then road types, each as a length and UTF-8 bytes
+ * </pre>
+ * The geometry of edge e is the intermediate points geometryOffsets[e] ..
+ * geometryOffsets[e + 1] - 1, from the source of the edge towards its target.
+ *
+ * Opening a snapshot maps the file and hands CsrGraph views of its sections,
+ * so nothing is copied and processes opening the same file share its pages.
+ * Only the header, the section bounds and the road name and type tables are
+ * read up front; the graph is not checked against its fingerprint unless
+ * asked to. The geometry is only needed for drawing routes and is decoded on
+ * demand. This holds for the graph from {@link #getGraph()}; turning the
+ * snapshot into a MapGraph copies it.
+ */
+public class GraphSnapshot
+{
+	private static final int MAGIC = 0x47534E50;
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 40;
+
+	private final CsrGraph graph;
+	private final IntBuffer geometryOffsets;
+	private final DoubleBuffer geometryLats;
+	private final DoubleBuffer geometryLons;
+
+	private GraphSnapshot(CsrGraph graph, IntBuffer geometryOffsets, DoubleBuffer geometryLats,
+			DoubleBuffer geometryLons)
+	{
+		this.graph = graph;
+		this.geometryOffsets = geometryOffsets;
+		this.geometryLats = geometryLats;
+		this.geometryLons = geometryLons;
+	}
+
+	/**
+	 * Write a snapshot of a graph.
+	 *
+	 * @param file The file to write
+	 * @param graph The compiled graph
+	 * @param segments The road segments loaded together with the graph, or
+	 *   null to store the edges without geometry
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(File file, CsrGraph graph,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments) throws IOException
+	{
+		int numVertices = graph.getNumVertices();
+		int numEdges = graph.getNumEdges();
+		List<List<GeographicPoint>> geometry = new ArrayList<List<GeographicPoint>>(numEdges);
+		int numGeometryPoints = 0;
+		for (int edge = 0; edge < numEdges; edge++) {
+			List<GeographicPoint> points = findGeometry(graph, edge, segments);
+			geometry.add(points);
+			numGeometryPoints += points.size();
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			ByteBuffer scratch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			writeInt(out, scratch, MAGIC);
+			writeInt(out, scratch, VERSION);
+			writeLong(out, scratch, graph.fingerprint());
+			writeInt(out, scratch, numVertices);
+			writeInt(out, scratch, numEdges);
+			writeInt(out, scratch, numGeometryPoints);
+			writeInt(out, scratch, graph.getNumRoadNames());
+			writeInt(out, scratch, graph.getNumRoadTypes());
+			writeInt(out, scratch, 0);
+
+			for (int v = 0; v < numVertices; v++) {
+				writeLong(out, scratch, Double.doubleToLongBits(graph.getLatitude(v)));
+			}
+			for (int v = 0; v < numVertices; v++) {
+				writeLong(out, scratch, Double.doubleToLongBits(graph.getLongitude(v)));
+			}
+			for (int edge = 0; edge < numEdges; edge++) {
+				writeLong(out, scratch, Double.doubleToLongBits(graph.getLength(edge)));
+			}
+			for (List<GeographicPoint> points : geometry) {
+				for (GeographicPoint pt : points) {
+					writeLong(out, scratch, Double.doubleToLongBits(pt.getX()));
+				}
+			}
+			for (List<GeographicPoint> points : geometry) {
+				for (GeographicPoint pt : points) {
+					writeLong(out, scratch, Double.doubleToLongBits(pt.getY()));
+				}
+			}
+
+			for (int v = 0; v <= numVertices; v++) {
+				writeInt(out, scratch, v < numVertices ? graph.firstEdge(v) : numEdges);
+			}
+			for (int edge = 0; edge < numEdges; edge++) {
+				writeInt(out, scratch, graph.getSource(edge));
+			}
+			for (int edge = 0; edge < numEdges; edge++) {
+				writeInt(out, scratch, graph.getTarget(edge));
+			}
+			for (int v = 0; v <= numVertices; v++) {
+				writeInt(out, scratch, v < numVertices ? graph.firstInEdge(v) : numEdges);
+			}
+			for (int i = 0; i < numEdges; i++) {
+				writeInt(out, scratch, graph.getInEdge(i));
+			}
+			for (int edge = 0; edge < numEdges; edge++) {
+				writeInt(out, scratch, graph.getRoadNameId(edge));
+			}
+			for (int edge = 0; edge < numEdges; edge++) {
+				writeInt(out, scratch, graph.getRoadTypeId(edge));
+			}
+			int geometryOffset = 0;
+			for (List<GeographicPoint> points : geometry) {
+				writeInt(out, scratch, geometryOffset);
+				geometryOffset += points.size();
+			}
+			writeInt(out, scratch, geometryOffset);
+
+			for (int i = 0; i < graph.getNumRoadNames(); i++) {
+				writeString(out, scratch, graph.getInternedRoadName(i));
+			}
+			for (int i = 0; i < graph.getNumRoadTypes(); i++) {
+				writeString(out, scratch, graph.getInternedRoadType(i));
+			}
+		}
+	}
+
+	// Find the intermediate points of an edge among the segments that start
+	// or end at its source.
+	private static List<GeographicPoint> findGeometry(CsrGraph graph, int edge,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
+	{
+		if (segments == null) {
+			return Collections.emptyList();
+		}
+		GeographicPoint start = graph.getLocation(graph.getSource(edge));
+		GeographicPoint end = graph.getLocation(graph.getTarget(edge));
+		HashSet<RoadSegment> segs = segments.get(start);
+		if (segs != null) {
+			for (RoadSegment seg : segs) {
+				if (seg.getLength() == graph.getLength(edge)
+						&& seg.getRoadName().equals(graph.getRoadName(edge))
+						&& end.equals(seg.getOtherPoint(start))) {
+					List<GeographicPoint> points = seg.getPoints(start, end);
+					return points.subList(1, points.size() - 1);
+				}
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	private static void writeInt(DataOutputStream out, ByteBuffer scratch, int value) throws IOException
+	{
+		scratch.clear();
+		scratch.putInt(value);
+		out.write(scratch.array(), 0, 4);
+	}
+
+	private static void writeLong(DataOutputStream out, ByteBuffer scratch, long value) throws IOException
+	{
+		scratch.clear();
+		scratch.putLong(value);
+		out.write(scratch.array(), 0, 8);
+	}
+
+	private static void writeString(DataOutputStream out, ByteBuffer scratch, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(out, scratch, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Map a snapshot file into memory without checking its contents against
+	 * the fingerprint.
+	 *
+	 * @param file The snapshot file written by
+	 *   {@link #write(File, CsrGraph, HashMap)}
+	 * @return The opened snapshot
+	 * @throws IOException If the file cannot be read, is not a snapshot or is
+	 *   truncated
+	 * @see #open(File, boolean)
+	 */
+	public static GraphSnapshot open(File file) throws IOException
+	{
+		return open(file, false);
+	}
+
+	/**
+	 * Map a snapshot file into memory. The graph reads its vertices and edges
+	 * straight from the mapping, so opening takes time in the number of road
+	 * names and types only, unless the file is verified.
+	 *
+	 * @param file The snapshot file written by
+	 *   {@link #write(File, CsrGraph, HashMap)}
+	 * @param verify Whether to check every vertex and edge against the
+	 *   fingerprint and the edge ids and offsets against the graph, which
+	 *   reads the whole file
+	 * @return The opened snapshot
+	 * @throws IOException If the file cannot be read, is not a snapshot, is
+	 *   truncated, or fails verification
+	 */
+	public static GraphSnapshot open(File file, boolean verify) throws IOException
+	{
+		MappedByteBuffer buffer;
+		long size;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			size = channel.size();
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a snapshot file: " + file);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a snapshot file: " + file);
+		}
+		long fingerprint = buffer.getLong(8);
+		int numVertices = buffer.getInt(16);
+		int numEdges = buffer.getInt(20);
+		int numGeometryPoints = buffer.getInt(24);
+		int numNames = buffer.getInt(28);
+		int numTypes = buffer.getInt(32);
+		if (numVertices < 0 || numEdges < 0 || numGeometryPoints < 0 || numNames < 0 || numTypes < 0) {
+			throw new IOException("Snapshot file " + file + " is corrupt");
+		}
+
+		// Every section ends within the file, checked in longs so that no count
+		// can overflow
+		long[] position = {HEADER_BYTES};
+		DoubleBuffer lats = section(buffer, position, 8, numVertices, size, file).asDoubleBuffer();
+		DoubleBuffer lons = section(buffer, position, 8, numVertices, size, file).asDoubleBuffer();
+		DoubleBuffer lengths = section(buffer, position, 8, numEdges, size, file).asDoubleBuffer();
+		DoubleBuffer geometryLats = section(buffer, position, 8, numGeometryPoints, size, file).asDoubleBuffer();
+		DoubleBuffer geometryLons = section(buffer, position, 8, numGeometryPoints, size, file).asDoubleBuffer();
+		IntBuffer offsets = section(buffer, position, 4, numVertices + 1L, size, file).asIntBuffer();
+		IntBuffer sources = section(buffer, position, 4, numEdges, size, file).asIntBuffer();
+		IntBuffer targets = section(buffer, position, 4, numEdges, size, file).asIntBuffer();
+		IntBuffer inOffsets = section(buffer, position, 4, numVertices + 1L, size, file).asIntBuffer();
+		IntBuffer inEdges = section(buffer, position, 4, numEdges, size, file).asIntBuffer();
+		IntBuffer nameIds = section(buffer, position, 4, numEdges, size, file).asIntBuffer();
+		IntBuffer typeIds = section(buffer, position, 4, numEdges, size, file).asIntBuffer();
+		IntBuffer geometryOffsets = section(buffer, position, 4, numEdges + 1L, size, file).asIntBuffer();
+		// Each string takes at least its length, so the counts are bounded
+		// before the tables are allocated
+		if (numNames + (long) numTypes > (size - position[0]) / 4) {
+			throw new IOException("Snapshot file " + file + " is truncated");
+		}
+		String[] names = new String[numNames];
+		String[] types = new String[numTypes];
+		readStrings(buffer, position, names, size, file);
+		readStrings(buffer, position, types, size, file);
+
+		if (offsets.get(0) != 0 || offsets.get(numVertices) != numEdges || inOffsets.get(0) != 0
+				|| inOffsets.get(numVertices) != numEdges || geometryOffsets.get(0) != 0
+				|| geometryOffsets.get(numEdges) != numGeometryPoints) {
+			throw new IOException("Snapshot file " + file + " is corrupt");
+		}
+		CsrGraph graph = new CsrGraph(lats, lons, offsets, sources, targets, lengths, inOffsets, inEdges,
+				nameIds, typeIds, names, types);
+		if (verify && (graph.fingerprint() != fingerprint
+				|| !isConsistent(graph, geometryOffsets, numGeometryPoints))) {
+			throw new IOException("Snapshot file " + file + " is corrupt");
+		}
+		return new GraphSnapshot(graph, geometryOffsets, geometryLats, geometryLons);
+	}
+
+	// A little endian view of the next count elements of the given size,
+	// advancing the position past them
+	private static ByteBuffer section(MappedByteBuffer buffer, long[] position, int elementBytes, long count,
+			long size, File file) throws IOException
+	{
+		long end = position[0] + elementBytes * count;
+		if (end > size) {
+			throw new IOException("Snapshot file " + file + " is truncated");
+		}
+		ByteBuffer section = buffer.duplicate();
+		section.limit((int) end);
+		section.position((int) position[0]);
+		position[0] = end;
+		return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void readStrings(MappedByteBuffer buffer, long[] position, String[] values, long size,
+			File file) throws IOException
+	{
+		ByteBuffer section = buffer.duplicate();
+		for (int i = 0; i < values.length; i++) {
+			if (position[0] + 4 > size) {
+				throw new IOException("Snapshot file " + file + " is truncated");
+			}
+			int length = buffer.getInt((int) position[0]);
+			if (length < 0 || position[0] + 4 + length > size) {
+				throw new IOException("Snapshot file " + file + " is truncated");
+			}
+			byte[] bytes = new byte[length];
+			section.position((int) position[0] + 4);
+			section.get(bytes);
+			values[i] = new String(bytes, StandardCharsets.UTF_8);
+			position[0] += 4 + length;
+		}
+	}
+
+	// Check what the fingerprint does not cover: that every vertex and edge id
+	// and offset is in range and that the sources and the reverse adjacency
+	// match the edges
+	private static boolean isConsistent(CsrGraph graph, IntBuffer geometryOffsets, int numGeometryPoints)
+	{
+		int numVertices = graph.getNumVertices();
+		int[] inDegree = new int[numVertices];
+		for (int v = 0; v < numVertices; v++) {
+			if (graph.firstEdge(v) > graph.endEdge(v) || graph.firstInEdge(v) > graph.endInEdge(v)) {
+				return false;
+			}
+			for (int edge = graph.firstEdge(v); edge < graph.endEdge(v); edge++) {
+				int target = graph.getTarget(edge);
+				if (graph.getSource(edge) != v || target < 0 || target >= numVertices
+						|| graph.getRoadNameId(edge) < 0 || graph.getRoadNameId(edge) >= graph.getNumRoadNames()
+						|| graph.getRoadTypeId(edge) < 0 || graph.getRoadTypeId(edge) >= graph.getNumRoadTypes()
+						|| geometryOffsets.get(edge) > geometryOffsets.get(edge + 1)) {
+					return false;
+				}
+				inDegree[target]++;
+			}
+		}
+		for (int v = 0; v < numVertices; v++) {
+			if (graph.endInEdge(v) - graph.firstInEdge(v) != inDegree[v]) {
+				return false;
+			}
+			for (int i = graph.firstInEdge(v); i < graph.endInEdge(v); i++) {
+				int edge = graph.getInEdge(i);
+				if (edge < 0 || edge >= graph.getNumEdges() || graph.getTarget(edge) != v) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Get the graph stored in the snapshot */
+	public CsrGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the shape of an edge.
+	 *
+	 * @param edge The edge id in the graph of this snapshot
+	 * @return The points of the edge from its source to its target, including
+	 *   both ends
+	 */
+	public List<GeographicPoint> getGeometry(int edge)
+	{
+		int first = geometryOffsets.get(edge);
+		int end = geometryOffsets.get(edge + 1);
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(end - first + 2);
+		points.add(graph.getLocation(graph.getSource(edge)));
+		for (int i = first; i < end; i++) {
+			points.add(new GeographicPoint(geometryLats.get(i), geometryLons.get(i)));
+		}
+		points.add(graph.getLocation(graph.getTarget(edge)));
+		return points;
+	}
+
+	/**
+	 * Build a MapGraph from the snapshot, filling in the same collections as
+	 * {@link GraphLoader#loadRoadMap(String, MapGraph, HashMap, Set)}.
+	 * <p>
+	 * This is a compatibility path for code written against MapGraph and
+	 * takes O(V+E) time and heap: every vertex, edge and road segment is
+	 * built again as an object. Only callers that use {@link #getGraph()}
+	 * directly open a snapshot in constant time and share the mapped pages
+	 * with other processes.
+	 *
+	 * @param segments Receives the road segments at each intersection, or null
+	 * @param intersectionsToLoad Receives the intersections, or null
+	 * @return The graph, already compiled to the graph of this snapshot
+	 */
+	public MapGraph toMapGraph(HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			Set<GeographicPoint> intersectionsToLoad)
+	{
+		MapGraph map = new MapGraph(graph);
+		if (intersectionsToLoad != null) {
+			for (int v = 0; v < graph.getNumVertices(); v++) {
+				intersectionsToLoad.add(graph.getLocation(v));
+			}
+		}
+		if (segments != null) {
+			for (int edge = 0; edge < graph.getNumEdges(); edge++) {
+				List<GeographicPoint> points = getGeometry(edge);
+				GeographicPoint start = points.get(0);
+				GeographicPoint end = points.get(points.size() - 1);
+				RoadSegment seg = new RoadSegment(start, end, points.subList(1, points.size() - 1),
+						graph.getRoadName(edge), graph.getRoadType(edge), graph.getLength(edge));
+				addSegment(segments, start, seg);
+				addSegment(segments, end, seg);
+			}
+		}
+		return map;
+	}
+
+	private static void addSegment(HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			GeographicPoint pt, RoadSegment seg)
+	{
+		HashSet<RoadSegment> segs = segments.get(pt);
+		if (segs == null) {
+			segs = new HashSet<RoadSegment>();
+			segments.put(pt, segs);
+		}
+		segs.add(seg);
+	}
+
+	/**
+	 * Convert a .map file into a snapshot.
+	 *
+	 * @param args The map file and the snapshot file to write
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2) {
+			System.out.println("Usage: java util.GraphSnapshot <map file> <snapshot file>");
+			return;
+		}
+		long start = System.nanoTime();
+		MapGraph map = new MapGraph();
+		HashMap<GeographicPoint,HashSet<RoadSegment>> segments =
+				new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+		GraphLoader.loadRoadMap(args[0], map, segments, null);
+		long parsed = System.nanoTime();
+		write(new File(args[1]), map.compile(), segments);
+		long written = System.nanoTime();
+		GraphSnapshot snapshot = open(new File(args[1]));
+		long opened = System.nanoTime();
+
+		System.out.println("Converted " + args[0] + " (" + snapshot.getGraph().getNumVertices()
+				+ " intersections, " + snapshot.getGraph().getNumEdges() + " roads)");
+		System.out.printf("Parsing: %.1f ms, writing: %.1f ms, opening the snapshot: %.1f ms%n",
+				(parsed - start) / 1e6, (written - parsed) / 1e6, (opened - written) / 1e6);
+	}
+}
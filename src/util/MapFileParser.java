@@ -0,0 +1,470 @@
+package util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A parser for the lines of a .map road file,
+ * lat1 lon1 lat2 lon2 "roadName" roadType
+ *
+ * The file is memory mapped and cut into chunks at line boundaries, and the
+ * chunks are parsed in parallel straight from the mapped bytes into primitive
+ * arrays. Coordinates are parsed without building Strings, and each chunk
+ * numbers its distinct points and its distinct road names and types, so a
+ * point or name is stored once per chunk rather than once per line. The
+ * chunks are returned in file order and list their lines in file order, so
+ * the point map built from them is the same as when the file is read line by
+ * line.
+ *
+ * Tokens are split the same way as the original regular expression
+ * [^\s"']+|"([^"]*)", so a quoted name may contain spaces and apostrophes.
+ */
+class MapFileParser
+{
+	private static final int MAX_CHUNK_BYTES = 8 << 20;
+	private static final int MIN_CHUNK_BYTES = 64 << 10;
+
+	// Powers of ten that are exact as doubles
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Parse every line of a .map file.
+	 *
+	 * @param filename The file to parse
+	 * @return The chunks of the file in order
+	 * @throws IOException If the file cannot be read
+	 */
+	static List<Chunk> parse(String filename) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(filename, "r");
+				FileChannel channel = raf.getChannel()) {
+			long[] bounds = chunkBounds(channel);
+			try {
+				return IntStream.range(0, bounds.length - 1).parallel()
+						.mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1]))
+						.collect(Collectors.toList());
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	// Cut the file into chunks that each end just after a newline (or at the
+	// end of the file).  Returns the chunk start offsets followed by the size.
+	private static long[] chunkBounds(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		long chunkBytes = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, size / (4L * parallelism) + 1));
+
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long position = 0;
+		while (position + chunkBytes < size) {
+			position += chunkBytes;
+			// Move forward to the byte after the next newline
+			boolean found = false;
+			while (!found && position < size) {
+				probe.clear();
+				int read = channel.read(probe, position);
+				if (read <= 0) {
+					position = size;
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (probe.get(i) == '\n') {
+						position += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					position += read;
+				}
+			}
+			if (position < size) {
+				bounds.add(position);
+			}
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	private static Chunk parseChunk(FileChannel channel, long start, long end)
+	{
+		ByteBuffer bytes;
+		try {
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new ChunkParser(bytes).parse();
+	}
+
+	/**
+	 * The lines of one chunk of a map file. Every line refers to its two
+	 * points by their index among the distinct points of the chunk.
+	 */
+	static class Chunk
+	{
+		// Latitude and longitude of every distinct point
+		private final double[] coordinates;
+		private final int numPoints;
+		// First point, second point, road name and road type of every line
+		private final int[] lines;
+		private final int numLines;
+		private final String[] strings;
+
+		private Chunk(double[] coordinates, int numPoints, int[] lines, int numLines, String[] strings)
+		{
+			this.coordinates = coordinates;
+			this.numPoints = numPoints;
+			this.lines = lines;
+			this.numLines = numLines;
+			this.strings = strings;
+		}
+
+		int getNumPoints()
+		{
+			return numPoints;
+		}
+
+		double getLatitude(int point)
+		{
+			return coordinates[2 * point];
+		}
+
+		double getLongitude(int point)
+		{
+			return coordinates[2 * point + 1];
+		}
+
+		int getNumLines()
+		{
+			return numLines;
+		}
+
+		int getPoint1(int line)
+		{
+			return lines[4 * line];
+		}
+
+		int getPoint2(int line)
+		{
+			return lines[4 * line + 1];
+		}
+
+		String getRoadName(int line)
+		{
+			return strings[lines[4 * line + 2]];
+		}
+
+		String getRoadType(int line)
+		{
+			return strings[lines[4 * line + 3]];
+		}
+	}
+
+	/** Parses the lines of one chunk, reusing its token positions, points and names */
+	private static class ChunkParser
+	{
+		private final ByteBuffer bytes;
+		private final int size;
+		private final int[] tokenStart = new int[6];
+		private final int[] tokenEnd = new int[6];
+		private final PointTable points = new PointTable();
+		private final Interner strings = new Interner();
+		private int[] lines;
+		private int numLines;
+		private int pos;
+
+		ChunkParser(ByteBuffer bytes)
+		{
+			this.bytes = bytes;
+			this.size = bytes.limit();
+			lines = new int[4 * (size / 64 + 1)];
+		}
+
+		Chunk parse()
+		{
+			while (pos < size) {
+				int lineStart = pos;
+				int lineEnd = lineStart;
+				while (lineEnd < size && bytes.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				pos = lineEnd + 1;
+
+				int count = tokenize(lineStart, lineEnd);
+				if (count == 0) {
+					continue;
+				}
+				if (count < 6) {
+					throw new IllegalArgumentException("Malformed map line: " + decode(bytes, lineStart, lineEnd));
+				}
+				if (4 * numLines + 4 > lines.length) {
+					lines = Arrays.copyOf(lines, 2 * lines.length);
+				}
+				int line = 4 * numLines;
+				lines[line] = points.add(parseDouble(0), parseDouble(1));
+				lines[line + 1] = points.add(parseDouble(2), parseDouble(3));
+				lines[line + 2] = strings.intern(bytes, tokenStart[4], tokenEnd[4]);
+				lines[line + 3] = strings.intern(bytes, tokenStart[5], tokenEnd[5]);
+				numLines++;
+			}
+			return new Chunk(points.coordinates, points.size, lines, numLines, strings.values);
+		}
+
+		// Find up to six tokens in the line, dropping the quotes around quoted
+		// ones.  Returns the number of tokens found.
+		private int tokenize(int from, int to)
+		{
+			int count = 0;
+			int i = from;
+			while (i < to && count < 6) {
+				byte b = bytes.get(i);
+				if (b == '"') {
+					int close = i + 1;
+					while (close < to && bytes.get(close) != '"') {
+						close++;
+					}
+					if (close < to) {
+						tokenStart[count] = i + 1;
+						tokenEnd[count] = close;
+						count++;
+						i = close + 1;
+					} else {
+						i++;
+					}
+				} else if (isSeparator(b)) {
+					i++;
+				} else {
+					int tokenFrom = i;
+					while (i < to && !isSeparator(bytes.get(i)) && bytes.get(i) != '"') {
+						i++;
+					}
+					tokenStart[count] = tokenFrom;
+					tokenEnd[count] = i;
+					count++;
+				}
+			}
+			return count;
+		}
+
+		private static boolean isSeparator(byte b)
+		{
+			return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B || b == '\'';
+		}
+
+		// Parse a plain decimal number exactly when the digits fit in a double,
+		// and fall back to Double.parseDouble for anything else.
+		private double parseDouble(int token)
+		{
+			int i = tokenStart[token];
+			int end = tokenEnd[token];
+			boolean negative = false;
+			if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+				negative = bytes.get(i) == '-';
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int fractionDigits = 0;
+			boolean seenPoint = false;
+			for (; i < end; i++) {
+				byte b = bytes.get(i);
+				if (b >= '0' && b <= '9') {
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if (seenPoint) {
+						fractionDigits++;
+					}
+				} else if (b == '.' && !seenPoint) {
+					seenPoint = true;
+				} else {
+					break;
+				}
+			}
+			if (i != end || digits == 0 || digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+				return Double.parseDouble(decode(bytes, tokenStart[token], end));
+			}
+			// Both operands are exact, so the single division rounds correctly
+			double value = mantissa / POWERS_OF_TEN[fractionDigits];
+			return negative ? -value : value;
+		}
+	}
+
+	private static byte[] copy(ByteBuffer bytes, int from, int to)
+	{
+		byte[] copy = new byte[to - from];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = bytes.get(from + i);
+		}
+		return copy;
+	}
+
+	private static String decode(ByteBuffer bytes, int from, int to)
+	{
+		return new String(copy(bytes, from, to), StandardCharsets.UTF_8);
+	}
+
+	// Spread the bits of a hash over the low bits a table index takes
+	private static int spread(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * An open addressing table numbering distinct points in the order they
+	 * are first added. Points are the same when their coordinates have the
+	 * same bits, as for GeographicPoint.equals.
+	 */
+	private static class PointTable
+	{
+		private int[] slots = newSlots(1024);
+		private double[] coordinates = new double[1024];
+		private int size;
+
+		int add(double latitude, double longitude)
+		{
+			long latitudeBits = Double.doubleToLongBits(latitude);
+			long longitudeBits = Double.doubleToLongBits(longitude);
+			int mask = slots.length - 1;
+			int slot = spread(hash(latitudeBits, longitudeBits)) & mask;
+			while (slots[slot] >= 0) {
+				int point = slots[slot];
+				if (Double.doubleToLongBits(coordinates[2 * point]) == latitudeBits
+						&& Double.doubleToLongBits(coordinates[2 * point + 1]) == longitudeBits) {
+					return point;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (2 * size + 2 > coordinates.length) {
+				coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+			}
+			coordinates[2 * size] = latitude;
+			coordinates[2 * size + 1] = longitude;
+			slots[slot] = size;
+			if (++size * 2 > slots.length) {
+				grow();
+			}
+			return size - 1;
+		}
+
+		private static int hash(long latitudeBits, long longitudeBits)
+		{
+			return Long.hashCode(31 * latitudeBits + longitudeBits);
+		}
+
+		private void grow()
+		{
+			slots = newSlots(2 * slots.length);
+			int mask = slots.length - 1;
+			for (int point = 0; point < size; point++) {
+				int slot = spread(hash(Double.doubleToLongBits(coordinates[2 * point]),
+						Double.doubleToLongBits(coordinates[2 * point + 1]))) & mask;
+				while (slots[slot] >= 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = point;
+			}
+		}
+	}
+
+	private static int[] newSlots(int capacity)
+	{
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		return slots;
+	}
+
+	/**
+	 * An open addressing table numbering distinct byte ranges in the order
+	 * they are first seen, and holding the Strings they decode to
+	 */
+	private static class Interner
+	{
+		private int[] slots = newSlots(64);
+		private byte[][] keys = new byte[32][];
+		private int[] hashes = new int[32];
+		private String[] values = new String[32];
+		private int size;
+
+		int intern(ByteBuffer bytes, int from, int to)
+		{
+			int hash = 1;
+			for (int i = from; i < to; i++) {
+				hash = 31 * hash + bytes.get(i);
+			}
+			int mask = slots.length - 1;
+			int slot = spread(hash) & mask;
+			while (slots[slot] >= 0) {
+				int id = slots[slot];
+				if (hashes[id] == hash && matches(keys[id], bytes, from, to)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+				hashes = Arrays.copyOf(hashes, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			keys[size] = copy(bytes, from, to);
+			hashes[size] = hash;
+			values[size] = new String(keys[size], StandardCharsets.UTF_8);
+			slots[slot] = size;
+			if (++size * 2 > slots.length) {
+				grow();
+			}
+			return size - 1;
+		}
+
+		private static boolean matches(byte[] key, ByteBuffer bytes, int from, int to)
+		{
+			if (key.length != to - from) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != bytes.get(from + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void grow()
+		{
+			slots = newSlots(2 * slots.length);
+			int mask = slots.length - 1;
+			for (int id = 0; id < size; id++) {
+				int slot = spread(hashes[id]) & mask;
+				while (slots[slot] >= 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = id;
+			}
+		}
+	}
+}